@@ -5,7 +5,7 @@ import android.text.TextUtils;
 import com.android.volley.AuthFailureError;
 import com.android.volley.DefaultRetryPolicy;
 import com.android.volley.Request;
-import com.android.volley.toolbox.HttpStack;
+import com.android.volley.toolbox.AsyncHttpStack;
 
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.epoll.Epoll;
@@ -29,13 +29,18 @@ import org.asynchttpclient.util.HttpConstants;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.lang.reflect.Field;
+import java.net.SocketTimeoutException;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
 /**
- * AsyncHttpClient实现的Volley网络层
+ * AsyncHttpClient实现的Volley网络层，支持异步执行请求，配合 {@link com.android.volley.toolbox.BasicAsyncNetwork} 使用时，
+ * 网络分发线程不需要阻塞等待响应
  */
-public class AsyncHttpClientStack implements HttpStack {
+public class AsyncHttpClientStack implements AsyncHttpStack {
     private static final int maxRequestRetry = 2;
 
     private final AsyncHttpClient mAsyncHttpClient;
@@ -73,22 +78,66 @@ public class AsyncHttpClientStack implements HttpStack {
 
     @Override
     public HttpResponse performRequest(Request<?> request, Map<String, String> additionalHeaders) throws IOException, AuthFailureError {
-        int timeoutMs = request.getTimeoutMs();
+        org.asynchttpclient.Request clientRequest = buildClientRequest(request, additionalHeaders);
 
-        AsyncHttpClient client;
-        //3个超时时间都不一样时，重新构建一个AsyncHttpClient，才可以设置
-        if (timeoutMs != mAsyncHttpClient.getConfig().getConnectTimeout() &&
-                timeoutMs != mAsyncHttpClient.getConfig().getReadTimeout() &&
-                timeoutMs != mAsyncHttpClient.getConfig().getRequestTimeout()) {
-            client = Dsl.asyncHttpClient(getConfig(timeoutMs));
-        } else {
-            client = mAsyncHttpClient;
+        //发起请求，并阻塞等待响应
+        Response response;
+        try {
+            response = mAsyncHttpClient.executeRequest(clientRequest).get();
+        } catch (ExecutionException e) {
+            throw toIOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + request.getUrl());
+        }
+        return toHttpResponse(response);
+    }
+
+    @Override
+    public void executeRequest(Request<?> request, Map<String, String> additionalHeaders,
+                               final OnRequestComplete callback) {
+        org.asynchttpclient.Request clientRequest;
+        try {
+            clientRequest = buildClientRequest(request, additionalHeaders);
+        } catch (AuthFailureError authFailureError) {
+            callback.onAuthError(authFailureError);
+            return;
         }
 
+        //发起异步请求，响应体读取完成后在AsyncHttpClient的IO线程中回调
+        mAsyncHttpClient.executeRequest(clientRequest, new AsyncCompletionHandler<Response>() {
+            @Override
+            public Response onCompleted(Response response) {
+                HttpResponse httpResponse;
+                try {
+                    httpResponse = toHttpResponse(response);
+                } catch (IOException e) {
+                    callback.onError(e);
+                    return response;
+                }
+                callback.onSuccess(httpResponse);
+                return response;
+            }
+
+            @Override
+            public void onThrowable(Throwable t) {
+                callback.onError(toIOException(t));
+            }
+        });
+    }
+
+    /**
+     * 把Volley的请求转换为AsyncHttpClient的请求
+     */
+    private org.asynchttpclient.Request buildClientRequest(Request<?> request, Map<String, String> additionalHeaders) throws AuthFailureError {
         //创建AsyncHttpClient的请求
         RequestBuilder builder = new RequestBuilder();
         //设置请求Url
         builder.setUrl(request.getUrl());
+        //超时时间设置在请求上，所有请求共用同一个AsyncHttpClient的线程和连接池，连接超时使用客户端的配置
+        int timeoutMs = request.getTimeoutMs();
+        builder.setRequestTimeout(timeoutMs);
+        builder.setReadTimeout(timeoutMs);
 
         //添加请求Header
         Map<String, String> headers = request.getHeaders();
@@ -105,15 +154,14 @@ public class AsyncHttpClientStack implements HttpStack {
         setConnectionParametersForRequest(builder, request);
 
         //构建请求
-        org.asynchttpclient.Request clientRequest = builder.build();
+        return builder.build();
+    }
 
-        //发起同步请求，获取响应
-        NettyResponse response;
-        try {
-            response = (NettyResponse) client.prepareRequest(clientRequest).execute().get();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * 把AsyncHttpClient的响应转换成HttpClient的响应
+     */
+    private HttpResponse toHttpResponse(Response asyncResponse) throws IOException {
+        NettyResponse response = (NettyResponse) asyncResponse;
 
         //获取协议
         String protocol = getProtocol(response);
@@ -121,7 +169,6 @@ public class AsyncHttpClientStack implements HttpStack {
         //转换相应状态行
         BasicStatusLine responseStatus = new BasicStatusLine(
                 //把AsyncHttpClient的网络协议，转为HttpClient的网络协议类
-                //parseProtocol(response.get),
                 parseProtocol(HttpVersion.valueOf(protocol)),
                 //响应码
                 response.getStatusCode(),
@@ -144,6 +191,21 @@ public class AsyncHttpClientStack implements HttpStack {
         return httpClientResponse;
     }
 
+    /**
+     * AsyncHttpClient的异常转换为IOException，超时转换为SocketTimeoutException，BasicNetwork会按照重试策略重试
+     */
+    private static IOException toIOException(Throwable t) {
+        if (t instanceof IOException) {
+            return (IOException) t;
+        }
+        if (t instanceof TimeoutException) {
+            SocketTimeoutException timeoutException = new SocketTimeoutException(t.getMessage());
+            timeoutException.initCause(t);
+            return timeoutException;
+        }
+        return new IOException(t);
+    }
+
     /**
      * 获取协议
      */
@@ -14,16 +14,28 @@ import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.message.BasicStatusLine;
 
 import okhttp3.*;
+import okio.BufferedSink;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 /**
  * OkHttp实现的Volley网络层
  */
 public class OkHttpStack implements HttpStack {
-    private OkHttpClient mOkHttpClient;
+    /**
+     * 最多缓存的不同超时时间的OkHttpClient数量，超过后不再缓存，直接创建
+     */
+    private static final int MAX_CACHED_CLIENTS = 16;
+
+    private final OkHttpClient mOkHttpClient;
+
+    /**
+     * 超时时间和对应的OkHttpClient，都是通过 {@link OkHttpClient#newBuilder()} 创建的，共享同一个连接池和Dispatcher
+     */
+    private final Map<Integer, OkHttpClient> mTimeoutClients = new ConcurrentHashMap<>();
 
     /**
      * 无参构造，没有传入OkHttpClient，直接创建默认的OkHttpClient实例
@@ -56,22 +68,7 @@ public class OkHttpStack implements HttpStack {
 
     @Override
     public HttpResponse performRequest(Request<?> request, Map<String, String> additionalHeaders) throws IOException, AuthFailureError {
-        int timeoutMs = request.getTimeoutMs();
-        OkHttpClient client;
-        //3个超时时间都不一样时，重新构建一个OkHttpClient，才可以设置
-        if (timeoutMs != mOkHttpClient.connectTimeoutMillis() &&
-                timeoutMs != mOkHttpClient.readTimeoutMillis() &&
-                timeoutMs != mOkHttpClient.writeTimeoutMillis()) {
-            client = mOkHttpClient.newBuilder()
-                    .connectTimeout(timeoutMs, TimeUnit.MILLISECONDS)
-                    .readTimeout(timeoutMs, TimeUnit.MILLISECONDS)
-                    .writeTimeout(timeoutMs, TimeUnit.MILLISECONDS)
-                    .build();
-        } else {
-            client = mOkHttpClient;
-        }
-        //下次以最新请求的配置为准
-        mOkHttpClient = client;
+        OkHttpClient client = clientFor(request.getTimeoutMs());
 
         //创建OkHttp的请求
         okhttp3.Request.Builder builder = new okhttp3.Request.Builder();
@@ -122,6 +119,31 @@ public class OkHttpStack implements HttpStack {
         return httpClientResponse;
     }
 
+    /**
+     * 获取超时时间对应的OkHttpClient，和默认的OkHttpClient不一致时，使用缓存的派生实例
+     */
+    private OkHttpClient clientFor(int timeoutMs) {
+        if (timeoutMs == mOkHttpClient.connectTimeoutMillis() &&
+                timeoutMs == mOkHttpClient.readTimeoutMillis() &&
+                timeoutMs == mOkHttpClient.writeTimeoutMillis()) {
+            return mOkHttpClient;
+        }
+        OkHttpClient client = mTimeoutClients.get(timeoutMs);
+        if (client != null) {
+            return client;
+        }
+        //派生的实例共享连接池和Dispatcher，创建的开销很小，并发时重复创建也没有关系
+        client = mOkHttpClient.newBuilder()
+                .connectTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .build();
+        if (mTimeoutClients.size() < MAX_CACHED_CLIENTS) {
+            mTimeoutClients.put(timeoutMs, client);
+        }
+        return client;
+    }
+
     /**
      * OkHttp响应转换为HttpClient的HttpEntity对象
      */
@@ -201,10 +223,27 @@ public class OkHttpStack implements HttpStack {
      * 通过OkHttp的请求，创建RequestBody
      */
     private static RequestBody createRequestBody(Request<?> request) throws AuthFailureError {
-        final byte[] body = request.getBody();
+        final Request.BodyWriter body = request.getBodyWriter();
         if (body == null) {
             throw new NullPointerException(request.getMethod() + "请求的请求体不能为空");
         }
-        return RequestBody.create(MediaType.parse(request.getBodyContentType()), body);
+        final MediaType contentType = MediaType.parse(request.getBodyContentType());
+        //请求体直接写入OkHttp的输出流，长度未知时OkHttp会使用分块传输
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return contentType;
+            }
+
+            @Override
+            public long contentLength() {
+                return body.getContentLength();
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                body.writeTo(sink.outputStream());
+            }
+        };
     }
 }
\ No newline at end of file
@@ -0,0 +1,163 @@
+package com.zh.android.volley.volley;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.toolbox.AsyncHttpStack;
+import com.android.volley.toolbox.StringRequest;
+
+import org.apache.http.HttpResponse;
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.Dsl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link AsyncHttpClientStack} 的测试，超时时间各不相同的请求共用同一个客户端，线程数和连接数不会随请求数量增长
+ */
+public class AsyncHttpClientStackTest {
+    private static final int WARM_UP_REQUESTS = 100;
+    private static final int REQUESTS = 1000;
+    private static final int CONCURRENCY = 8;
+
+    private static final byte[] RESPONSE = ("HTTP/1.1 200 OK\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "Content-Length: 2\r\n"
+            + "\r\n"
+            + "ok").getBytes(Charset.forName("US-ASCII"));
+
+    private ServerSocket mServerSocket;
+    private final AtomicInteger mAcceptedConnections = new AtomicInteger();
+    private AsyncHttpClient mClient;
+    private AsyncHttpStack mStack;
+
+    @Before
+    public void setUp() throws IOException {
+        mServerSocket = new ServerSocket(0);
+        Thread acceptor = new Thread("TestHttpServer") {
+            @Override
+            public void run() {
+                while (!mServerSocket.isClosed()) {
+                    try {
+                        final Socket socket = mServerSocket.accept();
+                        mAcceptedConnections.incrementAndGet();
+                        Thread handler = new Thread("TestHttpConnection") {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        };
+                        handler.setDaemon(true);
+                        handler.start();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+        mClient = Dsl.asyncHttpClient();
+        mStack = new AsyncHttpClientStack(mClient);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mClient.close();
+        mServerSocket.close();
+    }
+
+    @Test
+    public void varyingTimeoutsShareThreadsAndConnections() throws Exception {
+        runRequests(0, WARM_UP_REQUESTS);
+        int threads = Thread.activeCount();
+        int connections = mAcceptedConnections.get();
+
+        runRequests(WARM_UP_REQUESTS, REQUESTS);
+
+        assertTrue("threads grew from " + threads + " to " + Thread.activeCount(),
+                Thread.activeCount() <= threads + 2);
+        assertTrue("connections grew from " + connections + " to " + mAcceptedConnections.get(),
+                mAcceptedConnections.get() <= Math.max(connections, CONCURRENCY) + 2);
+    }
+
+    /**
+     * 并发执行请求，每个请求的超时时间都不同，等待全部完成
+     */
+    private void runRequests(int from, int to) throws Exception {
+        final Semaphore permits = new Semaphore(CONCURRENCY);
+        final Queue<Object> failures = new ConcurrentLinkedQueue<>();
+        String url = "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/";
+        for (int i = from; i < to; i++) {
+            permits.acquire();
+            StringRequest request = new StringRequest(url + i, null, null);
+            request.setRetryPolicy(new DefaultRetryPolicy(1000 + (i % 100) * 37, 0, 1));
+            mStack.executeRequest(request, Collections.<String, String>emptyMap(),
+                    new AsyncHttpStack.OnRequestComplete() {
+                        @Override
+                        public void onSuccess(HttpResponse httpResponse) {
+                            if (httpResponse.getStatusLine().getStatusCode() != 200) {
+                                failures.add(httpResponse.getStatusLine());
+                            }
+                            permits.release();
+                        }
+
+                        @Override
+                        public void onAuthError(AuthFailureError authFailureError) {
+                            failures.add(authFailureError);
+                            permits.release();
+                        }
+
+                        @Override
+                        public void onError(IOException ioException) {
+                            failures.add(ioException);
+                            permits.release();
+                        }
+                    });
+        }
+        assertTrue(permits.tryAcquire(CONCURRENCY, 30, TimeUnit.SECONDS));
+        assertEquals(Collections.emptyList(), new ArrayList<>(failures));
+    }
+
+    /**
+     * 保持连接，按顺序读取请求头并返回固定的响应
+     */
+    private static void serve(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    Charset.forName("US-ASCII")));
+            OutputStream out = socket.getOutputStream();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    out.write(RESPONSE);
+                    out.flush();
+                }
+            }
+        } catch (IOException ignored) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
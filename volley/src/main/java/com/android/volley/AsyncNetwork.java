@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+/**
+ * 异步的网络请求接口，发起请求后立即返回，不阻塞网络分发器的线程
+ * <p>
+ * {@link NetworkDispatcher} 发现网络实现了该接口时，会使用异步的方式发起请求，请求完成后再放回网络队列中解析，
+ * 分发器的线程只负责解析响应，同一时间可以有远多于分发器线程数的请求在进行中
+ */
+public interface AsyncNetwork extends Network {
+    /**
+     * 异步执行请求
+     *
+     * @param request  准备处理的请求
+     * @param callback 请求完成的回调，可能在任意线程中回调，并且只会回调一次
+     */
+    void performRequest(Request<?> request, OnRequestComplete callback);
+
+    /**
+     * 异步请求完成的回调
+     */
+    interface OnRequestComplete {
+        /**
+         * 请求成功
+         */
+        void onSuccess(NetworkResponse networkResponse);
+
+        /**
+         * 请求失败，已经按照重试策略重试过了
+         */
+        void onError(VolleyError volleyError);
+    }
+}
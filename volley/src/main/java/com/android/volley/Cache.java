@@ -21,18 +21,22 @@ import java.util.Map;
 
 /**
  * 一个缓存接口，Key为String
+ * <p>
+ * 实现需要是线程安全的：多个缓存分发器、网络请求线程会并发调用这些方法。
+ * {@link RequestQueue} 不会等待 {@link #initialize()} 完成才开始分发请求，
+ * 所以任何方法都可能在初始化完成之前、甚至开始之前被调用，见 {@link #initialize()}
  */
 public interface Cache {
     /**
-     * 查询缓存
+     * 查询缓存，可能在初始化完成之前被调用
      *
-     * @param key 缓存Ke
+     * @param key 缓存Key
      * @return An {@link Entry} or null in the event of a cache miss
      */
     Entry get(String key);
 
     /**
-     * 添加或更新缓存
+     * 添加或更新缓存，可能在初始化完成之前被调用，初始化不能用磁盘上的旧数据覆盖它
      *
      * @param key   缓存Key
      * @param entry Data to store and metadata for cache coherency, TTL, etc.
@@ -41,6 +45,11 @@ public interface Cache {
 
     /**
      * 缓存初始化，该方法在子线程中回调
+     * <p>
+     * 初始化在后台执行，不会阻塞请求的分发，期间 {@link #get(String)}、{@link #put(String, Entry)}、
+     * {@link #remove(String)}、{@link #clear()} 等方法可能被并发调用，也可能先于初始化被调用。
+     * 还没有加载的缓存应该当作未命中处理，初始化期间被写入、移除、清空过的缓存以最新的操作为准。
+     * 依赖初始化完成才能正确读写的实现，需要自己在这些方法中等待初始化完成
      */
     void initialize();
 
@@ -49,6 +49,16 @@ public class CacheDispatcher extends Thread {
      */
     private final ResponseDelivery mDelivery;
 
+    /**
+     * 是否由该分发器负责初始化缓存
+     */
+    private final boolean mInitializeCache;
+
+    /**
+     * 解析结果缓存，为null则每次命中缓存都重新解析
+     */
+    private final ParsedResponseCache mParsedCache;
+
     /**
      * 是否退出的标记
      */
@@ -65,10 +75,36 @@ public class CacheDispatcher extends Thread {
     public CacheDispatcher(
             BlockingQueue<Request<?>> cacheQueue, BlockingQueue<Request<?>> networkQueue,
             Cache cache, ResponseDelivery delivery) {
+        this(cacheQueue, networkQueue, cache, delivery, true);
+    }
+
+    /**
+     * 构造方法，用于多个缓存分发器共享同一个缓存的情况，缓存只会被其中一个分发器初始化
+     *
+     * @param cacheQueue      缓存队列
+     * @param networkQueue    网络队列
+     * @param cache           缓存类
+     * @param delivery        请求结果分发器
+     * @param initializeCache 是否由该分发器负责初始化缓存
+     */
+    public CacheDispatcher(
+            BlockingQueue<Request<?>> cacheQueue, BlockingQueue<Request<?>> networkQueue,
+            Cache cache, ResponseDelivery delivery, boolean initializeCache) {
+        this(cacheQueue, networkQueue, cache, delivery, initializeCache, null);
+    }
+
+    /**
+     * 构造方法，命中缓存时优先使用解析结果缓存
+     */
+    CacheDispatcher(BlockingQueue<Request<?>> cacheQueue, BlockingQueue<Request<?>> networkQueue,
+                    Cache cache, ResponseDelivery delivery, boolean initializeCache,
+                    ParsedResponseCache parsedCache) {
         mCacheQueue = cacheQueue;
         mNetworkQueue = networkQueue;
         mCache = cache;
         mDelivery = delivery;
+        mInitializeCache = initializeCache;
+        mParsedCache = parsedCache;
     }
 
     /**
@@ -87,8 +123,11 @@ public class CacheDispatcher extends Thread {
         //设置线程优先级
         Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
 
-        //缓存初始化
-        mCache.initialize();
+        //缓存初始化，只由一个分发器发起，在后台线程中执行，不阻塞请求的处理
+        //初始化期间，已经加载的缓存可以直接命中，还没加载的会被当作未命中，直接请求网络
+        if (mInitializeCache) {
+            initializeCacheInBackground();
+        }
 
         Request<?> request;
         //死循环，不断从队列中取出请求
@@ -131,14 +170,24 @@ public class CacheDispatcher extends Thread {
                     continue;
                 }
 
-                //命中缓存，解析它
+                //命中缓存，缓存没有变化时直接使用之前解析的结果，否则解析它
                 request.addMarker("cache-hit");
-                Response<?> response = request.parseNetworkResponse(
-                        new NetworkResponse(entry.data, entry.responseHeaders));
-                request.addMarker("cache-hit-parsed");
+                Response<?> response = mParsedCache == null ? null : mParsedCache.get(request, entry);
+                if (response != null) {
+                    request.addMarker("cache-hit-parsed-reused");
+                } else {
+                    response = request.parseNetworkResponse(
+                            new NetworkResponse(entry.data, entry.responseHeaders));
+                    request.addMarker("cache-hit-parsed");
+                    if (mParsedCache != null) {
+                        mParsedCache.put(request, response, entry);
+                    }
+                }
 
                 if (!entry.refreshNeeded()) {
-                    //完全没有过期，在主线程回调结果
+                    //完全没有过期，先交给等待中的相同请求，再在主线程回调结果
+                    request.notifyListenerResponseReceived(response);
+                    request.notifyListenerResponseCached();
                     mDelivery.postResponse(request, response);
                 } else {
                     //软过期，在主线程回调结果，但也要请求网络
@@ -167,4 +216,21 @@ public class CacheDispatcher extends Thread {
             }
         }
     }
+
+    /**
+     * 启动一个后台线程初始化缓存
+     */
+    private void initializeCacheInBackground() {
+        new Thread("VolleyCacheInitializer") {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    mCache.initialize();
+                } catch (Exception e) {
+                    VolleyLog.e(e, "Unhandled exception %s", e.toString());
+                }
+            }
+        }.start();
+    }
 }
@@ -70,6 +70,13 @@ public class ExecutorDelivery implements ResponseDelivery {
         mResponsePoster.execute(new ResponseDeliveryRunnable(request, response, null));
     }
 
+    /**
+     * 在回调响应的线程中执行，和响应、错误的回调按照提交的顺序执行，用于回调进度等中间结果
+     */
+    public void postRunnable(Runnable runnable) {
+        mResponsePoster.execute(runnable);
+    }
+
     /**
      * 这个Runnable用于包装，用于在主线程回调
      */
@@ -16,11 +16,7 @@
 
 package com.android.volley;
 
-import android.annotation.TargetApi;
-import android.net.TrafficStats;
-import android.os.Build;
 import android.os.Process;
-import android.os.SystemClock;
 
 import java.util.concurrent.BlockingQueue;
 
@@ -33,17 +29,13 @@ public class NetworkDispatcher extends Thread {
      */
     private final BlockingQueue<Request<?>> mQueue;
     /**
-     * 网络请求发起操作类
+     * 单个请求的处理逻辑
      */
-    private final Network mNetwork;
+    private final NetworkRequestProcessor mProcessor;
     /**
-     * 缓存类
+     * 所属的分发器线程池，为null则代表独立运行，一直从队列中取出请求
      */
-    private final Cache mCache;
-    /**
-     * 请求响应结果分发器
-     */
-    private final ResponseDelivery mDelivery;
+    private final NetworkDispatcherPool mPool;
     /**
      * 是否退出
      */
@@ -60,10 +52,17 @@ public class NetworkDispatcher extends Thread {
     public NetworkDispatcher(BlockingQueue<Request<?>> queue,
                              Network network, Cache cache,
                              ResponseDelivery delivery) {
+        this(queue, new NetworkRequestProcessor(queue, network, cache, delivery, null), null);
+    }
+
+    /**
+     * 创建一个属于分发器线程池的网络请求分发器，空闲超时后会自动退出
+     */
+    NetworkDispatcher(BlockingQueue<Request<?>> queue, NetworkRequestProcessor processor,
+                      NetworkDispatcherPool pool) {
         mQueue = queue;
-        mNetwork = network;
-        mCache = cache;
-        mDelivery = delivery;
+        mProcessor = processor;
+        mPool = pool;
     }
 
     /**
@@ -76,30 +75,30 @@ public class NetworkDispatcher extends Thread {
         interrupt();
     }
 
-    /**
-     * 流量统计
-     */
-    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
-    private void addTrafficStatsTag(Request<?> request) {
-        // Tag the request (if API >= 14)
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
-            TrafficStats.setThreadStatsTag(request.getTrafficStatsTag());
-        }
-    }
-
     @Override
     public void run() {
         //设置线程优先级
         Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-        Request<?> request;
+        Request<?> request = null;
         //死循环，不断从网络请求队列中获取请求
         while (true) {
-            long startTimeMs = SystemClock.elapsedRealtime();
+            //上一个请求处理完成
+            if (request != null && mPool != null) {
+                mPool.onRequestDone();
+            }
             //释放之前的请求对象，避免泄露
             request = null;
             try {
                 //从网络请求队列中获取请求
-                request = mQueue.take();
+                if (mPool == null) {
+                    request = mQueue.take();
+                } else {
+                    request = mPool.takeRequest(this);
+                    //线程池收缩，该分发器退出
+                    if (request == null) {
+                        return;
+                    }
+                }
             } catch (InterruptedException e) {
                 //退出了，停止
                 if (mQuit) {
@@ -107,57 +106,7 @@ public class NetworkDispatcher extends Thread {
                 }
                 continue;
             }
-            try {
-                request.addMarker("network-queue-take");
-                //请求被取消，结束该请求
-                if (request.isCanceled()) {
-                    request.finish("network-discard-cancelled");
-                    continue;
-                }
-
-                //流量统计
-                addTrafficStatsTag(request);
-
-                //执行网络请求
-                NetworkResponse networkResponse = mNetwork.performRequest(request);
-                request.addMarker("network-http-complete");
-
-                //服务端返回了304，并且我们已经响应到主线程了，就算完成请求了，结束该请求
-                if (networkResponse.notModified && request.hasHadResponseDelivered()) {
-                    request.finish("not-modified");
-                    continue;
-                }
-
-                //在子线程中，解析该请求
-                Response<?> response = request.parseNetworkResponse(networkResponse);
-                request.addMarker("network-parse-complete");
-
-                // 如果该请求需要被缓存，则缓存该请求的结果
-                if (request.shouldCache() && response.cacheEntry != null) {
-                    mCache.put(request.getCacheKey(), response.cacheEntry);
-                    request.addMarker("network-cache-written");
-                }
-
-                request.markDelivered();
-                //把解析好的数据，在主线程中回调
-                mDelivery.postResponse(request, response);
-            } catch (VolleyError volleyError) {
-                volleyError.setNetworkTimeMs(SystemClock.elapsedRealtime() - startTimeMs);
-                parseAndDeliverNetworkError(request, volleyError);
-            } catch (Exception e) {
-                VolleyLog.e(e, "Unhandled exception %s", e.toString());
-                VolleyError volleyError = new VolleyError(e);
-                volleyError.setNetworkTimeMs(SystemClock.elapsedRealtime() - startTimeMs);
-                mDelivery.postError(request, volleyError);
-            }
+            mProcessor.process(request);
         }
     }
-
-    /**
-     * 解析并且回调网络错误
-     */
-    private void parseAndDeliverNetworkError(Request<?> request, VolleyError error) {
-        error = request.parseNetworkError(error);
-        mDelivery.postError(request, error);
-    }
 }
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import android.os.Process;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 网络分发器线程池，线程数量在最小值和最大值之间，根据负载自动调整
+ * <p>
+ * 所有分发器都在忙，并且有请求排队超过了阈值时，增加一个分发器；超过最小数量的分发器空闲超过保活时间后退出。
+ * 最小值和最大值相等时，就是固定数量的分发器
+ */
+class NetworkDispatcherPool {
+    /**
+     * 默认的扩容阈值，请求排队超过该时间时扩容
+     */
+    static final long DEFAULT_GROW_THRESHOLD_MS = 200;
+
+    /**
+     * 默认的保活时间，超过最小数量的分发器空闲超过该时间后退出
+     */
+    static final long DEFAULT_KEEP_ALIVE_MS = 30 * 1000;
+
+    private final NetworkScheduler mQueue;
+    private final NetworkRequestProcessor mProcessor;
+
+    /**
+     * 运行中的分发器，访问时需要持有该对象的锁
+     */
+    private final Set<NetworkDispatcher> mDispatchers = new HashSet<>();
+
+    /**
+     * 正在处理请求的分发器数量
+     */
+    private final AtomicInteger mBusyCount = new AtomicInteger();
+
+    private int mMinThreads;
+    private int mMaxThreads;
+    private long mGrowThresholdMs = DEFAULT_GROW_THRESHOLD_MS;
+    private long mKeepAliveMs = DEFAULT_KEEP_ALIVE_MS;
+
+    /**
+     * 检查是否需要扩容的线程，最小值和最大值相等时不需要
+     */
+    private Thread mMonitor;
+
+    private boolean mStarted;
+
+    NetworkDispatcherPool(NetworkScheduler queue, NetworkRequestProcessor processor,
+                          int threadPoolSize) {
+        mQueue = queue;
+        mProcessor = processor;
+        setBounds(threadPoolSize, threadPoolSize);
+    }
+
+    /**
+     * 设置分发器数量的范围，需要在启动之前调用
+     */
+    synchronized void setBounds(int minThreads, int maxThreads) {
+        checkNotStarted();
+        if (minThreads < 1 || maxThreads < minThreads) {
+            throw new IllegalArgumentException(
+                    "Invalid thread pool bounds [" + minThreads + ", " + maxThreads + "]");
+        }
+        mMinThreads = minThreads;
+        mMaxThreads = maxThreads;
+    }
+
+    /**
+     * 设置扩容阈值，需要在启动之前调用
+     */
+    synchronized void setGrowThresholdMs(long growThresholdMs) {
+        checkNotStarted();
+        if (growThresholdMs < 1) {
+            throw new IllegalArgumentException("growThresholdMs must be positive");
+        }
+        mGrowThresholdMs = growThresholdMs;
+    }
+
+    /**
+     * 设置保活时间，需要在启动之前调用
+     */
+    synchronized void setKeepAliveMs(long keepAliveMs) {
+        checkNotStarted();
+        if (keepAliveMs < 1) {
+            throw new IllegalArgumentException("keepAliveMs must be positive");
+        }
+        mKeepAliveMs = keepAliveMs;
+    }
+
+    /**
+     * 启动最小数量的分发器
+     */
+    synchronized void start() {
+        mStarted = true;
+        for (int i = 0; i < mMinThreads; i++) {
+            startDispatcher();
+        }
+        if (mMaxThreads > mMinThreads) {
+            mMonitor = new Monitor();
+            mMonitor.start();
+        }
+    }
+
+    /**
+     * 停止所有分发器
+     */
+    synchronized void stop() {
+        mStarted = false;
+        if (mMonitor != null) {
+            mMonitor.interrupt();
+            mMonitor = null;
+        }
+        for (NetworkDispatcher dispatcher : mDispatchers) {
+            dispatcher.quit();
+        }
+        mDispatchers.clear();
+    }
+
+    /**
+     * 当前的分发器数量
+     */
+    synchronized int getThreadCount() {
+        return mDispatchers.size();
+    }
+
+    /**
+     * 正在处理请求的分发器数量
+     */
+    int getBusyCount() {
+        return mBusyCount.get();
+    }
+
+    /**
+     * 分发器的利用率，正在处理请求的分发器占全部分发器的比例
+     */
+    float getUtilization() {
+        int threads = getThreadCount();
+        return threads == 0 ? 0 : Math.min(1f, (float) getBusyCount() / threads);
+    }
+
+    /**
+     * 分发器取出下一个请求，分发器数量超过最小值时，空闲超过保活时间会返回null，分发器需要退出
+     */
+    Request<?> takeRequest(NetworkDispatcher dispatcher) throws InterruptedException {
+        while (true) {
+            Request<?> request;
+            if (canRetire()) {
+                request = mQueue.poll(mKeepAliveMs, TimeUnit.MILLISECONDS);
+                if (request == null) {
+                    if (retire(dispatcher)) {
+                        return null;
+                    }
+                    continue;
+                }
+            } else {
+                request = mQueue.take();
+            }
+            mBusyCount.incrementAndGet();
+            return request;
+        }
+    }
+
+    /**
+     * 分发器处理完了一个请求
+     */
+    void onRequestDone() {
+        mBusyCount.decrementAndGet();
+    }
+
+    private synchronized boolean canRetire() {
+        return mDispatchers.size() > mMinThreads;
+    }
+
+    private synchronized boolean retire(NetworkDispatcher dispatcher) {
+        if (mDispatchers.size() <= mMinThreads) {
+            return false;
+        }
+        mDispatchers.remove(dispatcher);
+        if (VolleyLog.DEBUG) {
+            VolleyLog.v("Network dispatcher idle, shrinking pool to %d", mDispatchers.size());
+        }
+        return true;
+    }
+
+    /**
+     * 所有分发器都在忙，并且有请求排队超过了阈值，增加一个分发器
+     */
+    private synchronized void growIfNeeded() {
+        if (!mStarted || mDispatchers.size() >= mMaxThreads
+                || mBusyCount.get() < mDispatchers.size()
+                || mQueue.getOldestWaitMs() < mGrowThresholdMs) {
+            return;
+        }
+        startDispatcher();
+        if (VolleyLog.DEBUG) {
+            VolleyLog.v("Network queue backed up, growing pool to %d", mDispatchers.size());
+        }
+    }
+
+    private void startDispatcher() {
+        NetworkDispatcher dispatcher = new NetworkDispatcher(mQueue, mProcessor, this);
+        mDispatchers.add(dispatcher);
+        dispatcher.start();
+    }
+
+    private void checkNotStarted() {
+        if (mStarted) {
+            throw new IllegalStateException("Network thread pool is already started");
+        }
+    }
+
+    /**
+     * 定期检查是否需要扩容
+     */
+    private class Monitor extends Thread {
+        Monitor() {
+            super("VolleyNetworkPoolMonitor");
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            long interval = Math.max(10, mGrowThresholdMs / 2);
+            while (!isInterrupted()) {
+                try {
+                    Thread.sleep(interval);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                growIfNeeded();
+            }
+        }
+    }
+}
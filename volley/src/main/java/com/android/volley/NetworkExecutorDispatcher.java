@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import android.os.Process;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 把网络请求交给外部的执行者处理，每个请求一个任务
+ * <p>
+ * 该线程只负责从 {@link NetworkScheduler} 中取出请求并提交，网络请求在执行者的线程上进行，
+ * 没有固定的线程数量上限，适合虚拟线程等廉价线程。每个主机的并发上限仍然由调度队列控制
+ */
+class NetworkExecutorDispatcher extends Thread {
+    private final NetworkScheduler mQueue;
+    private final NetworkRequestProcessor mProcessor;
+    private final Executor mExecutor;
+
+    /**
+     * 已经提交、还没有处理完的请求数量
+     */
+    private final AtomicInteger mActiveCount = new AtomicInteger();
+
+    private volatile boolean mQuit = false;
+
+    NetworkExecutorDispatcher(NetworkScheduler queue, NetworkRequestProcessor processor,
+                              Executor executor) {
+        super("VolleyNetworkFeeder");
+        mQueue = queue;
+        mProcessor = processor;
+        mExecutor = executor;
+    }
+
+    /**
+     * 退出，已经提交给执行者的请求会继续处理完
+     */
+    void quit() {
+        mQuit = true;
+        interrupt();
+    }
+
+    /**
+     * 已经提交、还没有处理完的请求数量
+     */
+    int getActiveCount() {
+        return mActiveCount.get();
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        while (true) {
+            final Request<?> request;
+            try {
+                request = mQueue.take();
+            } catch (InterruptedException e) {
+                if (mQuit) {
+                    return;
+                }
+                continue;
+            }
+            mActiveCount.incrementAndGet();
+            try {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            mProcessor.process(request);
+                        } finally {
+                            mActiveCount.decrementAndGet();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                //执行者已经关闭或者饱和，请求不会再被处理，直接回调错误
+                mActiveCount.decrementAndGet();
+                VolleyLog.e(e, "Network executor rejected %s", request.getUrl());
+                mProcessor.reject(request, e);
+            }
+        }
+    }
+}
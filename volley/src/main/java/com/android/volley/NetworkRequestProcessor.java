@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import android.annotation.TargetApi;
+import android.net.TrafficStats;
+import android.os.Build;
+import android.os.SystemClock;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 处理从网络队列中取出的单个请求：发起网络请求、解析、写缓存、回调结果
+ * <p>
+ * 不关心运行在哪个线程上，{@link NetworkDispatcher} 线程和 {@link RequestQueue#setNetworkExecutor}
+ * 设置的线程池共用该逻辑
+ */
+class NetworkRequestProcessor {
+    /**
+     * 网络请求队列，异步网络请求完成后请求会被放回该队列
+     */
+    private final BlockingQueue<Request<?>> mQueue;
+    /**
+     * 网络请求发起操作类
+     */
+    private final Network mNetwork;
+    /**
+     * 缓存类
+     */
+    private final Cache mCache;
+    /**
+     * 请求响应结果分发器
+     */
+    private final ResponseDelivery mDelivery;
+    /**
+     * 解析结果缓存，写入缓存时同时保存解析结果，为null则不保存
+     */
+    private final ParsedResponseCache mParsedCache;
+
+    NetworkRequestProcessor(BlockingQueue<Request<?>> queue, Network network, Cache cache,
+                            ResponseDelivery delivery, ParsedResponseCache parsedCache) {
+        mQueue = queue;
+        mNetwork = network;
+        mCache = cache;
+        mDelivery = delivery;
+        mParsedCache = parsedCache;
+    }
+
+    /**
+     * 处理一个刚从网络队列中取出的请求
+     */
+    void process(Request<?> request) {
+        long startTimeMs = SystemClock.elapsedRealtime();
+        //异步网络请求完成后，请求会被放回队列，这里取出它的结果
+        NetworkResponse asyncResponse = request.takeAsyncNetworkResponse();
+        VolleyError asyncError = request.takeAsyncNetworkError();
+        try {
+            request.addMarker("network-queue-take");
+
+            //请求被取消，结束该请求
+            if (request.isCanceled()) {
+                onNetworkComplete(request);
+                request.finish("network-discard-cancelled");
+                return;
+            }
+
+            //异步网络请求失败，回调错误
+            if (asyncError != null) {
+                parseAndDeliverNetworkError(request, asyncError);
+                return;
+            }
+
+            NetworkResponse networkResponse;
+            if (asyncResponse != null) {
+                networkResponse = asyncResponse;
+            } else {
+                //流量统计
+                addTrafficStatsTag(request);
+
+                //异步网络，发起请求后立即处理下一个请求，完成后再放回队列中解析
+                if (mNetwork instanceof AsyncNetwork) {
+                    performAsyncRequest(request);
+                    return;
+                }
+
+                //执行网络请求
+                networkResponse = mNetwork.performRequest(request);
+                onNetworkComplete(request);
+            }
+            request.addMarker("network-http-complete");
+
+            //服务端返回了304，并且我们已经响应到主线程了，就算完成请求了，结束该请求
+            if (networkResponse.notModified && request.hasHadResponseDelivered()) {
+                request.finish("not-modified");
+                return;
+            }
+
+            //在子线程中，解析该请求
+            Response<?> response = request.parseNetworkResponse(networkResponse);
+            request.addMarker("network-parse-complete");
+
+            //先通知等待中的相同请求，回调后请求就可能结束了
+            request.notifyListenerResponseReceived(response);
+            request.markDelivered();
+            //把解析好的数据，在主线程中回调，不需要等待缓存写入
+            mDelivery.postResponse(request, response);
+
+            // 如果该请求需要被缓存，则缓存该请求的结果，响应已经回调，请求可能已经结束，不再添加Marker
+            if (request.shouldCache() && response.cacheEntry != null) {
+                putCache(request, response);
+            }
+            //回调和写入缓存之间到达的相同请求还在暂存中，写入后再让它们去读缓存，不会因为还没写入而再次请求网络
+            request.notifyListenerResponseCached();
+        } catch (VolleyError volleyError) {
+            onNetworkComplete(request);
+            volleyError.setNetworkTimeMs(SystemClock.elapsedRealtime() - startTimeMs);
+            parseAndDeliverNetworkError(request, volleyError);
+        } catch (Exception e) {
+            onNetworkComplete(request);
+            VolleyLog.e(e, "Unhandled exception %s", e.toString());
+            VolleyError volleyError = new VolleyError(e);
+            volleyError.setNetworkTimeMs(SystemClock.elapsedRealtime() - startTimeMs);
+            request.notifyListenerResponseReceived(Response.error(volleyError));
+            mDelivery.postError(request, volleyError);
+        }
+    }
+
+    /**
+     * 请求没能交给执行者处理（例如线程池已经关闭），释放主机名额并回调错误
+     */
+    void reject(Request<?> request, Exception cause) {
+        onNetworkComplete(request);
+        request.addMarker("network-rejected");
+        VolleyError volleyError = new VolleyError(cause);
+        request.notifyListenerResponseReceived(Response.error(volleyError));
+        mDelivery.postError(request, volleyError);
+    }
+
+    /**
+     * 写入缓存，响应已经回调，写入失败只记录日志
+     */
+    private void putCache(Request<?> request, Response<?> response) {
+        try {
+            mCache.put(request.getCacheKey(), response.cacheEntry);
+            if (mParsedCache != null) {
+                mParsedCache.put(request, response, response.cacheEntry);
+            }
+        } catch (Exception e) {
+            VolleyLog.e(e, "Unable to cache response for %s", request.getUrl());
+        }
+    }
+
+    /**
+     * 流量统计
+     */
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private void addTrafficStatsTag(Request<?> request) {
+        // Tag the request (if API >= 14)
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            TrafficStats.setThreadStatsTag(request.getTrafficStatsTag());
+        }
+    }
+
+    /**
+     * 发起异步网络请求，完成后把结果保存到请求中，并把请求放回队列，由分发器解析和回调
+     * <p>
+     * 异步请求不占用分发器，交给网络层后马上释放主机名额，否则进行中的异步请求会一直占着名额，
+     * 同一个主机的后续请求只能排队
+     */
+    private void performAsyncRequest(final Request<?> request) {
+        final long startTimeMs = SystemClock.elapsedRealtime();
+        request.addMarker("network-async-start");
+        try {
+            ((AsyncNetwork) mNetwork).performRequest(request, new AsyncNetwork.OnRequestComplete() {
+                @Override
+                public void onSuccess(NetworkResponse networkResponse) {
+                    request.setAsyncNetworkResult(networkResponse, null);
+                    mQueue.add(request);
+                }
+
+                @Override
+                public void onError(VolleyError volleyError) {
+                    volleyError.setNetworkTimeMs(SystemClock.elapsedRealtime() - startTimeMs);
+                    request.setAsyncNetworkResult(null, volleyError);
+                    mQueue.add(request);
+                }
+            });
+        } finally {
+            onNetworkComplete(request);
+        }
+    }
+
+    /**
+     * 请求的网络部分已经完成，使用 {@link NetworkScheduler} 时释放请求占用的主机名额
+     */
+    private void onNetworkComplete(Request<?> request) {
+        if (mQueue instanceof NetworkScheduler) {
+            ((NetworkScheduler) mQueue).onNetworkComplete(request);
+        }
+    }
+
+    /**
+     * 解析并且回调网络错误
+     */
+    private void parseAndDeliverNetworkError(Request<?> request, VolleyError error) {
+        error = request.parseNetworkError(error);
+        request.notifyListenerResponseReceived(Response.error(error));
+        mDelivery.postError(request, error);
+    }
+}
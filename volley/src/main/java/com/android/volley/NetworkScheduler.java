@@ -0,0 +1,651 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 网络请求的调度队列，替代原来的PriorityBlockingQueue，由网络分发器取出请求
+ * <p>
+ * 优先级高的请求先出队，同一优先级内，各个主机轮流出队。可以通过 {@link #setMaxRequestsPerHost(int)}
+ * 限制每个主机同时进行的网络请求数量，达到上限后，该主机的请求继续排队，分发器先处理其他主机的请求，
+ * 避免一个慢主机占满所有分发器，默认不限制。异步网络请求完成后放回的请求（只需要解析）走单独的通道，
+ * 优先出队，不受主机上限的限制。没有排队和进行中请求的主机会被移除，不会一直占用内存，
+ * 主机的累计统计单独保存，主机空闲后仍然保留，最多保留 {@link #MAX_HOST_STATS} 个最近出队的主机
+ */
+public class NetworkScheduler extends AbstractQueue<Request<?>> implements BlockingQueue<Request<?>> {
+    /**
+     * 优先级的数量
+     */
+    private static final int PRIORITY_COUNT = Request.Priority.values().length;
+
+    /**
+     * 最多保留累计统计的主机数量，超过时移除最久没有出队的主机
+     */
+    static final int MAX_HOST_STATS = 64;
+
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    /**
+     * 有请求可以出队时通知
+     */
+    private final Condition mAvailable = mLock.newCondition();
+
+    /**
+     * 主机名和对应的状态
+     */
+    private final Map<String, HostQueue> mHosts = new HashMap<>();
+
+    /**
+     * 主机名和累计统计，按出队时间排序，主机空闲后不会移除
+     */
+    private final LinkedHashMap<String, HostCounters> mCounters =
+            new LinkedHashMap<String, HostCounters>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, HostCounters> eldest) {
+                    return size() > MAX_HOST_STATS;
+                }
+            };
+
+    /**
+     * 每个优先级下，有请求排队的主机，按照轮转顺序排列
+     */
+    private final ArrayDeque<HostQueue>[] mRotations;
+
+    /**
+     * 排队中的请求
+     */
+    private final Map<Request<?>, QueuedRequest> mQueued = new IdentityHashMap<>();
+
+    /**
+     * 已经出队、还没有完成网络请求的请求，以及它们占用的主机
+     */
+    private final Map<Request<?>, HostQueue> mRunning = new IdentityHashMap<>();
+
+    /**
+     * 异步网络请求已经完成、等待解析的请求
+     */
+    private final ArrayDeque<Request<?>> mCompletions = new ArrayDeque<>();
+
+    /**
+     * 每个主机同时进行的网络请求数量上限
+     */
+    private int mMaxRequestsPerHost;
+
+    /**
+     * 不限制每个主机同时进行的网络请求数量
+     */
+    public NetworkScheduler() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxRequestsPerHost 每个主机同时进行的网络请求数量上限
+     */
+    @SuppressWarnings("unchecked")
+    public NetworkScheduler(int maxRequestsPerHost) {
+        setMaxRequestsPerHost(maxRequestsPerHost);
+        mRotations = new ArrayDeque[PRIORITY_COUNT];
+        for (int i = 0; i < PRIORITY_COUNT; i++) {
+            mRotations[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * 设置每个主机同时进行的网络请求数量上限，传入 {@link Integer#MAX_VALUE} 则不限制
+     */
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        if (maxRequestsPerHost < 1) {
+            throw new IllegalArgumentException("maxRequestsPerHost must be at least 1");
+        }
+        mLock.lock();
+        try {
+            mMaxRequestsPerHost = maxRequestsPerHost;
+            //上限变大时，被限制的请求可以出队了
+            mAvailable.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 获取每个主机同时进行的网络请求数量上限
+     */
+    public int getMaxRequestsPerHost() {
+        mLock.lock();
+        try {
+            return mMaxRequestsPerHost;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 请求的网络部分已经完成（包括失败、被取消），释放它占用的主机名额，重复调用没有影响
+     */
+    public void onNetworkComplete(Request<?> request) {
+        mLock.lock();
+        try {
+            HostQueue host = mRunning.remove(request);
+            if (host != null) {
+                host.mRunning--;
+                removeIfIdle(host);
+                mAvailable.signal();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 获取各个主机的排队统计的快照，包含有排队或者进行中请求的主机，以及最近出队过的主机（最多
+     * {@link #MAX_HOST_STATS} 个），主机空闲后累计的出队数量和排队时间仍然保留
+     */
+    public Map<String, HostStats> getHostStats() {
+        mLock.lock();
+        try {
+            Map<String, HostStats> stats = new HashMap<>();
+            for (HostCounters counters : mCounters.values()) {
+                HostQueue host = mHosts.get(counters.mHost);
+                stats.put(counters.mHost, snapshot(counters.mHost, host, counters));
+            }
+            for (HostQueue host : mHosts.values()) {
+                if (!stats.containsKey(host.mHost)) {
+                    stats.put(host.mHost, snapshot(host.mHost, host, null));
+                }
+            }
+            return stats;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 排队时间最长的请求已经等待的时间，没有排队的请求时返回0
+     */
+    public long getOldestWaitMs() {
+        mLock.lock();
+        try {
+            long now = now();
+            long oldest = 0;
+            for (QueuedRequest queued : mQueued.values()) {
+                oldest = Math.max(oldest, now - queued.mEnqueueTime);
+            }
+            return oldest;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Request<?> request) {
+        if (request == null) {
+            throw new NullPointerException();
+        }
+        mLock.lock();
+        try {
+            if (request.hasAsyncNetworkResult()) {
+                mCompletions.addLast(request);
+            } else if (!mQueued.containsKey(request)) {
+                HostQueue host = getHostQueue(getHost(request.getUrl()));
+                int priority = request.getPriority().ordinal();
+                if (host.mPending[priority].isEmpty()) {
+                    mRotations[priority].addLast(host);
+                }
+                host.mPending[priority].addLast(request);
+                mQueued.put(request, new QueuedRequest(host, priority,
+                        now()));
+            }
+            mAvailable.signal();
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Request<?> request) {
+        offer(request);
+    }
+
+    @Override
+    public boolean offer(Request<?> request, long timeout, TimeUnit unit) {
+        return offer(request);
+    }
+
+    @Override
+    public Request<?> take() throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            Request<?> request;
+            while ((request = dequeue()) == null) {
+                mAvailable.await();
+            }
+            return request;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public Request<?> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        mLock.lockInterruptibly();
+        try {
+            Request<?> request;
+            while ((request = dequeue()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = mAvailable.awaitNanos(nanos);
+            }
+            return request;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public Request<?> poll() {
+        mLock.lock();
+        try {
+            return dequeue();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public Request<?> peek() {
+        mLock.lock();
+        try {
+            if (!mCompletions.isEmpty()) {
+                return mCompletions.peekFirst();
+            }
+            for (int priority = PRIORITY_COUNT - 1; priority >= 0; priority--) {
+                for (HostQueue host : mRotations[priority]) {
+                    if (host.mRunning < mMaxRequestsPerHost) {
+                        return host.mPending[priority].peekFirst();
+                    }
+                }
+            }
+            return null;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        mLock.lock();
+        try {
+            if (mCompletions.remove(o)) {
+                return true;
+            }
+            QueuedRequest queued = mQueued.remove(o);
+            if (queued == null) {
+                return false;
+            }
+            ArrayDeque<Request<?>> pending = queued.mHost.mPending[queued.mPriority];
+            pending.remove(o);
+            if (pending.isEmpty()) {
+                mRotations[queued.mPriority].remove(queued.mHost);
+                removeIfIdle(queued.mHost);
+            }
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        mLock.lock();
+        try {
+            return mQueued.size() + mCompletions.size();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(Collection<? super Request<?>> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Request<?>> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        mLock.lock();
+        try {
+            int count = 0;
+            Request<?> request;
+            while (count < maxElements && (request = dequeue()) != null) {
+                c.add(request);
+                count++;
+            }
+            return count;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 返回排队中请求的快照，通过迭代器移除时会从队列中移除
+     */
+    @Override
+    public Iterator<Request<?>> iterator() {
+        final List<Request<?>> snapshot;
+        mLock.lock();
+        try {
+            snapshot = new ArrayList<>(mCompletions);
+            snapshot.addAll(mQueued.keySet());
+        } finally {
+            mLock.unlock();
+        }
+        final Iterator<Request<?>> iterator = snapshot.iterator();
+        return new Iterator<Request<?>>() {
+            private Request<?> mLast;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Request<?> next() {
+                mLast = iterator.next();
+                return mLast;
+            }
+
+            @Override
+            public void remove() {
+                if (mLast == null) {
+                    throw new IllegalStateException();
+                }
+                NetworkScheduler.this.remove(mLast);
+                mLast = null;
+            }
+        };
+    }
+
+    /**
+     * 取出下一个可以执行的请求，没有则返回null，需要持有锁
+     */
+    private Request<?> dequeue() {
+        Request<?> completion = mCompletions.pollFirst();
+        if (completion != null) {
+            return completion;
+        }
+        //优先级从高到低，同一优先级内按照轮转顺序找到还没有达到上限的主机
+        for (int priority = PRIORITY_COUNT - 1; priority >= 0; priority--) {
+            ArrayDeque<HostQueue> rotation = mRotations[priority];
+            for (int i = rotation.size(); i > 0; i--) {
+                HostQueue host = rotation.pollFirst();
+                if (host.mRunning >= mMaxRequestsPerHost) {
+                    rotation.addLast(host);
+                    continue;
+                }
+                ArrayDeque<Request<?>> pending = host.mPending[priority];
+                Request<?> request = pending.pollFirst();
+                if (!pending.isEmpty()) {
+                    rotation.addLast(host);
+                }
+                QueuedRequest queued = mQueued.remove(request);
+                long waitMs = now() - queued.mEnqueueTime;
+                host.mRunning++;
+                HostCounters counters = getCounters(host.mHost);
+                counters.mDispatchedCount++;
+                counters.mTotalWaitMs += waitMs;
+                counters.mMaxWaitMs = Math.max(counters.mMaxWaitMs, waitMs);
+                mRunning.put(request, host);
+                if (!mQueued.isEmpty() || !mCompletions.isEmpty()) {
+                    //可能还有其他请求可以出队，唤醒下一个分发器
+                    mAvailable.signal();
+                }
+                return request;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 单调时钟的当前时间，单位毫秒，只用来计算排队时间
+     */
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private HostQueue getHostQueue(String hostName) {
+        HostQueue host = mHosts.get(hostName);
+        if (host == null) {
+            host = new HostQueue(hostName);
+            mHosts.put(hostName, host);
+        }
+        return host;
+    }
+
+    /**
+     * 获取主机的累计统计，同时把它标记为最近使用，需要持有锁
+     */
+    private HostCounters getCounters(String hostName) {
+        HostCounters counters = mCounters.get(hostName);
+        if (counters == null) {
+            counters = new HostCounters(hostName);
+            mCounters.put(hostName, counters);
+        }
+        return counters;
+    }
+
+    /**
+     * 合并主机的排队状态和累计统计，两者都可能为null，需要持有锁
+     */
+    private static HostStats snapshot(String hostName, HostQueue host, HostCounters counters) {
+        int running = 0;
+        int pending = 0;
+        if (host != null) {
+            running = host.mRunning;
+            for (ArrayDeque<Request<?>> queue : host.mPending) {
+                pending += queue.size();
+            }
+        }
+        if (counters == null) {
+            return new HostStats(hostName, running, pending, 0, 0, 0);
+        }
+        return new HostStats(hostName, running, pending, counters.mDispatchedCount,
+                counters.mTotalWaitMs, counters.mMaxWaitMs);
+    }
+
+    /**
+     * 主机没有排队和进行中的请求时，从主机表中移除，累计统计保留在 {@link #mCounters} 中，需要持有锁
+     */
+    private void removeIfIdle(HostQueue host) {
+        if (host.mRunning > 0) {
+            return;
+        }
+        for (ArrayDeque<Request<?>> pending : host.mPending) {
+            if (!pending.isEmpty()) {
+                return;
+            }
+        }
+        mHosts.remove(host.mHost);
+    }
+
+    /**
+     * 从Url中解析主机名，解析失败时返回空字符串，所有解析失败的请求共用一个名额
+     */
+    static String getHost(String url) {
+        if (url == null) {
+            return "";
+        }
+        int start = url.indexOf("://");
+        start = start < 0 ? 0 : start + 3;
+        int end = start;
+        while (end < url.length()) {
+            char c = url.charAt(end);
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+            end++;
+        }
+        String authority = url.substring(start, end);
+        //去掉用户信息和端口
+        int at = authority.lastIndexOf('@');
+        if (at >= 0) {
+            authority = authority.substring(at + 1);
+        }
+        int colon = authority.startsWith("[") ? authority.indexOf("]:") + 1 : authority.lastIndexOf(':');
+        if (colon > 0) {
+            authority = authority.substring(0, colon);
+        }
+        return authority.toLowerCase();
+    }
+
+    /**
+     * 主机的统计信息
+     */
+    public static class HostStats {
+        /**
+         * 主机名
+         */
+        public final String host;
+
+        /**
+         * 正在进行的网络请求数量
+         */
+        public final int running;
+
+        /**
+         * 排队中的请求数量
+         */
+        public final int pending;
+
+        /**
+         * 已经出队的请求总数
+         */
+        public final long dispatchedCount;
+
+        /**
+         * 出队的请求排队时间的总和
+         */
+        public final long totalWaitMs;
+
+        /**
+         * 出队的请求中最长的排队时间
+         */
+        public final long maxWaitMs;
+
+        HostStats(String host, int running, int pending, long dispatchedCount,
+                  long totalWaitMs, long maxWaitMs) {
+            this.host = host;
+            this.running = running;
+            this.pending = pending;
+            this.dispatchedCount = dispatchedCount;
+            this.totalWaitMs = totalWaitMs;
+            this.maxWaitMs = maxWaitMs;
+        }
+
+        /**
+         * 平均排队时间
+         */
+        public long getAverageWaitMs() {
+            return dispatchedCount == 0 ? 0 : totalWaitMs / dispatchedCount;
+        }
+
+        @Override
+        public String toString() {
+            return host + " running=" + running + " pending=" + pending
+                    + " dispatched=" + dispatchedCount + " avgWaitMs=" + getAverageWaitMs()
+                    + " maxWaitMs=" + maxWaitMs;
+        }
+    }
+
+    /**
+     * 一个主机的排队状态
+     */
+    private static class HostQueue {
+        private final String mHost;
+
+        /**
+         * 每个优先级下排队的请求，先进先出
+         */
+        private final ArrayDeque<Request<?>>[] mPending;
+
+        /**
+         * 正在进行的网络请求数量
+         */
+        private int mRunning;
+
+        @SuppressWarnings("unchecked")
+        HostQueue(String host) {
+            mHost = host;
+            mPending = new ArrayDeque[PRIORITY_COUNT];
+            for (int i = 0; i < PRIORITY_COUNT; i++) {
+                mPending[i] = new ArrayDeque<>();
+            }
+        }
+    }
+
+    /**
+     * 一个主机的累计统计，主机空闲后仍然保留
+     */
+    private static class HostCounters {
+        private final String mHost;
+        private long mDispatchedCount;
+        private long mTotalWaitMs;
+        private long mMaxWaitMs;
+
+        HostCounters(String host) {
+            mHost = host;
+        }
+    }
+
+    /**
+     * 排队中的请求所在的位置和入队时间
+     */
+    private static class QueuedRequest {
+        private final HostQueue mHost;
+        private final int mPriority;
+        private final long mEnqueueTime;
+
+        QueuedRequest(HostQueue host, int priority, long enqueueTime) {
+            mHost = host;
+            mPriority = priority;
+            mEnqueueTime = enqueueTime;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * 在内存中缓存解析后的结果，只处理开启了 {@link Request#shouldCacheParsedResponse()} 的请求
+ * <p>
+ * 按照缓存Key和请求类型保存，同时记录解析时缓存的指纹（数据长度、ETag、服务端时间、过期时间等），
+ * 命中缓存时指纹一致才直接使用之前的结果，缓存被重新写入后指纹会变化，之前的结果自动失效
+ */
+class ParsedResponseCache {
+    /**
+     * 默认最多保存的结果数量
+     */
+    static final int DEFAULT_MAX_ENTRIES = 64;
+
+    /**
+     * 缓存的结果，按访问顺序排序，访问时需要持有该对象的锁
+     */
+    private final LinkedHashMap<String, ParsedEntry> mEntries = new LinkedHashMap<>(16, .75f, true);
+
+    private int mMaxEntries = DEFAULT_MAX_ENTRIES;
+
+    /**
+     * 设置最多保存的结果数量，为0则不缓存
+     */
+    void setMaxEntries(int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("maxEntries must not be negative");
+        }
+        synchronized (mEntries) {
+            mMaxEntries = maxEntries;
+            trimToSize();
+        }
+    }
+
+    /**
+     * 获取和缓存对应的解析结果，没有或者缓存已经变化时返回null
+     */
+    Response<?> get(Request<?> request, Cache.Entry entry) {
+        if (!request.shouldCacheParsedResponse()) {
+            return null;
+        }
+        String key = getKey(request);
+        synchronized (mEntries) {
+            ParsedEntry parsed = mEntries.get(key);
+            if (parsed == null) {
+                return null;
+            }
+            if (!parsed.matches(entry)) {
+                mEntries.remove(key);
+                return null;
+            }
+            //每次返回新的响应对象，调用方会修改intermediate标记
+            return Response.success(parsed.mResult, entry);
+        }
+    }
+
+    /**
+     * 保存解析成功的结果
+     *
+     * @param entry 解析的缓存，命中缓存时是从缓存中读到的缓存，写入缓存时是写入的缓存
+     */
+    void put(Request<?> request, Response<?> response, Cache.Entry entry) {
+        if (!request.shouldCacheParsedResponse() || !response.isSuccess()
+                || entry == null || response.result == null) {
+            return;
+        }
+        ParsedEntry parsed = new ParsedEntry(response.result, entry);
+        synchronized (mEntries) {
+            if (mMaxEntries == 0) {
+                return;
+            }
+            mEntries.put(getKey(request), parsed);
+            trimToSize();
+        }
+    }
+
+    /**
+     * 超过数量时按照LRU移除，需要持有 {@link #mEntries} 的锁
+     */
+    private void trimToSize() {
+        Iterator<ParsedEntry> iterator = mEntries.values().iterator();
+        while (mEntries.size() > mMaxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private static String getKey(Request<?> request) {
+        return request.getClass().getName() + ":" + request.getCacheKey();
+    }
+
+    /**
+     * 解析结果，以及解析时缓存的指纹
+     */
+    private static class ParsedEntry {
+        private final Object mResult;
+        private final int mDataLength;
+        private final String mEtag;
+        private final long mServerDate;
+        private final long mLastModified;
+        private final long mTtl;
+
+        ParsedEntry(Object result, Cache.Entry entry) {
+            mResult = result;
+            mDataLength = entry.data == null ? -1 : entry.data.length;
+            mEtag = entry.etag;
+            mServerDate = entry.serverDate;
+            mLastModified = entry.lastModified;
+            mTtl = entry.ttl;
+        }
+
+        /**
+         * 缓存是否还是解析时的那一份，软过期不影响，强制过期后ttl变化，需要重新解析
+         */
+        boolean matches(Cache.Entry entry) {
+            int dataLength = entry.data == null ? -1 : entry.data.length;
+            return dataLength == mDataLength
+                    && mServerDate == entry.serverDate
+                    && mLastModified == entry.lastModified
+                    && mTtl == entry.ttl
+                    && (mEtag == null ? entry.etag == null : mEtag.equals(entry.etag));
+        }
+    }
+}
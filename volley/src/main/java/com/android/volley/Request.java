@@ -24,6 +24,8 @@ import android.text.TextUtils;
 
 import com.android.volley.VolleyLog.MarkerLog;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.Collections;
@@ -130,6 +132,31 @@ public abstract class Request<T> implements Comparable<Request<T>> {
      */
     private Object mTag;
 
+    /**
+     * 是否合并进行中的相同请求，默认关闭
+     */
+    private boolean mShouldCoalesce = false;
+
+    /**
+     * 是否在内存中缓存解析后的结果，默认关闭
+     */
+    private boolean mShouldCacheParsedResponse = false;
+
+    /**
+     * 网络请求完成的监听器，由RequestQueue设置，用于把响应分发给等待中的相同请求
+     */
+    private NetworkRequestCompleteListener mRequestCompleteListener;
+
+    /**
+     * 异步网络请求成功的响应，请求会被放回网络队列，由网络分发器取出后解析
+     */
+    private NetworkResponse mAsyncNetworkResponse;
+
+    /**
+     * 异步网络请求失败的异常，请求会被放回网络队列，由网络分发器取出后回调
+     */
+    private VolleyError mAsyncNetworkError;
+
     /**
      * Creates a new request with the given URL and error listener.  Note that
      * the normal response listener is not provided here as delivery of responses
@@ -176,7 +203,12 @@ public abstract class Request<T> implements Comparable<Request<T>> {
      * @return This Request object to allow for chaining.
      */
     public Request<?> setTag(Object tag) {
+        Object oldTag = mTag;
         mTag = tag;
+        //已经加入队列时，通知队列更新Tag索引
+        if (mRequestQueue != null && oldTag != tag) {
+            mRequestQueue.onRequestTagChanged(this, oldTag);
+        }
         return this;
     }
 
@@ -268,6 +300,19 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         }
     }
 
+    /**
+     * 在请求所在队列回调响应的线程中执行，和响应、错误的回调保持先后顺序，用于回调进度等中间结果。
+     * 请求还没有加入队列时直接执行
+     */
+    protected void postOnDelivery(Runnable runnable) {
+        RequestQueue requestQueue = mRequestQueue;
+        if (requestQueue == null) {
+            runnable.run();
+            return;
+        }
+        requestQueue.postOnDelivery(runnable);
+    }
+
     /**
      * 结束时，清除监听器
      */
@@ -358,9 +403,14 @@ public abstract class Request<T> implements Comparable<Request<T>> {
 
     /**
      * 标记该请求已被取消，如果被取消，则不会进行回调
+     * <p>
+     * 请求还在队列中排队时，会立即从队列中移除并结束，不需要等待分发器取出
      */
     public void cancel() {
         mCanceled = true;
+        if (mRequestQueue != null) {
+            mRequestQueue.onRequestCanceled(this);
+        }
     }
 
     /**
@@ -487,6 +537,48 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return null;
     }
 
+    /**
+     * 请求体的写入器，请求体直接写入连接的输出流，不需要完整地保存在内存中
+     * <p>
+     * 请求失败重试时会再次调用 {@link #writeTo(OutputStream)}，所以实现需要支持多次写入
+     */
+    public interface BodyWriter {
+        /**
+         * 请求体的字节数，未知时返回-1，会使用分块传输
+         */
+        long getContentLength();
+
+        /**
+         * 把请求体写入输出流，不需要关闭输出流
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * 返回请求体的写入器，请求方式为：POST、PUT和PATCH时，没有请求体则返回null
+     * <p>
+     * 默认包装 {@link #getBody()} 返回的数组，上传大文件等请求体较大的场景，子类可以复写该方法，直接把数据写入连接中
+     *
+     * @throws AuthFailureError in the event of auth failure
+     */
+    public BodyWriter getBodyWriter() throws AuthFailureError {
+        final byte[] body = getBody();
+        if (body == null) {
+            return null;
+        }
+        return new BodyWriter() {
+            @Override
+            public long getContentLength() {
+                return body.length;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(body);
+            }
+        };
+    }
+
     /**
      * 将请求参数Map，转换为指定编码的字符串，例如：https://www.baidu.com/?a=xxx&b=yyy
      * <p>
@@ -510,6 +602,39 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         }
     }
 
+    /**
+     * 保存异步网络请求的结果，成功和失败只有一个不为null
+     */
+    /* package */ void setAsyncNetworkResult(NetworkResponse response, VolleyError error) {
+        mAsyncNetworkResponse = response;
+        mAsyncNetworkError = error;
+    }
+
+    /**
+     * 是否有还没有被分发器取出的异步网络请求结果
+     */
+    /* package */ boolean hasAsyncNetworkResult() {
+        return mAsyncNetworkResponse != null || mAsyncNetworkError != null;
+    }
+
+    /**
+     * 获取并清除异步网络请求成功的响应，没有则返回null
+     */
+    /* package */ NetworkResponse takeAsyncNetworkResponse() {
+        NetworkResponse response = mAsyncNetworkResponse;
+        mAsyncNetworkResponse = null;
+        return response;
+    }
+
+    /**
+     * 获取并清除异步网络请求失败的异常，没有则返回null
+     */
+    /* package */ VolleyError takeAsyncNetworkError() {
+        VolleyError error = mAsyncNetworkError;
+        mAsyncNetworkError = null;
+        return error;
+    }
+
     /**
      * 设置该请求是否可以被缓存
      *
@@ -527,6 +652,102 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return mShouldCache;
     }
 
+    /**
+     * 设置是否合并进行中的相同请求，只对不缓存的GET请求生效
+     * <p>
+     * 开启后，请求类型、Url和请求头都相同的请求正在进行中时，不会再发起网络请求，而是等待进行中的请求完成，
+     * 直接使用它解析后的响应（多个请求共享同一个解析结果），每个请求仍然可以单独取消。
+     * 解析过程中有额外回调的请求（例如流式解析的请求）不应该开启
+     *
+     * @param shouldCoalesce 是否合并
+     */
+    public final Request<?> setShouldCoalesce(boolean shouldCoalesce) {
+        mShouldCoalesce = shouldCoalesce;
+        return this;
+    }
+
+    /**
+     * 是否合并进行中的相同请求
+     */
+    public final boolean shouldCoalesce() {
+        return mShouldCoalesce;
+    }
+
+    /**
+     * 设置是否在内存中缓存解析后的结果，只对可以缓存的请求生效
+     * <p>
+     * 开启后，命中缓存时如果缓存没有变化，直接使用之前解析的结果，不再重新解析，多个请求会拿到同一个结果对象，
+     * 所以回调中不能修改结果。解析结果只能由响应数据和请求类型决定，解析时依赖请求参数的请求（例如图片请求）不应该开启
+     *
+     * @param shouldCacheParsedResponse 是否缓存解析后的结果
+     */
+    public final Request<?> setShouldCacheParsedResponse(boolean shouldCacheParsedResponse) {
+        mShouldCacheParsedResponse = shouldCacheParsedResponse;
+        return this;
+    }
+
+    /**
+     * 是否在内存中缓存解析后的结果
+     */
+    public final boolean shouldCacheParsedResponse() {
+        return mShouldCacheParsedResponse;
+    }
+
+    /**
+     * 网络请求完成的监听器
+     */
+    /* package */ interface NetworkRequestCompleteListener {
+        /**
+         * 网络请求完成并解析后回调，在网络分发线程中调用
+         *
+         * @param request  完成的请求
+         * @param response 解析后的响应，请求失败时为错误的响应
+         */
+        void onResponseReceived(Request<?> request, Response<?> response);
+
+        /**
+         * 可用的响应已经写入缓存（或者本来就来自缓存），在 {@link #onResponseReceived} 之后调用，
+         * 写入失败时也会调用
+         *
+         * @param request 完成的请求
+         */
+        void onResponseCached(Request<?> request);
+    }
+
+    /**
+     * 设置网络请求完成的监听器，需要在请求进入网络队列之前设置
+     */
+    /* package */ void setNetworkRequestCompleteListener(NetworkRequestCompleteListener listener) {
+        mRequestCompleteListener = listener;
+    }
+
+    /**
+     * 获取网络请求完成的监听器，没有则返回null
+     */
+    /* package */ NetworkRequestCompleteListener getNetworkRequestCompleteListener() {
+        return mRequestCompleteListener;
+    }
+
+    /**
+     * 通知监听器网络请求已经完成
+     */
+    /* package */ void notifyListenerResponseReceived(Response<?> response) {
+        NetworkRequestCompleteListener listener = mRequestCompleteListener;
+        if (listener != null) {
+            listener.onResponseReceived(this, response);
+        }
+    }
+
+    /**
+     * 通知监听器响应已经写入缓存
+     */
+    /* package */ void notifyListenerResponseCached() {
+        NetworkRequestCompleteListener listener = mRequestCompleteListener;
+        if (listener != null) {
+            listener.onResponseCached(this);
+        }
+    }
+
     /**
      * 优先级，请求顺序会按照优先级进行处理，高优先级会优先于低优先级执行，默认按照先进先出的规则
      */
@@ -580,6 +801,17 @@ public abstract class Request<T> implements Comparable<Request<T>> {
      */
     abstract protected Response<T> parseNetworkResponse(NetworkResponse response);
 
+    /**
+     * 判断该请求解析后的响应，能否直接交给缓存Key相同的另一个请求使用，默认要求两个请求的类型相同
+     * <p>
+     * 解析结果还和请求的其他参数有关时（例如图片的解码尺寸），子类需要复写该方法
+     *
+     * @param other 等待该请求响应的请求
+     */
+    protected boolean isResponseShareableWith(Request<?> other) {
+        return getClass() == other.getClass();
+    }
+
     /**
      * 解析请求错误，子类可以复写该方法，返回更加具体的错误类型，默认类型是VolleyError
      */
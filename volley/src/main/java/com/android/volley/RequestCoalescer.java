@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 合并进行中的相同请求，只处理开启了 {@link Request#shouldCoalesce()} 并且不缓存的GET请求
+ * <p>
+ * 可以缓存的请求已经由 {@link RequestQueue} 按照缓存Key暂存，这里处理的是不缓存的请求（轮询、鉴权探测等），
+ * 相同的请求只有第一个（领头请求）会进入网络队列，其他请求等待它的响应。领头请求在发起网络请求前就被取消时，
+ * 从等待的请求中选出一个新的领头请求
+ */
+class RequestCoalescer {
+    /**
+     * 合并Key和进行中的请求组
+     */
+    private final Map<String, InFlightGroup> mInFlight = new HashMap<>();
+
+    /**
+     * 用于把响应回调给等待中的请求
+     */
+    private final ResponseDelivery mDelivery;
+
+    RequestCoalescer(ResponseDelivery delivery) {
+        mDelivery = delivery;
+    }
+
+    /**
+     * 尝试把请求合并到进行中的相同请求
+     *
+     * @return true则代表已经合并，不需要加入网络队列；false则需要正常加入网络队列
+     */
+    boolean coalesce(Request<?> request) {
+        String key = getCoalescingKey(request);
+        if (key == null) {
+            return false;
+        }
+        synchronized (mInFlight) {
+            InFlightGroup group = mInFlight.get(key);
+            if (group != null) {
+                group.mFollowers.add(request);
+                request.addMarker("coalesced-with-in-flight");
+                if (VolleyLog.DEBUG) {
+                    VolleyLog.v("Request for key=%s is in flight, coalescing.", key);
+                }
+                return true;
+            }
+            //没有进行中的相同请求，该请求成为领头请求
+            group = new InFlightGroup(key, request);
+            mInFlight.put(key, group);
+            request.setNetworkRequestCompleteListener(group);
+            return false;
+        }
+    }
+
+    /**
+     * 请求结束时调用，领头请求没有拿到网络响应就结束时（例如被取消），选出新的领头请求
+     *
+     * @return 新的领头请求，需要加入网络队列，没有则返回null
+     */
+    Request<?> onRequestFinished(Request<?> request) {
+        Request.NetworkRequestCompleteListener listener = request.getNetworkRequestCompleteListener();
+        if (!(listener instanceof InFlightGroup)) {
+            return null;
+        }
+        InFlightGroup group = (InFlightGroup) listener;
+        Request<?> promoted = null;
+        List<Request<?>> canceled = new ArrayList<>();
+        synchronized (mInFlight) {
+            //响应已经分发过了，或者已经不是领头请求
+            if (mInFlight.get(group.mKey) != group || group.mLeader != request) {
+                return null;
+            }
+            while (!group.mFollowers.isEmpty()) {
+                Request<?> next = group.mFollowers.remove(0);
+                if (next.isCanceled()) {
+                    canceled.add(next);
+                } else {
+                    promoted = next;
+                    break;
+                }
+            }
+            if (promoted == null) {
+                mInFlight.remove(group.mKey);
+            } else {
+                group.mLeader = promoted;
+                promoted.setNetworkRequestCompleteListener(group);
+                promoted.addMarker("coalesced-promoted");
+            }
+        }
+        //在锁外结束，结束请求时会再次回调到这里
+        for (Request<?> discarded : canceled) {
+            discarded.finish("coalesced-discard-cancelled");
+        }
+        return promoted;
+    }
+
+    /**
+     * 生成合并Key，由请求类型、请求方法、Url和请求头组成，不能合并时返回null
+     */
+    private static String getCoalescingKey(Request<?> request) {
+        if (!request.shouldCoalesce() || request.shouldCache()
+                || request.getMethod() != Request.Method.GET) {
+            return null;
+        }
+        Map<String, String> headers;
+        try {
+            headers = request.getHeaders();
+        } catch (AuthFailureError e) {
+            //交给网络请求时再回调错误
+            return null;
+        }
+        //请求头排序，保证顺序不同的相同请求头生成同一个Key
+        return request.getClass().getName() + ":" + request.getMethod() + ":"
+                + request.getUrl() + ":" + new TreeMap<>(headers);
+    }
+
+    /**
+     * 进行中的一组相同请求
+     */
+    private class InFlightGroup implements Request.NetworkRequestCompleteListener {
+        private final String mKey;
+
+        /**
+         * 领头请求，只有它会发起网络请求
+         */
+        private Request<?> mLeader;
+
+        /**
+         * 等待领头请求响应的请求，访问时需要持有 {@link #mInFlight} 的锁
+         */
+        private List<Request<?>> mFollowers = new ArrayList<>();
+
+        InFlightGroup(String key, Request<?> leader) {
+            mKey = key;
+            mLeader = leader;
+        }
+
+        @Override
+        public void onResponseReceived(Request<?> request, Response<?> response) {
+            List<Request<?>> followers;
+            synchronized (mInFlight) {
+                if (mInFlight.get(mKey) == this) {
+                    //之后加入的相同请求会重新发起网络请求
+                    mInFlight.remove(mKey);
+                }
+                followers = mFollowers;
+                mFollowers = new ArrayList<>();
+            }
+            if (VolleyLog.DEBUG && !followers.isEmpty()) {
+                VolleyLog.v("Delivering response to %d coalesced requests for key=%s.",
+                        followers.size(), mKey);
+            }
+            for (Request<?> follower : followers) {
+                if (follower.isCanceled()) {
+                    follower.finish("coalesced-discard-cancelled");
+                    continue;
+                }
+                follower.addMarker("coalesced-response");
+                if (response.isSuccess()) {
+                    mDelivery.postResponse(follower, response);
+                } else {
+                    mDelivery.postError(follower, response.error);
+                }
+            }
+        }
+
+        @Override
+        public void onResponseCached(Request<?> request) {
+            //合并的都是不缓存的请求，响应交出去以后就处理完了
+        }
+    }
+}
@@ -19,14 +19,12 @@ package com.android.volley;
 import android.os.Handler;
 import android.os.Looper;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -50,37 +48,43 @@ public class RequestQueue {
     private final AtomicInteger mSequenceGenerator = new AtomicInteger();
 
     /**
-     * Staging area for requests that already have a duplicate request in flight.
-     *
-     * <ul>
-     *     <li>containsKey(cacheKey) indicates that there is a request in flight for the given cache
-     *          key.</li>
-     *     <li>get(cacheKey) returns waiting requests for the given cache key. The in flight request
-     *          is <em>not</em> contained in that list. Is null if no requests are staged.</li>
-     * </ul>
+     * 暂存缓存Key相同的请求，进行中的请求完成后，直接把响应交给它们
+     */
+    private final WaitingRequestManager mWaitingRequestManager;
+
+    /**
+     * 正在请求中的请求集合，并发集合，添加、结束和遍历都不需要加锁
      */
-    private final Map<String, Queue<Request<?>>> mWaitingRequests = new HashMap<>();
+    private final Set<Request<?>> mCurrentRequests =
+            Collections.newSetFromMap(new ConcurrentHashMap<Request<?>, Boolean>());
 
     /**
-     * 正在请求中的请求集合
+     * 正在请求中的请求的Tag索引，按Tag取消时只访问匹配的请求
      */
-    private final Set<Request<?>> mCurrentRequests = new HashSet<>();
+    private final RequestTagIndex mTagIndex = new RequestTagIndex();
 
     /**
-     * 请求的缓存队列，是一个PriorityBlockingQueue，可以根据优先级来出队
+     * 请求的缓存队列，每个缓存分发器一个，是一个PriorityBlockingQueue，可以根据优先级来出队
+     * <p>
+     * 请求按照缓存Key分片到对应的队列中，相同缓存Key的请求总是由同一个缓存分发器处理，保证顺序
      */
-    private final PriorityBlockingQueue<Request<?>> mCacheQueue = new PriorityBlockingQueue<>();
+    private final PriorityBlockingQueue<Request<?>>[] mCacheQueues;
 
     /**
-     * 请求的网络队列，也是一个PriorityBlockingQueue
+     * 请求的网络队列，按照优先级出队，并且限制每个主机同时进行的网络请求数量
      */
-    private final PriorityBlockingQueue<Request<?>> mNetworkQueue = new PriorityBlockingQueue<>();
+    private final NetworkScheduler mNetworkQueue;
 
     /**
      * 请求分发器的数量，默认为4个
      */
     private static final int DEFAULT_NETWORK_THREAD_POOL_SIZE = 4;
 
+    /**
+     * 缓存分发器的数量，默认为1个
+     */
+    private static final int DEFAULT_CACHE_THREAD_POOL_SIZE = 1;
+
     /**
      * 缓存类，用于保存缓存和查询缓存
      */
@@ -97,23 +101,85 @@ public class RequestQueue {
     private final ResponseDelivery mDelivery;
 
     /**
-     * 网络请求分发器数组
+     * 网络请求分发器线程池
+     */
+    private final NetworkDispatcherPool mDispatchers;
+
+    /**
+     * 外部设置的网络请求执行者，为null则使用网络分发器线程池
+     */
+    private ExecutorService mNetworkExecutor;
+
+    /**
+     * 使用执行者时，负责把请求提交给执行者的线程
+     */
+    private NetworkExecutorDispatcher mExecutorDispatcher;
+
+    /**
+     * 是否已经启动
      */
-    private final NetworkDispatcher[] mDispatchers;
+    private boolean mStarted;
 
     /**
-     * 缓存分发器
+     * 缓存分发器数组
      */
-    private CacheDispatcher mCacheDispatcher;
+    private final CacheDispatcher[] mCacheDispatchers;
 
     /**
-     * 网络请求完成后的监听器集合
+     * 合并进行中的相同请求，用于不缓存的请求
      */
-    private final List<RequestFinishedListener> mFinishedListeners = new ArrayList<>();
+    private final RequestCoalescer mCoalescer;
+
+    /**
+     * 解析结果缓存，只保存开启了 {@link Request#shouldCacheParsedResponse()} 的请求的结果
+     */
+    private final ParsedResponseCache mParsedCache = new ParsedResponseCache();
+
+    /**
+     * 网络请求的处理逻辑，网络分发器和执行者共用
+     */
+    private final NetworkRequestProcessor mNetworkProcessor;
+
+    /**
+     * 网络请求完成后的监听器集合，添加和移除很少，回调时不需要加锁
+     */
+    private final List<RequestFinishedListener> mFinishedListeners = new CopyOnWriteArrayList<>();
 
     /**
      * 创建一个请求队列RequestQueue，要调用 {@link #start()} ，队列才会开始工作
      *
+     * @param cache               用于把缓存到磁盘
+     * @param network             用于执行请求
+     * @param threadPoolSize      用于设置网络请求分发器的线程池数量
+     * @param cacheThreadPoolSize 用于设置缓存分发器的数量，请求会按照缓存Key分片到各个缓存分发器
+     * @param delivery            用于回调请求结果的分发器
+     */
+    @SuppressWarnings("unchecked")
+    public RequestQueue(Cache cache, Network network, int threadPoolSize,
+                        int cacheThreadPoolSize, ResponseDelivery delivery) {
+        if (cacheThreadPoolSize < 1) {
+            throw new IllegalArgumentException("cacheThreadPoolSize must be at least 1");
+        }
+        mCache = cache;
+        mNetwork = network;
+        //默认不限制每个主机的并发数量，需要时通过getNetworkScheduler()设置
+        mNetworkQueue = new NetworkScheduler();
+        mCacheDispatchers = new CacheDispatcher[cacheThreadPoolSize];
+        mCacheQueues = new PriorityBlockingQueue[cacheThreadPoolSize];
+        for (int i = 0; i < cacheThreadPoolSize; i++) {
+            mCacheQueues[i] = new PriorityBlockingQueue<>();
+        }
+        mDelivery = delivery;
+        mNetworkProcessor = new NetworkRequestProcessor(mNetworkQueue, network, cache, delivery,
+                mParsedCache);
+        mDispatchers = new NetworkDispatcherPool(mNetworkQueue, mNetworkProcessor, threadPoolSize);
+        mCoalescer = new RequestCoalescer(delivery);
+        mWaitingRequestManager = new WaitingRequestManager(this, delivery);
+    }
+
+    /**
+     * 创建一个请求队列RequestQueue，使用默认数量的缓存分发器
+     *
      * @param cache          用于把缓存到磁盘
      * @param network        用于执行请求
      * @param threadPoolSize 用于设置网络请求分发器的线程池数量
@@ -121,10 +187,7 @@ public class RequestQueue {
      */
     public RequestQueue(Cache cache, Network network, int threadPoolSize,
                         ResponseDelivery delivery) {
-        mCache = cache;
-        mNetwork = network;
-        mDispatchers = new NetworkDispatcher[threadPoolSize];
-        mDelivery = delivery;
+        this(cache, network, threadPoolSize, DEFAULT_CACHE_THREAD_POOL_SIZE, delivery);
     }
 
     /**
@@ -148,32 +211,157 @@ public class RequestQueue {
     public void start() {
         //停止正在进行的分发器，包括缓存分发器和网络分发器
         stop();
-        //创建缓存分发器
-        mCacheDispatcher = new CacheDispatcher(mCacheQueue, mNetworkQueue, mCache, mDelivery);
-        //启动缓存分发器
-        mCacheDispatcher.start();
-        //根据定义的分发器数组数量，创建指定数量的网络分发器
-        for (int i = 0; i < mDispatchers.length; i++) {
-            NetworkDispatcher networkDispatcher = new NetworkDispatcher(mNetworkQueue, mNetwork,
-                    mCache, mDelivery);
-            mDispatchers[i] = networkDispatcher;
+        //缓存只需要初始化一次，由第一个缓存分发器在后台发起，分发器不需要等待初始化完成
+        //创建缓存分发器，每个分发器处理一个分片的缓存队列
+        for (int i = 0; i < mCacheDispatchers.length; i++) {
+            CacheDispatcher cacheDispatcher = new CacheDispatcher(mCacheQueues[i], mNetworkQueue,
+                    mCache, mDelivery, i == 0, mParsedCache);
+            mCacheDispatchers[i] = cacheDispatcher;
             //启动缓存分发器
-            networkDispatcher.start();
+            cacheDispatcher.start();
+        }
+        if (mNetworkExecutor != null) {
+            //每个网络请求作为一个任务提交给执行者
+            mExecutorDispatcher = new NetworkExecutorDispatcher(mNetworkQueue, mNetworkProcessor,
+                    mNetworkExecutor);
+            mExecutorDispatcher.start();
+        } else {
+            //启动网络分发器，先创建最小数量的分发器，之后根据负载调整
+            mDispatchers.start();
         }
+        mStarted = true;
     }
 
     /**
      * 停止缓存分发器和网络分发器
      */
     public void stop() {
-        if (mCacheDispatcher != null) {
-            mCacheDispatcher.quit();
-        }
-        for (int i = 0; i < mDispatchers.length; i++) {
-            if (mDispatchers[i] != null) {
-                mDispatchers[i].quit();
+        for (int i = 0; i < mCacheDispatchers.length; i++) {
+            if (mCacheDispatchers[i] != null) {
+                mCacheDispatchers[i].quit();
             }
         }
+        mDispatchers.stop();
+        if (mExecutorDispatcher != null) {
+            mExecutorDispatcher.quit();
+            mExecutorDispatcher = null;
+        }
+        mStarted = false;
+    }
+
+    /**
+     * 使用外部的执行者处理网络请求，每个请求提交一个任务，需要在 {@link #start()} 之前调用
+     * <p>
+     * 可以传入虚拟线程、ForkJoinPool或者自定义ThreadFactory创建的线程池，设置后不再启动网络分发器线程池，
+     * 并发数量由执行者决定，不再限制每个主机的并发数量。
+     * 执行者由调用方管理，{@link #stop()} 不会关闭它，传入null则恢复使用网络分发器线程池
+     */
+    public void setNetworkExecutor(ExecutorService executor) {
+        setNetworkExecutor(executor, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 使用外部的执行者处理网络请求，并且设置每个主机同时进行的网络请求数量上限，需要在 {@link #start()} 之前调用
+     *
+     * @param executor           执行者，传入null则恢复使用网络分发器线程池
+     * @param maxRequestsPerHost 每个主机同时进行的网络请求数量上限，{@link Integer#MAX_VALUE} 为不限制
+     * @see #setNetworkExecutor(ExecutorService)
+     */
+    public void setNetworkExecutor(ExecutorService executor, int maxRequestsPerHost) {
+        if (mStarted) {
+            throw new IllegalStateException("RequestQueue is already started");
+        }
+        mNetworkQueue.setMaxRequestsPerHost(maxRequestsPerHost);
+        mNetworkExecutor = executor;
+    }
+
+    /**
+     * 设置网络分发器数量的范围，分发器都在忙并且请求排队超时时扩容，空闲超时后收缩，需要在 {@link #start()} 之前调用
+     * <p>
+     * 默认最小值和最大值都是构造时指定的数量，即固定数量的分发器
+     *
+     * @param minThreads 最少的分发器数量
+     * @param maxThreads 最多的分发器数量
+     */
+    public void setNetworkThreadPoolBounds(int minThreads, int maxThreads) {
+        mDispatchers.setBounds(minThreads, maxThreads);
+    }
+
+    /**
+     * 设置扩容阈值，请求排队超过该时间并且分发器都在忙时，增加一个分发器，需要在 {@link #start()} 之前调用
+     */
+    public void setNetworkPoolGrowThresholdMs(long growThresholdMs) {
+        mDispatchers.setGrowThresholdMs(growThresholdMs);
+    }
+
+    /**
+     * 设置保活时间，超过最小数量的分发器空闲超过该时间后退出，需要在 {@link #start()} 之前调用
+     */
+    public void setNetworkThreadKeepAliveMs(long keepAliveMs) {
+        mDispatchers.setKeepAliveMs(keepAliveMs);
+    }
+
+    /**
+     * 设置解析结果缓存最多保存的结果数量，为0则不缓存，默认为 {@value ParsedResponseCache#DEFAULT_MAX_ENTRIES}
+     * <p>
+     * 只有开启了 {@link Request#setShouldCacheParsedResponse(boolean)} 的请求会使用解析结果缓存
+     */
+    public void setParsedResponseCacheSize(int maxEntries) {
+        mParsedCache.setMaxEntries(maxEntries);
+    }
+
+    /**
+     * 当前的网络分发器数量，使用执行者时为正在处理的请求数量
+     */
+    public int getNetworkThreadCount() {
+        NetworkExecutorDispatcher executorDispatcher = mExecutorDispatcher;
+        if (executorDispatcher != null) {
+            return executorDispatcher.getActiveCount();
+        }
+        return mDispatchers.getThreadCount();
+    }
+
+    /**
+     * 网络队列中排队的请求数量
+     */
+    public int getNetworkQueueDepth() {
+        return mNetworkQueue.size();
+    }
+
+    /**
+     * 网络分发器的利用率，正在处理请求的分发器占全部分发器的比例，使用执行者时始终为0
+     */
+    public float getNetworkThreadUtilization() {
+        return mDispatchers.getUtilization();
+    }
+
+    /**
+     * 按照缓存Key，获取该请求所在分片的缓存队列
+     */
+    PriorityBlockingQueue<Request<?>> getCacheQueue(String cacheKey) {
+        if (mCacheQueues.length == 1) {
+            return mCacheQueues[0];
+        }
+        int hash = cacheKey == null ? 0 : cacheKey.hashCode();
+        return mCacheQueues[(hash & Integer.MAX_VALUE) % mCacheQueues.length];
+    }
+
+    /**
+     * 在回调响应的线程中执行，分发器不是 {@link ExecutorDelivery} 时在主线程中执行
+     */
+    void postOnDelivery(Runnable runnable) {
+        if (mDelivery instanceof ExecutorDelivery) {
+            ((ExecutorDelivery) mDelivery).postRunnable(runnable);
+        } else {
+            new Handler(Looper.getMainLooper()).post(runnable);
+        }
+    }
+
+    /**
+     * 获取网络请求的调度队列，可以调整每个主机的并发上限，以及查看各个主机的排队统计
+     */
+    public NetworkScheduler getNetworkScheduler() {
+        return mNetworkQueue;
     }
 
     /**
@@ -204,14 +392,11 @@ public class RequestQueue {
      * @param filter The filtering function to use
      */
     public void cancelAll(RequestFilter filter) {
-        //同步锁
-        synchronized (mCurrentRequests) {
-            //遍历当前请求集合
-            for (Request<?> request : mCurrentRequests) {
-                //匹配到了，则取消请求
-                if (filter.apply(request)) {
-                    request.cancel();
-                }
+        //遍历当前请求集合，并发集合的遍历不会抛出ConcurrentModificationException
+        for (Request<?> request : mCurrentRequests) {
+            //匹配到了，则取消请求
+            if (filter.apply(request)) {
+                request.cancel();
             }
         }
     }
@@ -224,13 +409,27 @@ public class RequestQueue {
         if (tag == null) {
             throw new IllegalArgumentException("Cannot cancelAll with a null tag");
         }
-        cancelAll(new RequestFilter() {
-            @Override
-            public boolean apply(Request<?> request) {
-                //匹配到了
-                return request.getTag() == tag;
-            }
-        });
+        //通过Tag索引找到匹配的请求，不需要遍历所有请求
+        for (Request<?> request : mTagIndex.get(tag)) {
+            request.cancel();
+        }
+    }
+
+    /**
+     * 获取进行中的请求数量，包括排队中的请求
+     */
+    public int getRequestCount() {
+        return mCurrentRequests.size();
+    }
+
+    /**
+     * 获取指定Tag标记的进行中的请求数量，包括排队中的请求
+     */
+    public int getRequestCount(Object tag) {
+        if (tag == null) {
+            throw new IllegalArgumentException("Cannot count requests with a null tag");
+        }
+        return mTagIndex.count(tag);
     }
 
     /**
@@ -239,10 +438,9 @@ public class RequestQueue {
     public <T> Request<T> add(Request<T> request) {
         //请求保存该队列，用于标识该请求属于该队列
         request.setRequestQueue(this);
-        //同步添加请求对正在进行的请求集合中
-        synchronized (mCurrentRequests) {
-            mCurrentRequests.add(request);
-        }
+        //添加请求到正在进行的请求集合中
+        mCurrentRequests.add(request);
+        mTagIndex.add(request.getTag(), request);
 
         //给请求设置序列号
         request.setSequence(getSequenceNumber());
@@ -251,32 +449,19 @@ public class RequestQueue {
 
         //如果请求不需要缓存，那添加到网络队列中就可以了
         if (!request.shouldCache()) {
+            //开启了合并，并且相同的请求正在进行中，等待它的响应即可
+            if (mCoalescer.coalesce(request)) {
+                return request;
+            }
             mNetworkQueue.add(request);
             return request;
         }
 
         // Insert request into stage if there's already a request with the same cache key in flight.
-        synchronized (mWaitingRequests) {
-            String cacheKey = request.getCacheKey();
-            if (mWaitingRequests.containsKey(cacheKey)) {
-                // There is already a request in flight. Queue up.
-                Queue<Request<?>> stagedRequests = mWaitingRequests.get(cacheKey);
-                if (stagedRequests == null) {
-                    stagedRequests = new LinkedList<Request<?>>();
-                }
-                stagedRequests.add(request);
-                mWaitingRequests.put(cacheKey, stagedRequests);
-                if (VolleyLog.DEBUG) {
-                    VolleyLog.v("Request for cacheKey=%s is in flight, putting on hold.", cacheKey);
-                }
-            } else {
-                // Insert 'null' queue for this cacheKey, indicating there is now a request in
-                // flight.
-                mWaitingRequests.put(cacheKey, null);
-                mCacheQueue.add(request);
-            }
-            return request;
+        if (!mWaitingRequestManager.stage(request)) {
+            getCacheQueue(request.getCacheKey()).add(request);
         }
+        return request;
     }
 
     /**
@@ -284,30 +469,21 @@ public class RequestQueue {
      */
     <T> void finish(Request<T> request) {
         //从正在进行中的请求集合中移除该请求
-        synchronized (mCurrentRequests) {
-            mCurrentRequests.remove(request);
+        if (mCurrentRequests.remove(request)) {
+            mTagIndex.remove(request.getTag(), request);
+        }
+        //合并的领头请求没有拿到响应就结束了，由新的领头请求发起网络请求
+        Request<?> promoted = mCoalescer.onRequestFinished(request);
+        if (promoted != null) {
+            mNetworkQueue.add(promoted);
         }
         //通知回调，请求结束了
-        synchronized (mFinishedListeners) {
-            for (RequestFinishedListener<T> listener : mFinishedListeners) {
-                listener.onRequestFinished(request);
-            }
+        for (RequestFinishedListener<T> listener : mFinishedListeners) {
+            listener.onRequestFinished(request);
         }
-        //如果该请求可以被缓存
+        //如果该请求可以被缓存，响应还没有交给暂存的请求时，让它们回到缓存队列
         if (request.shouldCache()) {
-            synchronized (mWaitingRequests) {
-                String cacheKey = request.getCacheKey();
-                Queue<Request<?>> waitingRequests = mWaitingRequests.remove(cacheKey);
-                if (waitingRequests != null) {
-                    if (VolleyLog.DEBUG) {
-                        VolleyLog.v("Releasing %d waiting requests for cacheKey=%s.",
-                                waitingRequests.size(), cacheKey);
-                    }
-                    // Process all queued up requests. They won't be considered as in flight, but
-                    // that's not a problem as the cache has been primed by 'request'.
-                    mCacheQueue.addAll(waitingRequests);
-                }
-            }
+            mWaitingRequestManager.onRequestFinished(request);
         }
     }
 
@@ -315,17 +491,46 @@ public class RequestQueue {
      * 添加一个请求结束的回调
      */
     public <T> void addRequestFinishedListener(RequestFinishedListener<T> listener) {
-        synchronized (mFinishedListeners) {
-            mFinishedListeners.add(listener);
-        }
+        mFinishedListeners.add(listener);
     }
 
     /**
      * 移除设置的请求结束回调
      */
     public <T> void removeRequestFinishedListener(RequestFinishedListener<T> listener) {
-        synchronized (mFinishedListeners) {
-            mFinishedListeners.remove(listener);
+        mFinishedListeners.remove(listener);
+    }
+
+    /**
+     * 请求被取消，还在缓存队列或网络队列中排队时，立即移除并结束它，分发器不需要再处理
+     * <p>
+     * 移除和分发器取出是互斥的，只有成功移除的一方会结束该请求
+     */
+    void onRequestCanceled(Request<?> request) {
+        if (!mCurrentRequests.contains(request)) {
+            return;
+        }
+        boolean removed = mNetworkQueue.remove(request);
+        if (!removed && request.shouldCache()) {
+            removed = getCacheQueue(request.getCacheKey()).remove(request);
+        }
+        if (removed) {
+            request.finish("canceled-removed-from-queue");
+        }
+    }
+
+    /**
+     * 进行中的请求修改了Tag，更新Tag索引
+     */
+    void onRequestTagChanged(Request<?> request, Object oldTag) {
+        if (!mCurrentRequests.contains(request)) {
+            return;
+        }
+        mTagIndex.remove(oldTag, request);
+        mTagIndex.add(request.getTag(), request);
+        //请求在这期间结束了，不能残留在索引中
+        if (!mCurrentRequests.contains(request)) {
+            mTagIndex.remove(request.getTag(), request);
         }
     }
 }
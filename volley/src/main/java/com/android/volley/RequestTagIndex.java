@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按Tag索引进行中的请求，按Tag取消请求时只需要访问匹配的请求
+ * <p>
+ * Tag按照引用（==）比较，和 {@link RequestQueue#cancelAll(Object)} 一致。每个Tag一个桶，只锁单个桶，
+ * 不同Tag之间互不影响，桶空了就会被移除，不会持有已经没有请求的Tag（通常是Activity）
+ */
+class RequestTagIndex {
+    /**
+     * Tag和对应的桶
+     */
+    private final ConcurrentHashMap<TagKey, Bucket> mBuckets = new ConcurrentHashMap<>();
+
+    /**
+     * 添加一个请求，Tag为null时不处理
+     */
+    void add(Object tag, Request<?> request) {
+        if (tag == null) {
+            return;
+        }
+        TagKey key = new TagKey(tag);
+        while (true) {
+            Bucket bucket = mBuckets.get(key);
+            if (bucket == null) {
+                Bucket created = new Bucket();
+                bucket = mBuckets.putIfAbsent(key, created);
+                if (bucket == null) {
+                    bucket = created;
+                }
+            }
+            synchronized (bucket) {
+                //桶在这期间被移除了，重新获取
+                if (!bucket.mRemoved) {
+                    bucket.mRequests.add(request);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 移除一个请求，Tag为null时不处理
+     */
+    void remove(Object tag, Request<?> request) {
+        if (tag == null) {
+            return;
+        }
+        TagKey key = new TagKey(tag);
+        Bucket bucket = mBuckets.get(key);
+        if (bucket == null) {
+            return;
+        }
+        synchronized (bucket) {
+            if (bucket.mRequests.remove(request) && bucket.mRequests.isEmpty()) {
+                bucket.mRemoved = true;
+                mBuckets.remove(key, bucket);
+            }
+        }
+    }
+
+    /**
+     * 获取Tag对应的请求快照
+     */
+    List<Request<?>> get(Object tag) {
+        Bucket bucket = mBuckets.get(new TagKey(tag));
+        if (bucket == null) {
+            return new ArrayList<>();
+        }
+        synchronized (bucket) {
+            return new ArrayList<>(bucket.mRequests);
+        }
+    }
+
+    /**
+     * 获取Tag对应的请求数量
+     */
+    int count(Object tag) {
+        Bucket bucket = mBuckets.get(new TagKey(tag));
+        if (bucket == null) {
+            return 0;
+        }
+        synchronized (bucket) {
+            return bucket.mRequests.size();
+        }
+    }
+
+    /**
+     * 同一个Tag的请求
+     */
+    private static class Bucket {
+        private final Set<Request<?>> mRequests = new HashSet<>();
+
+        /**
+         * 桶已经从索引中移除，不能再添加请求
+         */
+        private boolean mRemoved;
+    }
+
+    /**
+     * 按照引用比较的Tag
+     */
+    private static class TagKey {
+        private final Object mTag;
+
+        TagKey(Object tag) {
+            mTag = tag;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TagKey && ((TagKey) o).mTag == mTag;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(mTag);
+        }
+    }
+}
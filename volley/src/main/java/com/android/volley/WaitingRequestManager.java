@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * 暂存缓存Key相同的请求，同一个缓存Key同时只有一个请求在进行中
+ * <p>
+ * 进行中的请求拿到可用的响应后，直接交给暂存的请求：请求类型相同时共享解析后的结果，否则用响应的缓存数据各自解析，
+ * 不需要再读取缓存。没有可用的响应时（请求失败、响应不能缓存等），暂存的请求回到缓存队列，按原来的流程处理。
+ * <p>
+ * 网络响应先回调再写入缓存，两者之间到达的相同请求继续暂存，写入完成后回到缓存队列，可以命中刚写入的缓存
+ */
+class WaitingRequestManager {
+    /**
+     * Staging area for requests that already have a duplicate request in flight.
+     *
+     * <ul>
+     *     <li>containsKey(cacheKey) indicates that there is a request in flight for the given cache
+     *          key.</li>
+     *     <li>get(cacheKey) returns the in flight request and the requests waiting for it.</li>
+     * </ul>
+     */
+    private final Map<String, StagedRequests> mWaitingRequests = new HashMap<>();
+
+    /**
+     * 所属的请求队列，暂存的请求需要放回它的缓存队列
+     */
+    private final RequestQueue mRequestQueue;
+
+    /**
+     * 用于把响应回调给暂存的请求
+     */
+    private final ResponseDelivery mDelivery;
+
+    WaitingRequestManager(RequestQueue requestQueue, ResponseDelivery delivery) {
+        mRequestQueue = requestQueue;
+        mDelivery = delivery;
+    }
+
+    /**
+     * 相同缓存Key的请求正在进行中时，暂存该请求
+     *
+     * @return true则代表已经暂存；false则代表该请求成为进行中的请求，需要加入缓存队列
+     */
+    boolean stage(Request<?> request) {
+        String cacheKey = request.getCacheKey();
+        synchronized (mWaitingRequests) {
+            StagedRequests staged = mWaitingRequests.get(cacheKey);
+            if (staged != null) {
+                // There is already a request in flight. Queue up.
+                staged.mWaiting.add(request);
+                if (VolleyLog.DEBUG) {
+                    VolleyLog.v("Request for cacheKey=%s is in flight, putting on hold.", cacheKey);
+                }
+                return true;
+            }
+            staged = new StagedRequests(cacheKey, request);
+            mWaitingRequests.put(cacheKey, staged);
+            request.setNetworkRequestCompleteListener(staged);
+            return false;
+        }
+    }
+
+    /**
+     * 请求结束时调用，进行中的请求没有把响应交给暂存的请求就结束了（被取消、304等），暂存的请求回到缓存队列
+     */
+    void onRequestFinished(Request<?> request) {
+        Request.NetworkRequestCompleteListener listener = request.getNetworkRequestCompleteListener();
+        if (listener instanceof StagedRequests) {
+            ((StagedRequests) listener).onRequestFinished(request);
+        }
+    }
+
+    /**
+     * 一个缓存Key下进行中的请求，以及等待它的请求
+     */
+    private class StagedRequests implements Request.NetworkRequestCompleteListener {
+        private final String mCacheKey;
+
+        /**
+         * 进行中的请求
+         */
+        private final Request<?> mInFlight;
+
+        /**
+         * 等待中的请求，访问时需要持有 {@link #mWaitingRequests} 的锁
+         */
+        private final Queue<Request<?>> mWaiting = new LinkedList<>();
+
+        /**
+         * 响应已经交给暂存的请求，还没有写入缓存，访问时需要持有 {@link #mWaitingRequests} 的锁
+         */
+        private boolean mAwaitingCacheWrite;
+
+        StagedRequests(String cacheKey, Request<?> inFlight) {
+            mCacheKey = cacheKey;
+            mInFlight = inFlight;
+        }
+
+        /**
+         * 移除暂存区，之后相同缓存Key的请求会成为新的进行中的请求
+         *
+         * @return 等待中的请求，已经处理过了则返回null
+         */
+        private Queue<Request<?>> detach() {
+            synchronized (mWaitingRequests) {
+                if (mWaitingRequests.get(mCacheKey) != this) {
+                    return null;
+                }
+                mWaitingRequests.remove(mCacheKey);
+                return mWaiting;
+            }
+        }
+
+        /**
+         * 进行中的请求结束了，响应还在等待写入缓存时由 {@link #onResponseCached} 处理，否则暂存的请求回到缓存队列
+         */
+        void onRequestFinished(Request<?> request) {
+            synchronized (mWaitingRequests) {
+                if (mAwaitingCacheWrite) {
+                    return;
+                }
+            }
+            release(request);
+        }
+
+        /**
+         * 没有可用的响应，或者响应已经写入缓存，暂存的请求回到缓存队列
+         */
+        void release(Request<?> request) {
+            if (request != mInFlight) {
+                return;
+            }
+            Queue<Request<?>> waiting = detach();
+            if (waiting == null || waiting.isEmpty()) {
+                return;
+            }
+            if (VolleyLog.DEBUG) {
+                VolleyLog.v("Releasing %d waiting requests for cacheKey=%s.",
+                        waiting.size(), mCacheKey);
+            }
+            // Process all queued up requests. They won't be considered as in flight, but
+            // that's not a problem as the cache has been primed by 'request'.
+            mRequestQueue.getCacheQueue(mCacheKey).addAll(waiting);
+        }
+
+        @Override
+        public void onResponseReceived(Request<?> request, Response<?> response) {
+            Cache.Entry entry = response.cacheEntry;
+            if (!response.isSuccess() || entry == null || entry.isExpired()) {
+                release(request);
+                return;
+            }
+            Queue<Request<?>> waiting;
+            synchronized (mWaitingRequests) {
+                if (mWaitingRequests.get(mCacheKey) != this) {
+                    return;
+                }
+                //暂存区保留到写入缓存之后，这期间到达的相同请求继续暂存
+                waiting = new LinkedList<>(mWaiting);
+                mWaiting.clear();
+                mAwaitingCacheWrite = true;
+            }
+            if (waiting.isEmpty()) {
+                return;
+            }
+            if (VolleyLog.DEBUG) {
+                VolleyLog.v("Delivering response to %d waiting requests for cacheKey=%s.",
+                        waiting.size(), mCacheKey);
+            }
+            NetworkResponse cachedResponse = null;
+            for (Request<?> waitingRequest : waiting) {
+                if (waitingRequest.isCanceled()) {
+                    waitingRequest.finish("waiting-discard-canceled");
+                    continue;
+                }
+                //结果可以共享，直接回调
+                if (request.isResponseShareableWith(waitingRequest)) {
+                    waitingRequest.addMarker("waiting-response-shared");
+                    mDelivery.postResponse(waitingRequest, response);
+                    continue;
+                }
+                //用响应的缓存数据解析，和命中缓存时一样
+                try {
+                    if (cachedResponse == null) {
+                        cachedResponse = new NetworkResponse(entry.data, entry.responseHeaders);
+                    }
+                    Response<?> parsed = waitingRequest.parseNetworkResponse(cachedResponse);
+                    waitingRequest.addMarker("waiting-response-parsed");
+                    mDelivery.postResponse(waitingRequest, parsed);
+                } catch (Exception e) {
+                    VolleyLog.e(e, "Unhandled exception %s", e.toString());
+                    mDelivery.postError(waitingRequest, new VolleyError(e));
+                }
+            }
+        }
+
+        @Override
+        public void onResponseCached(Request<?> request) {
+            if (request != mInFlight) {
+                return;
+            }
+            synchronized (mWaitingRequests) {
+                mAwaitingCacheWrite = false;
+            }
+            release(request);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+
+import org.apache.http.HttpResponse;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * 异步的HttpStack，发起请求后立即返回，请求完成后通过回调通知，配合 {@link BasicAsyncNetwork} 使用
+ * <p>
+ * 同时需要实现同步的 {@link #performRequest(Request, Map)}，流式请求等需要在当前线程读取响应的场景会使用它
+ */
+public interface AsyncHttpStack extends HttpStack {
+    /**
+     * 异步执行请求
+     *
+     * @param request           请求对象
+     * @param additionalHeaders 额外的请求头，会和 {@link Request#getHeaders()} 一起发送
+     * @param callback          请求完成的回调，可能在任意线程中回调，并且只会回调一次
+     */
+    void executeRequest(Request<?> request, Map<String, String> additionalHeaders,
+                        OnRequestComplete callback);
+
+    /**
+     * 异步请求完成的回调
+     */
+    interface OnRequestComplete {
+        /**
+         * 请求完成，收到了响应，响应体需要已经读取到内存中
+         */
+        void onSuccess(HttpResponse response);
+
+        /**
+         * 获取请求头时鉴权失败
+         */
+        void onAuthError(AuthFailureError authFailureError);
+
+        /**
+         * 请求失败，例如连接失败、超时等
+         */
+        void onError(IOException ioException);
+    }
+}
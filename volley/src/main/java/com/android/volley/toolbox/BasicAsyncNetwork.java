@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import android.os.SystemClock;
+
+import com.android.volley.AsyncNetwork;
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+import com.android.volley.VolleyError;
+
+import org.apache.http.HttpResponse;
+
+import java.io.IOException;
+
+/**
+ * 异步的网络请求实现，内部使用 {@link AsyncHttpStack} 发起请求，响应的处理和重试策略和 {@link BasicNetwork} 一致
+ * <p>
+ * 流式请求需要在当前线程读取响应流，仍然使用同步的方式执行
+ */
+public class BasicAsyncNetwork extends BasicNetwork implements AsyncNetwork {
+    /**
+     * 异步的HttpStack实现类
+     */
+    private final AsyncHttpStack mAsyncStack;
+
+    /**
+     * 构造方法，可以指定AsyncHttpStack实现，使用默认的缓冲池
+     */
+    public BasicAsyncNetwork(AsyncHttpStack httpStack) {
+        super(httpStack);
+        mAsyncStack = httpStack;
+    }
+
+    /**
+     * 构造方法，可以指定AsyncHttpStack实现和缓冲池
+     *
+     * @param httpStack AsyncHttpStack实现
+     * @param pool      缓冲池
+     */
+    public BasicAsyncNetwork(AsyncHttpStack httpStack, ByteArrayPool pool) {
+        super(httpStack, pool);
+        mAsyncStack = httpStack;
+    }
+
+    @Override
+    public void performRequest(Request<?> request, OnRequestComplete callback) {
+        if (request instanceof StreamingRequest) {
+            try {
+                callback.onSuccess(performRequest(request));
+            } catch (VolleyError volleyError) {
+                callback.onError(volleyError);
+            }
+            return;
+        }
+        performAttempt(request, SystemClock.elapsedRealtime(), callback);
+    }
+
+    /**
+     * 发起一次请求，失败时按照重试策略再次发起
+     */
+    private void performAttempt(final Request<?> request, final long requestStart,
+                                final OnRequestComplete callback) {
+        final Attempt attempt = new Attempt();
+        mAsyncStack.executeRequest(request, getCacheHeaders(request),
+                new AsyncHttpStack.OnRequestComplete() {
+                    @Override
+                    public void onSuccess(HttpResponse response) {
+                        attempt.httpResponse = response;
+                        try {
+                            callback.onSuccess(handleResponse(request, attempt, requestStart));
+                        } catch (IOException e) {
+                            onFailure(request, e, attempt, requestStart, callback);
+                        } catch (VolleyError volleyError) {
+                            callback.onError(volleyError);
+                        } catch (RuntimeException e) {
+                            callback.onError(new VolleyError(e));
+                        }
+                    }
+
+                    @Override
+                    public void onAuthError(AuthFailureError authFailureError) {
+                        callback.onError(authFailureError);
+                    }
+
+                    @Override
+                    public void onError(IOException ioException) {
+                        onFailure(request, ioException, attempt, requestStart, callback);
+                    }
+                });
+    }
+
+    /**
+     * 请求失败，可以重试时再次发起请求，否则回调错误
+     */
+    private void onFailure(Request<?> request, IOException e, Attempt attempt, long requestStart,
+                           OnRequestComplete callback) {
+        try {
+            handleException(request, e, attempt, requestStart);
+        } catch (VolleyError volleyError) {
+            callback.onError(volleyError);
+            return;
+        } catch (RuntimeException runtimeException) {
+            callback.onError(new VolleyError(runtimeException));
+            return;
+        }
+        if (request.isCanceled()) {
+            callback.onError(new VolleyError(e));
+            return;
+        }
+        performAttempt(request, requestStart, callback);
+    }
+}
@@ -41,10 +41,12 @@ import org.apache.http.StatusLine;
 import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.impl.cookie.DateUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -98,110 +100,178 @@ public class BasicNetwork implements Network {
         long requestStart = SystemClock.elapsedRealtime();
         //死循环，如果成功则跳出循环，出错会重试，重试到一定次数后，抛出异常，跳出循环
         while (true) {
-            HttpResponse httpResponse = null;
-            byte[] responseContents = null;
-            Map<String, String> responseHeaders = Collections.emptyMap();
+            Attempt attempt = new Attempt();
             try {
-                //创建请求头
-                Map<String, String> headers = new HashMap<String, String>();
-                //添加缓存请求头
-                addCacheHeaders(headers, request.getCacheEntry());
                 //发起请求
-                httpResponse = mHttpStack.performRequest(request, headers);
-                //获取响应状态行
-                StatusLine statusLine = httpResponse.getStatusLine();
-                //获取响应状态码
-                int statusCode = statusLine.getStatusCode();
-
-                //转换响应头
-                responseHeaders = convertHeaders(httpResponse.getAllHeaders());
-                //处理缓存和验证
-                if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
-                    Entry entry = request.getCacheEntry();
-                    if (entry == null) {
-                        return new NetworkResponse(HttpStatus.SC_NOT_MODIFIED, null,
-                                responseHeaders, true,
-                                SystemClock.elapsedRealtime() - requestStart);
-                    }
-
-                    // A HTTP 304 response does not have all header fields. We
-                    // have to use the header fields from the cache entry plus
-                    // the new ones from the response.
-                    // http://www.w3.org/Protocols/rfc2616/rfc2616-sec10.html#sec10.3.5
-                    entry.responseHeaders.putAll(responseHeaders);
-                    return new NetworkResponse(HttpStatus.SC_NOT_MODIFIED, entry.data,
-                            entry.responseHeaders, true,
-                            SystemClock.elapsedRealtime() - requestStart);
-                }
+                attempt.httpResponse = mHttpStack.performRequest(request, getCacheHeaders(request));
+                return handleResponse(request, attempt, requestStart);
+            } catch (IOException e) {
+                handleException(request, e, attempt, requestStart);
+            }
+        }
+    }
 
-                //301和302状态码，是重定向，301代表请求的资源永久被移除了，而302是资源还在，但临时地跳转到另外一个链接
-                if (statusCode == HttpStatus.SC_MOVED_PERMANENTLY || statusCode == HttpStatus.SC_MOVED_TEMPORARILY) {
-                    String newUrl = responseHeaders.get("Location");
-                    request.setRedirectUrl(newUrl);
-                }
+    /**
+     * 一次请求的状态，处理异常时需要用到
+     */
+    /* package */ static class Attempt {
+        HttpResponse httpResponse;
+        byte[] responseContents;
+        Map<String, String> responseHeaders = Collections.emptyMap();
 
-                //处理内容
-                if (httpResponse.getEntity() != null) {
-                    responseContents = entityToBytes(httpResponse.getEntity());
-                } else {
-                    //处理没有内容的响应
-                    responseContents = new byte[0];
-                }
+        /**
+         * 是否正在把响应流交给流式请求解析
+         */
+        boolean streaming;
+    }
 
-                //打印慢请求
-                long requestLifetime = SystemClock.elapsedRealtime() - requestStart;
-                logSlowRequests(requestLifetime, request, responseContents, statusLine);
+    /**
+     * 创建缓存相关的请求头
+     */
+    /* package */ Map<String, String> getCacheHeaders(Request<?> request) {
+        Map<String, String> headers = new HashMap<String, String>();
+        addCacheHeaders(headers, request.getCacheEntry());
+        return headers;
+    }
 
-                //200和299的状态码处理
-                if (statusCode < 200 || statusCode > 299) {
-                    throw new IOException();
-                }
-                //返回响应
-                return new NetworkResponse(statusCode, responseContents, responseHeaders, false,
+    /**
+     * 处理一次请求的响应，状态码不是2xx时抛出IOException，交给 {@link #handleException} 处理
+     */
+    /* package */ NetworkResponse handleResponse(Request<?> request, Attempt attempt,
+                                                 long requestStart) throws IOException, VolleyError {
+        HttpResponse httpResponse = attempt.httpResponse;
+        //获取响应状态行
+        StatusLine statusLine = httpResponse.getStatusLine();
+        //获取响应状态码
+        int statusCode = statusLine.getStatusCode();
+
+        //转换响应头
+        Map<String, String> responseHeaders = convertHeaders(httpResponse.getAllHeaders());
+        attempt.responseHeaders = responseHeaders;
+        //处理缓存和验证
+        if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
+            Entry entry = request.getCacheEntry();
+            if (entry == null) {
+                return new NetworkResponse(HttpStatus.SC_NOT_MODIFIED, null,
+                        responseHeaders, true,
                         SystemClock.elapsedRealtime() - requestStart);
-            } catch (SocketTimeoutException e) {
-                attemptRetryOnException("socket", request, new TimeoutError());
-            } catch (ConnectTimeoutException e) {
-                attemptRetryOnException("connection", request, new TimeoutError());
-            } catch (MalformedURLException e) {
-                throw new RuntimeException("Bad URL " + request.getUrl(), e);
-            } catch (IOException e) {
-                int statusCode = 0;
-                NetworkResponse networkResponse = null;
-                if (httpResponse != null) {
-                    statusCode = httpResponse.getStatusLine().getStatusCode();
-                } else {
-                    throw new NoConnectionError(e);
-                }
-                //301、302重定向
-                if (statusCode == HttpStatus.SC_MOVED_PERMANENTLY ||
-                        statusCode == HttpStatus.SC_MOVED_TEMPORARILY) {
-                    VolleyLog.e("Request at %s has been redirected to %s", request.getOriginUrl(), request.getUrl());
-                } else {
-                    VolleyLog.e("Unexpected response code %d for %s", statusCode, request.getUrl());
-                }
-                if (responseContents != null) {
-                    networkResponse = new NetworkResponse(statusCode, responseContents,
-                            responseHeaders, false, SystemClock.elapsedRealtime() - requestStart);
-                    //401和403，进行重试
-                    if (statusCode == HttpStatus.SC_UNAUTHORIZED ||
-                            statusCode == HttpStatus.SC_FORBIDDEN) {
-                        attemptRetryOnException("auth",
-                                request, new AuthFailureError(networkResponse));
-                    } else if (statusCode == HttpStatus.SC_MOVED_PERMANENTLY ||
-                            statusCode == HttpStatus.SC_MOVED_TEMPORARILY) {
-                        //301、302，重试到新地铁
-                        attemptRetryOnException("redirect",
-                                request, new RedirectError(networkResponse));
-                    } else {
-                        // TODO: Only throw ServerError for 5xx status codes.
-                        //其他则是服务器异常
-                        throw new ServerError(networkResponse);
-                    }
-                } else {
-                    throw new NetworkError(e);
-                }
             }
+
+            // A HTTP 304 response does not have all header fields. We
+            // have to use the header fields from the cache entry plus
+            // the new ones from the response.
+            // http://www.w3.org/Protocols/rfc2616/rfc2616-sec10.html#sec10.3.5
+            //缓存的Entry可能被内存缓存和其他请求共享，合并到新的Map中，不修改它的响应头
+            Map<String, String> mergedHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            if (entry.responseHeaders != null) {
+                mergedHeaders.putAll(entry.responseHeaders);
+            }
+            mergedHeaders.putAll(responseHeaders);
+            return new NetworkResponse(HttpStatus.SC_NOT_MODIFIED, entry.data,
+                    mergedHeaders, true,
+                    SystemClock.elapsedRealtime() - requestStart);
+        }
+
+        //301和302状态码，是重定向，301代表请求的资源永久被移除了，而302是资源还在，但临时地跳转到另外一个链接
+        if (statusCode == HttpStatus.SC_MOVED_PERMANENTLY || statusCode == HttpStatus.SC_MOVED_TEMPORARILY) {
+            String newUrl = responseHeaders.get("Location");
+            request.setRedirectUrl(newUrl);
+        }
+
+        //流式请求，在网络线程中直接解析响应流，不把响应体读取到内存中
+        if (request instanceof StreamingRequest
+                && ((StreamingRequest<?>) request).shouldStreamStatus(statusCode)
+                && httpResponse.getEntity() != null) {
+            NetworkResponse networkResponse = new NetworkResponse(statusCode, new byte[0],
+                    responseHeaders, false, SystemClock.elapsedRealtime() - requestStart);
+            attempt.streaming = true;
+            consumeStream((StreamingRequest<?>) request, networkResponse, httpResponse.getEntity());
+            return networkResponse;
+        }
+
+        //处理内容
+        byte[] responseContents;
+        if (httpResponse.getEntity() != null) {
+            responseContents = entityToBytes(httpResponse.getEntity());
+        } else {
+            //处理没有内容的响应
+            responseContents = new byte[0];
+        }
+        attempt.responseContents = responseContents;
+
+        //打印慢请求
+        long requestLifetime = SystemClock.elapsedRealtime() - requestStart;
+        logSlowRequests(requestLifetime, request, responseContents, statusLine);
+
+        //200和299的状态码处理
+        if (statusCode < 200 || statusCode > 299) {
+            throw new IOException();
+        }
+        //返回响应
+        return new NetworkResponse(statusCode, responseContents, responseHeaders, false,
+                SystemClock.elapsedRealtime() - requestStart);
+    }
+
+    /**
+     * 处理一次请求的异常，可以重试时直接返回，否则抛出最终的异常
+     */
+    /* package */ void handleException(Request<?> request, IOException e, Attempt attempt,
+                                       long requestStart) throws VolleyError {
+        if (attempt.streaming) {
+            if (request.isCanceled()) {
+                throw new NetworkError(e);
+            }
+            //读取响应流中途失败，或者流式请求要求重试，按照重试策略重新请求，流式请求可以从中断的位置继续。
+            //解析失败之类的错误已经由StreamingRequest转换为失败的响应，不会走到这里
+            attemptRetryOnException("stream", request,
+                    e instanceof SocketTimeoutException ? new TimeoutError() : new NetworkError(e));
+            return;
+        }
+        if (e instanceof SocketTimeoutException) {
+            attemptRetryOnException("socket", request, new TimeoutError());
+            return;
+        }
+        if (e instanceof ConnectTimeoutException) {
+            attemptRetryOnException("connection", request, new TimeoutError());
+            return;
+        }
+        if (e instanceof MalformedURLException) {
+            throw new RuntimeException("Bad URL " + request.getUrl(), e);
+        }
+        int statusCode;
+        NetworkResponse networkResponse;
+        if (attempt.httpResponse != null) {
+            statusCode = attempt.httpResponse.getStatusLine().getStatusCode();
+        } else {
+            throw new NoConnectionError(e);
+        }
+        //301、302重定向
+        if (statusCode == HttpStatus.SC_MOVED_PERMANENTLY ||
+                statusCode == HttpStatus.SC_MOVED_TEMPORARILY) {
+            VolleyLog.e("Request at %s has been redirected to %s", request.getOriginUrl(), request.getUrl());
+        } else {
+            VolleyLog.e("Unexpected response code %d for %s", statusCode, request.getUrl());
+        }
+        if (attempt.responseContents != null) {
+            networkResponse = new NetworkResponse(statusCode, attempt.responseContents,
+                    attempt.responseHeaders, false, SystemClock.elapsedRealtime() - requestStart);
+            //401和403，进行重试
+            if (statusCode == HttpStatus.SC_UNAUTHORIZED ||
+                    statusCode == HttpStatus.SC_FORBIDDEN) {
+                attemptRetryOnException("auth",
+                        request, new AuthFailureError(networkResponse));
+            } else if (statusCode == HttpStatus.SC_MOVED_PERMANENTLY ||
+                    statusCode == HttpStatus.SC_MOVED_TEMPORARILY) {
+                //301、302，重试到新地铁
+                attemptRetryOnException("redirect",
+                        request, new RedirectError(networkResponse));
+            } else {
+                // TODO: Only throw ServerError for 5xx status codes.
+                //其他则是服务器异常
+                throw new ServerError(networkResponse);
+            }
+        } else {
+            throw new NetworkError(e);
         }
     }
 
@@ -267,20 +337,69 @@ public class BasicNetwork implements Network {
         VolleyLog.v("HTTP ERROR(%s) %d ms to fetch %s", what, (now - start), url);
     }
 
+    /**
+     * 把HttpEntity的内容流交给流式请求解析
+     */
+    private void consumeStream(StreamingRequest<?> request, NetworkResponse networkResponse,
+                               HttpEntity entity) throws IOException, ServerError {
+        try {
+            InputStream in = entity.getContent();
+            if (in == null) {
+                //2xx之外的状态码（例如416）可能没有响应体
+                if (networkResponse.statusCode >= 200 && networkResponse.statusCode <= 299) {
+                    throw new ServerError();
+                }
+                in = new ByteArrayInputStream(new byte[0]);
+            }
+            request.consumeStream(networkResponse, in);
+        } finally {
+            try {
+                // Close the InputStream and release the resources by "consuming the content".
+                entity.consumeContent();
+            } catch (IOException e) {
+                VolleyLog.v("Error occured when calling consumingContent");
+            }
+        }
+    }
+
     /**
      * 把HttpEntity的内容转换到byte数组中
+     * <p>
+     * 已知内容长度时，直接读取到长度刚好的数组中，避免最后再完整拷贝一次
      */
     private byte[] entityToBytes(HttpEntity entity) throws IOException, ServerError {
-        PoolingByteArrayOutputStream bytes =
-                new PoolingByteArrayOutputStream(mPool, (int) entity.getContentLength());
+        long contentLength = entity.getContentLength();
+        PoolingByteArrayOutputStream bytes = null;
         byte[] buffer = null;
         try {
             InputStream in = entity.getContent();
             if (in == null) {
                 throw new ServerError();
             }
-            buffer = mPool.getBuf(1024);
             int count;
+            if (contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+                byte[] data = new byte[(int) contentLength];
+                int offset = 0;
+                while (offset < data.length
+                        && (count = in.read(data, offset, data.length - offset)) != -1) {
+                    offset += count;
+                }
+                if (offset < data.length) {
+                    //实际内容比声明的短，只返回读取到的部分
+                    return Arrays.copyOf(data, offset);
+                }
+                int next = in.read();
+                if (next == -1) {
+                    return data;
+                }
+                //实际内容比声明的长，剩下的部分继续使用缓冲流读取
+                bytes = new PoolingByteArrayOutputStream(mPool, data.length * 2);
+                bytes.write(data, 0, data.length);
+                bytes.write(next);
+            } else {
+                bytes = new PoolingByteArrayOutputStream(mPool);
+            }
+            buffer = mPool.getBuf(1024);
             while ((count = in.read(buffer)) != -1) {
                 bytes.write(buffer, 0, count);
             }
@@ -295,7 +414,9 @@ public class BasicNetwork implements Network {
                 VolleyLog.v("Error occured when calling consumingContent");
             }
             mPool.returnBuf(buffer);
-            bytes.close();
+            if (bytes != null) {
+                bytes.close();
+            }
         }
     }
 
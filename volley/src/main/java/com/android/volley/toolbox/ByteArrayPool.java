@@ -16,11 +16,10 @@
 
 package com.android.volley.toolbox;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * ByteArrayPool is a source and repository of <code>byte[]</code> objects. Its purpose is to
@@ -49,19 +48,41 @@ import java.util.List;
  * <p>
  * This class ensures that the total size of the buffers in its recycling pool never exceeds a
  * certain byte limit. When a buffer is returned that would cause the pool to exceed the limit,
- * least-recently-used buffers are disposed.
+ * the returned buffer is discarded.
+ * <p>
+ * 缓冲区按2的幂次划分大小等级，每个等级是一个无锁的栈，获取和归还都不需要加锁。
+ * 新分配的缓冲区会向上取整到所在等级的大小，方便之后被同一等级的请求复用
  */
 public class ByteArrayPool {
-    /** The buffer pool, arranged both by last use and by buffer size */
-    private List<byte[]> mBuffersByLastUse = new LinkedList<byte[]>();
-    private List<byte[]> mBuffersBySize = new ArrayList<byte[]>(64);
+    /**
+     * 大小等级的数量，第i个等级中的缓冲区长度都在 [2^i, 2^(i+1)) 之间
+     */
+    private static final int SIZE_CLASSES = 31;
+
+    /**
+     * 获取缓冲区时，最多向上查找的等级数，避免小请求拿走大缓冲区
+     */
+    private static final int MAX_CLASS_PROBES = 2;
+
+    /** The buffer pool, one lock-free stack per size class */
+    private final AtomicReference<Node>[] mBuffersByClass;
 
     /** The total size of the buffers in the pool */
-    private int mCurrentSize = 0;
+    private final AtomicInteger mCurrentSize = new AtomicInteger(0);
+
+    /**
+     * 从池中获取到缓冲区的次数
+     */
+    private final AtomicLong mHitCount = new AtomicLong(0);
+
+    /**
+     * 池中没有合适的缓冲区，需要新分配的次数
+     */
+    private final AtomicLong mMissCount = new AtomicLong(0);
 
     /**
-     * The maximum aggregate size of the buffers in the pool. Old buffers are discarded to stay
-     * under this limit.
+     * The maximum aggregate size of the buffers in the pool. Returned buffers are discarded to
+     * stay under this limit.
      */
     private final int mSizeLimit;
 
@@ -73,11 +94,28 @@ public class ByteArrayPool {
         }
     };
 
+    /**
+     * 栈中的节点
+     */
+    private static final class Node {
+        final byte[] buf;
+        Node next;
+
+        Node(byte[] buf) {
+            this.buf = buf;
+        }
+    }
+
     /**
      * @param sizeLimit the maximum size of the pool, in bytes
      */
+    @SuppressWarnings("unchecked")
     public ByteArrayPool(int sizeLimit) {
         mSizeLimit = sizeLimit;
+        mBuffersByClass = new AtomicReference[SIZE_CLASSES];
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            mBuffersByClass[i] = new AtomicReference<>();
+        }
     }
 
     /**
@@ -88,48 +126,110 @@ public class ByteArrayPool {
      *        larger.
      * @return a byte[] buffer is always returned.
      */
-    public synchronized byte[] getBuf(int len) {
-        for (int i = 0; i < mBuffersBySize.size(); i++) {
-            byte[] buf = mBuffersBySize.get(i);
-            if (buf.length >= len) {
-                mCurrentSize -= buf.length;
-                mBuffersBySize.remove(i);
-                mBuffersByLastUse.remove(buf);
+    public byte[] getBuf(int len) {
+        int sizeClass = ceilSizeClass(len);
+        //超出池的容量，不会被归还到池中，直接按照需要的大小分配
+        if (sizeClass >= SIZE_CLASSES || (1 << sizeClass) > mSizeLimit) {
+            mMissCount.incrementAndGet();
+            return new byte[len];
+        }
+        int lastClass = Math.min(sizeClass + MAX_CLASS_PROBES, SIZE_CLASSES);
+        for (int i = sizeClass; i < lastClass; i++) {
+            byte[] buf = pop(mBuffersByClass[i]);
+            if (buf != null) {
+                mCurrentSize.addAndGet(-buf.length);
+                mHitCount.incrementAndGet();
                 return buf;
             }
         }
-        return new byte[len];
+        mMissCount.incrementAndGet();
+        return new byte[1 << sizeClass];
     }
 
     /**
-     * Returns a buffer to the pool, throwing away old buffers if the pool would exceed its allotted
-     * size.
+     * Returns a buffer to the pool, discarding it if the pool would exceed its allotted size.
      *
      * @param buf the buffer to return to the pool.
      */
-    public synchronized void returnBuf(byte[] buf) {
-        if (buf == null || buf.length > mSizeLimit) {
+    public void returnBuf(byte[] buf) {
+        if (buf == null || buf.length == 0 || buf.length > mSizeLimit) {
             return;
         }
-        mBuffersByLastUse.add(buf);
-        int pos = Collections.binarySearch(mBuffersBySize, buf, BUF_COMPARATOR);
-        if (pos < 0) {
-            pos = -pos - 1;
+        //先占用容量，超出上限则丢弃该缓冲区
+        while (true) {
+            int current = mCurrentSize.get();
+            if (current + buf.length > mSizeLimit) {
+                return;
+            }
+            if (mCurrentSize.compareAndSet(current, current + buf.length)) {
+                break;
+            }
+        }
+        //按照向下取整的等级存放，保证该等级的请求都能使用它
+        push(mBuffersByClass[floorSizeClass(buf.length)], buf);
+    }
+
+    /**
+     * 获取池中缓冲区的总大小，以字节为单位
+     */
+    public int getCurrentSize() {
+        return mCurrentSize.get();
+    }
+
+    /**
+     * 获取从池中获取到缓冲区的次数
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * 获取池中没有合适的缓冲区，需要新分配的次数
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * 从栈顶取出一个缓冲区，栈为空时返回null
+     */
+    private static byte[] pop(AtomicReference<Node> stack) {
+        while (true) {
+            Node head = stack.get();
+            if (head == null) {
+                return null;
+            }
+            if (stack.compareAndSet(head, head.next)) {
+                return head.buf;
+            }
         }
-        mBuffersBySize.add(pos, buf);
-        mCurrentSize += buf.length;
-        trim();
     }
 
     /**
-     * Removes buffers from the pool until it is under its size limit.
+     * 把缓冲区压入栈顶
      */
-    private synchronized void trim() {
-        while (mCurrentSize > mSizeLimit) {
-            byte[] buf = mBuffersByLastUse.remove(0);
-            mBuffersBySize.remove(buf);
-            mCurrentSize -= buf.length;
+    private static void push(AtomicReference<Node> stack, byte[] buf) {
+        Node node = new Node(buf);
+        while (true) {
+            Node head = stack.get();
+            node.next = head;
+            if (stack.compareAndSet(head, node)) {
+                return;
+            }
         }
     }
 
+    /**
+     * 能容纳len个字节的最小等级
+     */
+    private static int ceilSizeClass(int len) {
+        return len <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(len - 1);
+    }
+
+    /**
+     * 长度为len的缓冲区所在的等级
+     */
+    private static int floorSizeClass(int len) {
+        return 31 - Integer.numberOfLeadingZeros(len);
+    }
 }
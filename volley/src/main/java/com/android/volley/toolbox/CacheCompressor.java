@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link DiskBasedCache} 使用的压缩工具，使用Deflater压缩缓存数据
+ * <p>
+ * Deflater、Inflater和压缩用的缓冲区都会被复用，避免每次写缓存都分配本地内存和大数组
+ */
+class CacheCompressor {
+    /**
+     * 最多复用的Deflater、Inflater数量
+     */
+    private static final int MAX_POOLED_CODERS = 4;
+
+    /**
+     * 每次压缩输出的块大小
+     */
+    private static final int CHUNK_SIZE = 4 * 1024;
+
+    /**
+     * 压缩缓冲区池的容量
+     */
+    private static final int BUFFER_POOL_SIZE = 64 * 1024;
+
+    private final ByteArrayPool mBufferPool = new ByteArrayPool(BUFFER_POOL_SIZE);
+
+    /**
+     * 空闲的Deflater，访问时需要持有该对象的锁
+     */
+    private final ArrayDeque<Deflater> mDeflaters = new ArrayDeque<>();
+
+    /**
+     * 空闲的Inflater，访问时需要持有该对象的锁
+     */
+    private final ArrayDeque<Inflater> mInflaters = new ArrayDeque<>();
+
+    /**
+     * 压缩数据
+     *
+     * @return 压缩后的数据，用完需要调用 {@link PoolingByteArrayOutputStream#close()} 归还缓冲区；
+     * 压缩后没有变小则返回null
+     */
+    PoolingByteArrayOutputStream compress(byte[] data) {
+        Deflater deflater = obtainDeflater();
+        byte[] chunk = mBufferPool.getBuf(CHUNK_SIZE);
+        PoolingByteArrayOutputStream out = new PoolingByteArrayOutputStream(mBufferPool,
+                data.length / 2);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            while (!deflater.finished()) {
+                int count = deflater.deflate(chunk);
+                out.write(chunk, 0, count);
+                //已经不比原始数据小了，不需要再压缩下去
+                if (out.size() >= data.length) {
+                    closeQuietly(out);
+                    return null;
+                }
+            }
+            return out;
+        } finally {
+            mBufferPool.returnBuf(chunk);
+            recycle(deflater);
+        }
+    }
+
+    /**
+     * 解压数据
+     *
+     * @param compressed    压缩后的数据
+     * @param logicalLength 原始数据的长度
+     * @throws IOException 数据已损坏
+     */
+    byte[] decompress(byte[] compressed, int logicalLength) throws IOException {
+        Inflater inflater = obtainInflater();
+        try {
+            byte[] data = new byte[logicalLength];
+            inflater.setInput(compressed);
+            int count = 0;
+            while (count < logicalLength && !inflater.finished()) {
+                int inflated = inflater.inflate(data, count, logicalLength - count);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                count += inflated;
+            }
+            if (count != logicalLength || !inflater.finished()) {
+                throw new IOException("Corrupt compressed cache entry");
+            }
+            return data;
+        } catch (DataFormatException e) {
+            throw new IOException(e.toString());
+        } finally {
+            recycle(inflater);
+        }
+    }
+
+    /**
+     * 根据响应头中的Content-Type，判断数据是否值得压缩（文本、JSON、XML等）
+     */
+    static boolean isCompressible(Map<String, String> headers) {
+        if (headers == null) {
+            return false;
+        }
+        String contentType = null;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if ("Content-Type".equalsIgnoreCase(header.getKey())) {
+                contentType = header.getValue();
+                break;
+            }
+        }
+        if (contentType == null) {
+            return false;
+        }
+        contentType = contentType.toLowerCase(Locale.US);
+        return contentType.startsWith("text/")
+                || contentType.startsWith("application/json")
+                || contentType.startsWith("application/javascript")
+                || contentType.startsWith("application/xml")
+                || contentType.startsWith("application/x-www-form-urlencoded")
+                || contentType.contains("+json")
+                || contentType.contains("+xml");
+    }
+
+    private Deflater obtainDeflater() {
+        synchronized (mDeflaters) {
+            Deflater deflater = mDeflaters.poll();
+            if (deflater != null) {
+                return deflater;
+            }
+        }
+        return new Deflater(Deflater.BEST_SPEED);
+    }
+
+    private void recycle(Deflater deflater) {
+        deflater.reset();
+        synchronized (mDeflaters) {
+            if (mDeflaters.size() < MAX_POOLED_CODERS) {
+                mDeflaters.push(deflater);
+                return;
+            }
+        }
+        deflater.end();
+    }
+
+    private Inflater obtainInflater() {
+        synchronized (mInflaters) {
+            Inflater inflater = mInflaters.poll();
+            if (inflater != null) {
+                return inflater;
+            }
+        }
+        return new Inflater();
+    }
+
+    private void recycle(Inflater inflater) {
+        inflater.reset();
+        synchronized (mInflaters) {
+            if (mInflaters.size() < MAX_POOLED_CODERS) {
+                mInflaters.push(inflater);
+                return;
+            }
+        }
+        inflater.end();
+    }
+
+    private static void closeQuietly(PoolingByteArrayOutputStream out) {
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import java.util.Iterator;
+
+/**
+ * {@link DiskBasedCache} 的淘汰策略，决定缓存满了以后先删除哪些缓存
+ * <p>
+ * 所有方法都由 {@link DiskBasedCache} 在持有索引锁的情况下调用，实现类不需要再处理线程安全
+ */
+public interface CacheEvictionPolicy {
+    /**
+     * 添加或更新了一个缓存
+     *
+     * @param key  缓存Key
+     * @param size 缓存文件的大小，以字节为单位
+     */
+    void onPut(String key, long size);
+
+    /**
+     * 命中了一个缓存
+     */
+    void onAccess(String key);
+
+    /**
+     * 移除了一个缓存
+     */
+    void onRemove(String key);
+
+    /**
+     * 清空了所有缓存
+     */
+    void clear();
+
+    /**
+     * 按照淘汰顺序遍历缓存Key，最先被淘汰的在前面，遍历期间不会有其他方法被调用
+     */
+    Iterator<String> evictionOrder();
+}
@@ -0,0 +1,459 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.VolleyLog;
+import com.android.volley.toolbox.DiskBasedCache.CacheHeader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link DiskBasedCache} 的索引日志，只追加写入，启动时重放即可恢复索引，不需要打开每一个缓存文件
+ * <p>
+ * 日志由文件头和一条条记录组成，记录分为添加（PUT）和移除（REMOVE）两种，同一个Key以最后一条记录为准。
+ * 重复的记录累积到一定数量后，由 {@link #rebuild(Collection)} 根据当前索引重写日志进行压缩
+ */
+class CacheJournal {
+    /**
+     * 日志文件名，缓存文件名都是由数字组成的，不会和它冲突
+     */
+    static final String JOURNAL_FILE = "journal";
+
+    /**
+     * 重写日志时使用的临时文件名
+     */
+    static final String JOURNAL_FILE_TMP = "journal.tmp";
+
+    /**
+     * 日志文件的魔数
+     */
+    private static final int JOURNAL_MAGIC = 0x20211018;
+
+    /**
+     * 日志格式的版本号
+     */
+    private static final int JOURNAL_VERSION = 1;
+
+    /**
+     * 添加记录
+     */
+    private static final int OP_PUT = 1;
+
+    /**
+     * 移除记录
+     */
+    private static final int OP_REMOVE = 2;
+
+    /**
+     * 日志中字符串的最大长度，超过则认为日志已损坏
+     */
+    private static final int MAX_STRING_LENGTH = 64 * 1024;
+
+    /**
+     * 触发压缩的最少冗余记录数
+     */
+    private static final int COMPACT_THRESHOLD = 2000;
+
+    /**
+     * 日志就绪之前，最多暂存的记录字节数
+     */
+    private static final int MAX_PENDING_BYTES = 1024 * 1024;
+
+    private final File mJournalFile;
+    private final File mJournalFileTmp;
+
+    /**
+     * 追加写入的输出流，为null则代表还没有打开
+     */
+    private OutputStream mWriter;
+
+    /**
+     * 日志中的记录总数，减去索引中的缓存数量，就是冗余的记录数
+     */
+    private int mOpCount;
+
+    /**
+     * 写入失败后，日志已经和缓存目录不一致，在重写之前不再追加记录
+     */
+    private boolean mBroken;
+
+    /**
+     * 日志是否已经重放或重写过，在此之前追加的记录先暂存在内存中
+     */
+    private boolean mReady;
+
+    /**
+     * 日志就绪之前（缓存还在后台初始化）追加的记录，超过 {@link #MAX_PENDING_BYTES} 后被丢弃，并删除日志
+     */
+    private ByteArrayOutputStream mPending = new ByteArrayOutputStream();
+
+    /**
+     * @param rootDirectory 缓存根目录
+     */
+    CacheJournal(File rootDirectory) {
+        mJournalFile = new File(rootDirectory, JOURNAL_FILE);
+        mJournalFileTmp = new File(rootDirectory, JOURNAL_FILE_TMP);
+    }
+
+    /**
+     * 判断文件是否是日志文件，扫描缓存目录时需要跳过它们
+     */
+    boolean isJournalFile(File file) {
+        String name = file.getName();
+        return JOURNAL_FILE.equals(name) || JOURNAL_FILE_TMP.equals(name);
+    }
+
+    /**
+     * 重放日志，返回按照写入顺序排列的索引，返回null则代表日志不存在或已损坏，需要全量扫描缓存目录
+     * <p>
+     * 日志末尾不完整的记录（写入过程中进程被杀）会被忽略，初始化期间暂存的记录合并到索引后重写日志；
+     * 日志完整时，暂存的记录直接追加到日志的末尾
+     */
+    synchronized Map<String, CacheHeader> read() {
+        if (!mJournalFile.exists()) {
+            return null;
+        }
+        Map<String, CacheHeader> entries = new LinkedHashMap<>();
+        int opCount = 0;
+        boolean truncated = false;
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(mJournalFile));
+            if (DiskBasedCache.readInt(in) != JOURNAL_MAGIC
+                    || DiskBasedCache.readInt(in) != JOURNAL_VERSION) {
+                VolleyLog.d("Unexpected journal header, rebuilding cache index");
+                return null;
+            }
+            while (true) {
+                int op = in.read();
+                if (op == -1) {
+                    break;
+                }
+                try {
+                    if (!applyRecord(op, in, entries)) {
+                        VolleyLog.d("Unexpected journal op %d, rebuilding cache index", op);
+                        return null;
+                    }
+                } catch (EOFException e) {
+                    truncated = true;
+                    break;
+                }
+                opCount++;
+            }
+        } catch (IOException e) {
+            VolleyLog.d("Unable to read cache journal: %s", e.toString());
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        //就绪之前的计数是暂存的记录数
+        mOpCount = mReady ? opCount : mOpCount + opCount;
+        if (truncated) {
+            //暂存的记录发生在日志末尾之后，重写日志会丢弃它们，需要先合并到索引中
+            if (!replayPending(entries)) {
+                return null;
+            }
+            rebuild(entries.values());
+            return entries;
+        }
+        flushPending();
+        return entries;
+    }
+
+    /**
+     * 把一条记录应用到索引中
+     *
+     * @return 不认识的记录类型返回false
+     */
+    private static boolean applyRecord(int op, InputStream in, Map<String, CacheHeader> entries)
+            throws IOException {
+        if (op == OP_PUT) {
+            CacheHeader header = readPut(in);
+            //重新插入，保证顺序为最后写入的顺序
+            entries.remove(header.key);
+            entries.put(header.key, header);
+            return true;
+        } else if (op == OP_REMOVE) {
+            entries.remove(readString(in));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 把暂存的记录合并到索引中
+     *
+     * @return 暂存的记录无法解析时返回false
+     */
+    private boolean replayPending(Map<String, CacheHeader> entries) {
+        if (mPending == null || mPending.size() == 0) {
+            return true;
+        }
+        InputStream in = new ByteArrayInputStream(mPending.toByteArray());
+        try {
+            int op;
+            while ((op = in.read()) != -1) {
+                if (!applyRecord(op, in, entries)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            VolleyLog.d("Unable to replay pending journal records: %s", e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * 追加一条添加记录
+     */
+    synchronized void writePut(CacheHeader header) {
+        try {
+            OutputStream out = writer();
+            writePutRecord(out, header);
+            out.flush();
+            mOpCount++;
+        } catch (IOException e) {
+            onWriteError(e);
+        }
+    }
+
+    /**
+     * 追加一条移除记录
+     */
+    synchronized void writeRemove(String key) {
+        try {
+            OutputStream out = writer();
+            out.write(OP_REMOVE);
+            DiskBasedCache.writeString(out, key);
+            out.flush();
+            mOpCount++;
+        } catch (IOException e) {
+            onWriteError(e);
+        }
+    }
+
+    /**
+     * 冗余的记录是否已经多到需要压缩
+     *
+     * @param liveEntries 当前索引中的缓存数量
+     */
+    synchronized boolean needsCompaction(int liveEntries) {
+        int redundantOpCount = mOpCount - liveEntries;
+        return redundantOpCount >= COMPACT_THRESHOLD && redundantOpCount >= liveEntries;
+    }
+
+    /**
+     * 根据当前索引，重写整个日志，先写入临时文件再重命名，保证日志在任何时候都是完整的
+     * <p>
+     * 调用方需要在持有该对象锁的情况下获取索引的快照，暂存的记录都发生在快照之前，会直接丢弃
+     */
+    synchronized void rebuild(Collection<CacheHeader> entries) {
+        closeWriter();
+        mReady = true;
+        mPending = null;
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(mJournalFileTmp));
+            DiskBasedCache.writeInt(out, JOURNAL_MAGIC);
+            DiskBasedCache.writeInt(out, JOURNAL_VERSION);
+            for (CacheHeader header : entries) {
+                writePutRecord(out, header);
+            }
+            out.close();
+            out = null;
+            if (!mJournalFileTmp.renameTo(mJournalFile)) {
+                throw new IOException("Unable to rename " + mJournalFileTmp);
+            }
+            mOpCount = entries.size();
+            mBroken = false;
+        } catch (IOException e) {
+            VolleyLog.d("Unable to rebuild cache journal: %s", e.toString());
+            mJournalFile.delete();
+            mBroken = true;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+            mJournalFileTmp.delete();
+        }
+    }
+
+    /**
+     * 删除日志，并重新开始记录，用于清空缓存
+     */
+    synchronized void reset() {
+        closeWriter();
+        mJournalFile.delete();
+        mJournalFileTmp.delete();
+        mOpCount = 0;
+        mBroken = false;
+        mReady = true;
+        mPending = null;
+    }
+
+    /**
+     * 获取追加写入的输出流，日志不存在时会先写入文件头
+     */
+    private OutputStream writer() throws IOException {
+        if (!mReady) {
+            //一直没有初始化时，不再继续暂存，放弃日志，初始化时会全量扫描缓存目录并重写日志
+            if (mPending == null || mPending.size() >= MAX_PENDING_BYTES) {
+                mPending = null;
+                throw new IOException("Too many journal records before initialization");
+            }
+            return mPending;
+        }
+        if (mBroken) {
+            throw new IOException("Journal is out of sync with the cache directory");
+        }
+        if (mWriter == null) {
+            boolean exists = mJournalFile.exists();
+            try {
+                mWriter = new BufferedOutputStream(new FileOutputStream(mJournalFile, true));
+            } catch (FileNotFoundException e) {
+                //缓存目录还不存在
+                throw new IOException(e);
+            }
+            if (!exists) {
+                DiskBasedCache.writeInt(mWriter, JOURNAL_MAGIC);
+                DiskBasedCache.writeInt(mWriter, JOURNAL_VERSION);
+            }
+        }
+        return mWriter;
+    }
+
+    /**
+     * 把暂存的记录追加到日志中
+     */
+    private void flushPending() {
+        ByteArrayOutputStream pending = mPending;
+        mReady = true;
+        mPending = null;
+        if (pending == null || pending.size() == 0) {
+            return;
+        }
+        try {
+            OutputStream out = writer();
+            pending.writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            onWriteError(e);
+        }
+    }
+
+    /**
+     * 写入失败时，删除日志并停止记录，避免日志和缓存目录不一致，下次启动时会全量扫描缓存目录
+     */
+    private void onWriteError(IOException e) {
+        if (!mBroken) {
+            VolleyLog.d("Unable to write cache journal: %s", e.toString());
+            closeWriter();
+            mJournalFile.delete();
+            mBroken = true;
+        }
+    }
+
+    private void closeWriter() {
+        if (mWriter != null) {
+            try {
+                mWriter.close();
+            } catch (IOException ignored) {
+            }
+            mWriter = null;
+        }
+    }
+
+    /**
+     * 写入一条添加记录
+     */
+    private static void writePutRecord(OutputStream out, CacheHeader header) throws IOException {
+        out.write(OP_PUT);
+        DiskBasedCache.writeString(out, header.key);
+        DiskBasedCache.writeLong(out, header.size);
+        DiskBasedCache.writeInt(out, header.headerLength);
+        DiskBasedCache.writeString(out, header.etag == null ? "" : header.etag);
+        DiskBasedCache.writeLong(out, header.serverDate);
+        DiskBasedCache.writeLong(out, header.lastModified);
+        DiskBasedCache.writeLong(out, header.ttl);
+        DiskBasedCache.writeLong(out, header.softTtl);
+    }
+
+    /**
+     * 读取一条添加记录
+     */
+    private static CacheHeader readPut(InputStream in) throws IOException {
+        CacheHeader header = new CacheHeader();
+        header.key = readString(in);
+        header.size = DiskBasedCache.readLong(in);
+        header.headerLength = DiskBasedCache.readInt(in);
+        header.etag = readString(in);
+        if (header.etag.equals("")) {
+            header.etag = null;
+        }
+        header.serverDate = DiskBasedCache.readLong(in);
+        header.lastModified = DiskBasedCache.readLong(in);
+        header.ttl = DiskBasedCache.readLong(in);
+        header.softTtl = DiskBasedCache.readLong(in);
+        if (header.size < 0 || header.headerLength < 0) {
+            throw new IOException("Invalid journal entry for " + header.key);
+        }
+        return header;
+    }
+
+    /**
+     * 读取字符串，长度异常时认为日志已损坏
+     */
+    private static String readString(InputStream in) throws IOException {
+        long length = DiskBasedCache.readLong(in);
+        if (length < 0 || length > MAX_STRING_LENGTH) {
+            throw new IOException("Invalid journal string length " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        int pos = 0;
+        while (pos < bytes.length) {
+            int count = in.read(bytes, pos, bytes.length - pos);
+            if (count == -1) {
+                throw new EOFException();
+            }
+            pos += count;
+        }
+        return new String(bytes, "UTF-8");
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.android.volley.toolbox;
 
+import android.os.Process;
 import android.os.SystemClock;
 
 import com.android.volley.Cache;
@@ -23,6 +24,7 @@ import com.android.volley.VolleyLog;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
@@ -31,26 +33,80 @@ import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 缓存实现，缓存到磁盘上指定目录，默认缓存大小为5M，但可以配置
+ * <p>
+ * 线程安全：文件读写按照缓存Key分段加锁，不同Key的读写可以并行进行；
+ * 内存中的索引（淘汰顺序和总大小）由一把只在更新索引时短暂持有的锁保护。
+ * 默认按照LRU淘汰，可以通过 {@link CacheEvictionPolicy} 替换
  */
 public class DiskBasedCache implements Cache {
     /**
-     * LinkedHashMap实现的LRU算法，按照使用的顺序进行排序
+     * 缓存索引，访问时需要持有它自身的锁
      */
-    private final Map<String, CacheHeader> mEntries = new LinkedHashMap<>(16, .75f, true);
+    private final Map<String, CacheHeader> mEntries = new HashMap<>();
 
     /**
-     * 当前缓存的总大小，以字节为单位
+     * 淘汰策略，决定修剪时先删除哪些缓存，由 {@link #mEntries} 的锁保护
+     */
+    private final CacheEvictionPolicy mEvictionPolicy;
+
+    /**
+     * 当前缓存的总大小，以字节为单位，由 {@link #mEntries} 的锁保护
      */
     private long mTotalSize = 0;
 
+    /**
+     * 后台初始化是否已经完成，完成之前索引中可能还缺少一部分缓存
+     */
+    private volatile boolean mInitialized = false;
+
+    /**
+     * 初始化期间被添加、移除过的缓存Key，初始化加载的旧数据不能覆盖它们，初始化完成后置为null，由 {@link #mEntries} 的锁保护
+     */
+    private Set<String> mTouchedKeys = new HashSet<>();
+
+    /**
+     * 清空缓存的次数，初始化期间发现缓存被清空，则放弃加载，由 {@link #mEntries} 的锁保护
+     */
+    private int mClearCount = 0;
+
+    /**
+     * 分段锁的数量
+     */
+    private static final int LOCK_STRIPES = 32;
+
+    /**
+     * 分段锁，同一个缓存文件的读写，总是使用同一把锁
+     */
+    private final ReentrantLock[] mLocks = new ReentrantLock[LOCK_STRIPES];
+
+    /**
+     * 索引日志，启动时重放它来恢复索引，不需要逐个解析缓存文件
+     */
+    private final CacheJournal mJournal;
+
+    /**
+     * 是否已经有日志压缩任务在后台执行
+     */
+    private final AtomicBoolean mCompactionScheduled = new AtomicBoolean(false);
+
     /**
      * 缓存的根目录
      */
@@ -76,6 +132,53 @@ public class DiskBasedCache implements Cache {
      */
     private static final int CACHE_MAGIC = 0x20150306;
 
+    /**
+     * 带有编码信息的缓存文件格式，头部在Magic number之后多了数据的编码方式和原始长度，
+     * 没有编码的缓存仍然使用 {@link #CACHE_MAGIC}
+     */
+    private static final int CACHE_MAGIC_V2 = 0x20261018;
+
+    /**
+     * 数据没有编码
+     */
+    static final int CODEC_NONE = 0;
+
+    /**
+     * 数据使用Deflater压缩
+     */
+    static final int CODEC_DEFLATE = 1;
+
+    /**
+     * 读取缓存时，第一次批量读取的字节数，足够容纳绝大多数缓存的头部
+     */
+    private static final int HEADER_READ_BYTES = 8 * 1024;
+
+    /**
+     * 缓存文件大于等于该大小时，使用内存映射的方式读取
+     */
+    private static final int MMAP_THRESHOLD_BYTES = 64 * 1024;
+
+    /**
+     * 写入缓存时临时文件的后缀，写入完成后才重命名为缓存文件，之前遗留的临时文件在初始化时删除
+     */
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    /**
+     * 本次打开缓存的标识，包含在临时文件名中，初始化时只删除之前遗留的临时文件，不会删除正在写入的临时文件
+     */
+    private final String mSessionId =
+            "s" + Integer.toString(new Random().nextInt(Integer.MAX_VALUE), 36);
+
+    /**
+     * 压缩工具，第一次压缩或解压时创建
+     */
+    private volatile CacheCompressor mCompressor;
+
+    /**
+     * 数据大于等于该大小，并且内容是文本时才压缩，小于0则不压缩
+     */
+    private volatile int mCompressionThreshold = -1;
+
     /**
      * 构造方法，在指定目录下创建缓存，并指定最大缓存大小
      *
@@ -83,8 +186,25 @@ public class DiskBasedCache implements Cache {
      * @param maxCacheSizeInBytes 最大缓存容量
      */
     public DiskBasedCache(File rootDirectory, int maxCacheSizeInBytes) {
+        this(rootDirectory, maxCacheSizeInBytes, new LruEvictionPolicy());
+    }
+
+    /**
+     * 构造方法，在指定目录下创建缓存，并指定最大缓存大小和淘汰策略
+     *
+     * @param rootDirectory       缓存根目录
+     * @param maxCacheSizeInBytes 最大缓存容量
+     * @param evictionPolicy      淘汰策略，例如 {@link SegmentedLruEvictionPolicy}
+     */
+    public DiskBasedCache(File rootDirectory, int maxCacheSizeInBytes,
+                          CacheEvictionPolicy evictionPolicy) {
         mRootDirectory = rootDirectory;
         mMaxCacheSizeInBytes = maxCacheSizeInBytes;
+        mEvictionPolicy = evictionPolicy;
+        mJournal = new CacheJournal(rootDirectory);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            mLocks[i] = new ReentrantLock();
+        }
     }
 
     /**
@@ -96,95 +216,312 @@ public class DiskBasedCache implements Cache {
         this(rootDirectory, DEFAULT_DISK_USAGE_BYTES);
     }
 
+    /**
+     * 开启压缩，数据大于等于指定大小、并且Content-Type是文本、JSON、XML等可以压缩的类型时，压缩后再写入磁盘，
+     * 缓存容量按照压缩后的大小计算。传入小于0的值则关闭压缩，已经压缩的缓存仍然可以读取
+     *
+     * @param thresholdBytes 压缩的最小数据大小
+     */
+    public void setCompressionThreshold(int thresholdBytes) {
+        mCompressionThreshold = thresholdBytes;
+    }
+
     /**
      * 清除磁盘上的所有缓存
      */
     @Override
-    public synchronized void clear() {
-        File[] files = mRootDirectory.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                file.delete();
+    public void clear() {
+        lockAll();
+        try {
+            mJournal.reset();
+            File[] files = mRootDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            synchronized (mEntries) {
+                mEntries.clear();
+                mEvictionPolicy.clear();
+                mTotalSize = 0;
+                //缓存目录已经清空，索引就是完整的，正在进行的初始化会放弃加载
+                mClearCount++;
+                mTouchedKeys = null;
+                mInitialized = true;
             }
+            VolleyLog.d("Cache cleared.");
+        } finally {
+            unlockAll();
         }
-        mEntries.clear();
-        mTotalSize = 0;
-        VolleyLog.d("Cache cleared.");
     }
 
     /**
      * 查询缓存
      */
     @Override
-    public synchronized Entry get(String key) {
+    public Entry get(String key) {
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            return getLocked(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 查询缓存，调用方需要持有该Key的分段锁
+     */
+    private Entry getLocked(String key) {
         //通过缓存Key查询缓存
-        CacheHeader entry = mEntries.get(key);
-        //没有查找到，返回null
-        if (entry == null) {
-            return null;
+        CacheHeader entry;
+        synchronized (mEntries) {
+            entry = mEntries.get(key);
+            if (entry != null) {
+                mEvictionPolicy.onAccess(key);
+            }
         }
-        //查找到了，从磁盘上获取文件对象
+        //从磁盘上获取文件对象
         File file = getFileForKey(key);
-        CountingInputStream cis = null;
+        //没有查找到，返回null，初始化期间该缓存可能还没有加载到索引中，文件存在时直接读取
+        if (entry == null && (mInitialized || !file.exists())) {
+            return null;
+        }
+        FileInputStream fis = null;
         try {
-            cis = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
-            CacheHeader.readHeader(cis); // eat header
-            byte[] data = streamToBytes(cis, (int) (file.length() - cis.bytesRead));
+            fis = new FileInputStream(file);
+            FileChannel channel = fis.getChannel();
+            long length = channel.size();
+            ByteBuffer buffer;
+            if (length >= MMAP_THRESHOLD_BYTES) {
+                //大文件直接映射到内存，头部和数据都从映射区读取，数据只拷贝一次
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            } else {
+                //小文件一次性全部读出；否则只批量读取头部，日志中记录了头部长度时，数据可以直接读取到最终的数组中
+                int readBytes = length <= HEADER_READ_BYTES || entry == null || entry.headerLength <= 0
+                        ? HEADER_READ_BYTES : entry.headerLength;
+                buffer = ByteBuffer.allocate((int) Math.min(length, readBytes));
+                readFully(channel, buffer, 0);
+                buffer.flip();
+            }
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            CacheHeader header;
+            try {
+                header = CacheHeader.readHeader(buffer);
+            } catch (BufferUnderflowException e) {
+                if (buffer.capacity() >= length) {
+                    throw new IOException("Truncated cache header");
+                }
+                //头部比预读的长度还大，读取整个文件后重新解析
+                buffer = ByteBuffer.allocate((int) length);
+                readFully(channel, buffer, 0);
+                buffer.flip();
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                header = CacheHeader.readHeader(buffer);
+            }
+            int headerLength = buffer.position();
+            //文件名是缓存Key的哈希，如果文件已经被其他Key覆盖，则认为没有命中
+            if (!key.equals(header.key)) {
+                VolleyLog.d("%s: key=%s, found=%s", file.getAbsolutePath(), key, header.key);
+                if (removeEntry(key)) {
+                    mJournal.writeRemove(key);
+                }
+                return null;
+            }
+            //数据直接读取到最终的数组中，已经预读到的部分从缓冲区拷贝
+            byte[] data = new byte[(int) (length - buffer.position())];
+            int buffered = buffer.remaining();
+            buffer.get(data, 0, buffered);
+            if (buffered < data.length) {
+                readFully(channel, ByteBuffer.wrap(data, buffered, data.length - buffered),
+                        length - (data.length - buffered));
+            }
+            if (header.codec == CODEC_DEFLATE) {
+                data = getCompressor().decompress(data, header.dataLength);
+            }
+            Entry result = header.toCacheEntry(data);
+            if (entry == null) {
+                //初始化期间直接读取的缓存，补充到索引中
+                header.size = length;
+                header.headerLength = headerLength;
+                header.responseHeaders = null;
+                putEntry(key, header);
+            }
             //返回数据
-            return entry.toCacheEntry(data);
-        } catch (IOException e) {
+            return result;
+        } catch (IOException | BufferUnderflowException e) {
             VolleyLog.d("%s: %s", file.getAbsolutePath(), e.toString());
-            remove(key);
+            removeLocked(key);
             return null;
         } catch (NegativeArraySizeException e) {
             VolleyLog.d("%s: %s", file.getAbsolutePath(), e.toString());
-            remove(key);
+            removeLocked(key);
             return null;
         } finally {
-            if (cis != null) {
+            if (fis != null) {
                 try {
-                    cis.close();
-                } catch (IOException ioe) {
-                    return null;
+                    fis.close();
+                } catch (IOException ignored) {
                 }
             }
         }
     }
 
     /**
-     * 初始化缓存目录，并扫描该目录下的缓存文件到内存中
+     * 初始化缓存目录，优先重放索引日志，日志不存在或已损坏时，才扫描该目录下的缓存文件到内存中
+     * <p>
+     * 初始化不会阻塞缓存的读写，加载的缓存逐个合并到索引中，初始化期间被添加、移除过的缓存以最新的操作为准
      */
     @Override
-    public synchronized void initialize() {
+    public void initialize() {
+        int clearCount;
+        synchronized (mEntries) {
+            if (mInitialized) {
+                return;
+            }
+            clearCount = mClearCount;
+        }
         if (!mRootDirectory.exists()) {
             if (!mRootDirectory.mkdirs()) {
                 VolleyLog.e("Unable to create cache dir %s", mRootDirectory.getAbsolutePath());
             }
+            rebuildJournal();
+            finishInitialization(clearCount);
             return;
         }
 
+        //删除之前写入过程中进程被杀遗留的临时文件
         File[] files = mRootDirectory.listFiles();
+        deleteStaleTempFiles(files);
+
+        //重放索引日志
+        Map<String, CacheHeader> journaled = mJournal.read();
+        if (journaled != null) {
+            for (CacheHeader entry : journaled.values()) {
+                if (!mergeEntry(entry, clearCount)) {
+                    return;
+                }
+            }
+            finishInitialization(clearCount);
+            return;
+        }
+
+        //日志不存在或已损坏，全量扫描缓存目录，然后重建日志
         if (files == null) {
+            finishInitialization(clearCount);
             return;
         }
+        //无法解析的文件可能正在被写入，扫描结束后持有所有分段锁再确认一次
+        List<File> unreadable = new ArrayList<>();
         for (File file : files) {
-            BufferedInputStream fis = null;
+            if (mJournal.isJournalFile(file) || file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                continue;
+            }
+            CacheHeader entry = readHeaderFromFile(file);
+            if (entry == null) {
+                unreadable.add(file);
+            } else if (!mergeEntry(entry, clearCount)) {
+                return;
+            }
+        }
+        if (!unreadable.isEmpty()) {
+            lockAll();
             try {
-                fis = new BufferedInputStream(new FileInputStream(file));
-                CacheHeader entry = CacheHeader.readHeader(fis);
-                entry.size = file.length();
-                putEntry(entry.key, entry);
-            } catch (IOException e) {
-                if (file != null) {
-                    file.delete();
+                for (File file : unreadable) {
+                    synchronized (mEntries) {
+                        if (mClearCount != clearCount) {
+                            return;
+                        }
+                    }
+                    if (file.exists()) {
+                        CacheHeader entry = readHeaderFromFile(file);
+                        if (entry == null) {
+                            file.delete();
+                        } else if (!mergeEntry(entry, clearCount)) {
+                            return;
+                        }
+                    }
                 }
             } finally {
-                try {
-                    if (fis != null) {
-                        fis.close();
-                    }
-                } catch (IOException ignored) {
+                unlockAll();
+            }
+        }
+        rebuildJournal();
+        finishInitialization(clearCount);
+    }
+
+    /**
+     * 删除之前遗留的临时文件，本次打开缓存后创建的临时文件可能正在写入，会被跳过
+     */
+    private void deleteStaleTempFiles(File[] files) {
+        if (files == null) {
+            return;
+        }
+        String session = "-" + mSessionId + "-";
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_FILE_SUFFIX) && !name.contains(session)
+                    && !mJournal.isJournalFile(file) && !file.delete()) {
+                VolleyLog.d("Could not delete stale temp file %s", file.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * 从缓存文件中读取头部，用于建立索引，读取失败返回null
+     */
+    private static CacheHeader readHeaderFromFile(File file) {
+        CountingInputStream fis = null;
+        try {
+            fis = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+            CacheHeader entry = CacheHeader.readHeader(fis);
+            entry.size = file.length();
+            entry.headerLength = fis.bytesRead;
+            //索引中不需要保存响应头，读取缓存时会从文件中重新解析
+            entry.responseHeaders = null;
+            return entry;
+        } catch (IOException | NegativeArraySizeException e) {
+            return null;
+        } finally {
+            try {
+                if (fis != null) {
+                    fis.close();
                 }
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 把初始化加载的缓存合并到索引中，索引中已经存在、或初始化期间被添加、移除过的缓存会被跳过
+     *
+     * @param clearCount 初始化开始时的清空次数
+     * @return 初始化期间缓存被清空，需要放弃加载时，返回false
+     */
+    private boolean mergeEntry(CacheHeader entry, int clearCount) {
+        synchronized (mEntries) {
+            if (mClearCount != clearCount) {
+                return false;
+            }
+            if (!mTouchedKeys.contains(entry.key) && !mEntries.containsKey(entry.key)) {
+                mEntries.put(entry.key, entry);
+                mEvictionPolicy.onPut(entry.key, entry.size);
+                mTotalSize += entry.size;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 标记初始化完成
+     *
+     * @param clearCount 初始化开始时的清空次数
+     */
+    private void finishInitialization(int clearCount) {
+        synchronized (mEntries) {
+            if (mClearCount == clearCount) {
+                mTouchedKeys = null;
+                mInitialized = true;
             }
         }
     }
@@ -196,14 +533,20 @@ public class DiskBasedCache implements Cache {
      * @param fullExpire True to fully expire the entry, false to soft expire
      */
     @Override
-    public synchronized void invalidate(String key, boolean fullExpire) {
-        Entry entry = get(key);
-        if (entry != null) {
-            entry.softTtl = 0;
-            if (fullExpire) {
-                entry.ttl = 0;
+    public void invalidate(String key, boolean fullExpire) {
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            Entry entry = getLocked(key);
+            if (entry != null) {
+                entry.softTtl = 0;
+                if (fullExpire) {
+                    entry.ttl = 0;
+                }
+                putLocked(key, entry);
             }
-            put(key, entry);
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -211,47 +554,355 @@ public class DiskBasedCache implements Cache {
      * 添加或更新缓存
      */
     @Override
-    public synchronized void put(String key, Entry entry) {
+    public void put(String key, Entry entry) {
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            putLocked(key, entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 添加或更新缓存，调用方需要持有该Key的分段锁
+     */
+    private void putLocked(String key, Entry entry) {
+        CacheHeader e = new CacheHeader(key, entry);
+        //先压缩，按照实际写入的大小修剪容量
+        PoolingByteArrayOutputStream compressed = compressIfNeeded(entry);
+        int bodyLength = entry.data.length;
+        if (compressed != null) {
+            e.codec = CODEC_DEFLATE;
+            e.dataLength = entry.data.length;
+            bodyLength = compressed.size();
+        }
         //检查容量是否合理，不合理则删除
-        pruneIfNeeded(entry.data.length);
-        //获取缓存的文件
+        pruneIfNeeded(bodyLength);
+        //获取缓存的文件，先完整地写入临时文件，再替换原有的缓存文件，读取方不会读到写了一半的文件
         File file = getFileForKey(key);
+        File tmpFile = null;
+        BufferedOutputStream fos = null;
         try {
-            BufferedOutputStream fos = new BufferedOutputStream(new FileOutputStream(file));
-            CacheHeader e = new CacheHeader(key, entry);
-            boolean success = e.writeHeader(fos);
+            tmpFile = createTempFile(key);
+            fos = new BufferedOutputStream(new FileOutputStream(tmpFile));
+            //先把头部写入内存，记录头部的长度，读取时可以直接定位到数据
+            ByteArrayOutputStream header = new ByteArrayOutputStream(256);
+            boolean success = e.writeHeader(header);
             if (!success) {
-                fos.close();
                 VolleyLog.d("Failed to write header for %s", file.getAbsolutePath());
                 throw new IOException();
             }
-            fos.write(entry.data);
+            header.writeTo(fos);
+            if (compressed != null) {
+                compressed.writeTo(fos);
+            } else {
+                fos.write(entry.data);
+            }
             fos.close();
-            //缓存数据
+            fos = null;
+            e.headerLength = header.size();
+            e.size = e.headerLength + bodyLength;
+            //索引中不需要保存响应头，读取缓存时会从文件中重新解析
+            e.responseHeaders = null;
+            //先记录到日志，再替换缓存文件，进程在两步之间被杀时，日志中的缓存只会是旧文件或者找不到文件，
+            //不会出现日志不知道的缓存文件
             putEntry(key, e);
+            mJournal.writePut(e);
+            if (!tmpFile.renameTo(file)) {
+                VolleyLog.d("Could not rename %s", tmpFile.getAbsolutePath());
+                tmpFile.delete();
+                removeLocked(key);
+                return;
+            }
+            compactJournalIfNeeded();
             return;
-        } catch (IOException e) {
+        } catch (IOException ex) {
+            if (fos != null) {
+                try {
+                    fos.close();
+                } catch (IOException ignored) {
+                }
+            }
+        } finally {
+            if (compressed != null) {
+                try {
+                    compressed.close();
+                } catch (IOException ignored) {
+                }
+            }
         }
-        //缓存失败，则删除数据
-        boolean deleted = file.delete();
-        if (!deleted) {
-            VolleyLog.d("Could not clean up file %s", file.getAbsolutePath());
+        //缓存失败，删除临时文件，原有的缓存文件没有被改动
+        if (tmpFile != null && !tmpFile.delete()) {
+            VolleyLog.d("Could not clean up file %s", tmpFile.getAbsolutePath());
         }
     }
 
+    /**
+     * 在缓存目录中为该Key创建一个临时文件，写入完成后再重命名为缓存文件
+     */
+    private File createTempFile(String key) throws IOException {
+        return File.createTempFile(getFilenameForKey(key) + "-" + mSessionId + "-", TEMP_FILE_SUFFIX,
+                mRootDirectory);
+    }
+
+    /**
+     * 数据需要压缩时返回压缩后的数据，否则返回null
+     */
+    private PoolingByteArrayOutputStream compressIfNeeded(Entry entry) {
+        int threshold = mCompressionThreshold;
+        if (threshold < 0 || entry.data.length < threshold
+                || !CacheCompressor.isCompressible(entry.responseHeaders)) {
+            return null;
+        }
+        return getCompressor().compress(entry.data);
+    }
+
+    private CacheCompressor getCompressor() {
+        CacheCompressor compressor = mCompressor;
+        if (compressor == null) {
+            synchronized (this) {
+                compressor = mCompressor;
+                if (compressor == null) {
+                    compressor = new CacheCompressor();
+                    mCompressor = compressor;
+                }
+            }
+        }
+        return compressor;
+    }
+
     /**
      * Removes the specified key from the cache if it exists.
      */
     @Override
-    public synchronized void remove(String key) {
+    public void remove(String key) {
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            removeLocked(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 以流的方式写入一个缓存，数据不需要完整地保存在内存中
+     * <p>
+     * 头部先写入一个临时文件，数据通过 {@link Editor#write(byte[], int, int)} 追加，
+     * 调用 {@link Editor#commit()} 后才会替换原有的缓存，失败时需要调用 {@link Editor#abort()}
+     *
+     * @param key   缓存Key
+     * @param entry 缓存的元数据，其中的 {@link Entry#data} 会被忽略
+     */
+    public Editor edit(String key, Entry entry) throws IOException {
+        CacheHeader header = new CacheHeader(key, entry);
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream(256);
+        if (!header.writeHeader(headerBytes)) {
+            throw new IOException("Failed to write header for " + key);
+        }
+        if (!mRootDirectory.exists() && !mRootDirectory.mkdirs()) {
+            throw new IOException("Unable to create cache dir " + mRootDirectory);
+        }
+        File tmpFile = createTempFile(key);
+        header.headerLength = headerBytes.size();
+        header.responseHeaders = null;
+        Editor editor = new Editor(header, tmpFile);
+        try {
+            headerBytes.writeTo(editor.mOutput);
+        } catch (IOException e) {
+            editor.abort();
+            throw e;
+        }
+        return editor;
+    }
+
+    /**
+     * 以流的方式写入的缓存，见 {@link #edit(String, Entry)}
+     */
+    public class Editor {
+        private final CacheHeader mHeader;
+        private final File mTmpFile;
+        private final OutputStream mOutput;
+
+        /**
+         * 已经写入的数据长度
+         */
+        private long mBodyLength;
+
+        /**
+         * 是否已经提交或放弃
+         */
+        private boolean mDone;
+
+        private Editor(CacheHeader header, File tmpFile) throws IOException {
+            mHeader = header;
+            mTmpFile = tmpFile;
+            mOutput = new BufferedOutputStream(new FileOutputStream(tmpFile));
+        }
+
+        /**
+         * 追加数据，超过缓存的最大容量时，该缓存会被自动放弃
+         */
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            if (mDone) {
+                return;
+            }
+            mBodyLength += count;
+            if (mHeader.headerLength + mBodyLength > mMaxCacheSizeInBytes) {
+                VolleyLog.d("Streamed entry too large to cache: %s", mHeader.key);
+                abort();
+                return;
+            }
+            try {
+                mOutput.write(buffer, offset, count);
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+        }
+
+        /**
+         * 提交缓存，替换该Key原有的缓存
+         *
+         * @return 是否提交成功
+         */
+        public boolean commit() {
+            if (mDone) {
+                return false;
+            }
+            mDone = true;
+            try {
+                mOutput.close();
+            } catch (IOException e) {
+                mTmpFile.delete();
+                return false;
+            }
+            String key = mHeader.key;
+            mHeader.size = mHeader.headerLength + mBodyLength;
+            ReentrantLock lock = lockFor(key);
+            lock.lock();
+            try {
+                pruneIfNeeded((int) mBodyLength);
+                //和put一样，先记录到日志，再替换缓存文件
+                putEntry(key, mHeader);
+                mJournal.writePut(mHeader);
+                if (!mTmpFile.renameTo(getFileForKey(key))) {
+                    VolleyLog.d("Could not rename %s", mTmpFile.getAbsolutePath());
+                    mTmpFile.delete();
+                    removeLocked(key);
+                    return false;
+                }
+            } finally {
+                lock.unlock();
+            }
+            compactJournalIfNeeded();
+            return true;
+        }
+
+        /**
+         * 放弃写入，删除临时文件，该Key原有的缓存不受影响
+         */
+        public void abort() {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            try {
+                mOutput.close();
+            } catch (IOException ignored) {
+            }
+            mTmpFile.delete();
+        }
+    }
+
+    /**
+     * 移除缓存，调用方需要持有该Key的分段锁
+     */
+    private void removeLocked(String key) {
         boolean deleted = getFileForKey(key).delete();
-        removeEntry(key);
+        //初始化期间该缓存可能还不在索引中，但文件存在，同样需要记录到日志
+        if (removeEntry(key) || deleted) {
+            mJournal.writeRemove(key);
+            compactJournalIfNeeded();
+        }
         if (!deleted) {
             VolleyLog.d("Could not delete cache entry for key=%s, filename=%s",
                     key, getFilenameForKey(key));
         }
     }
 
+    /**
+     * 日志中的冗余记录过多时，在后台线程中根据当前索引重写日志
+     */
+    private void compactJournalIfNeeded() {
+        int liveEntries;
+        synchronized (mEntries) {
+            liveEntries = mEntries.size();
+        }
+        if (!mJournal.needsCompaction(liveEntries)
+                || !mCompactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        new Thread("VolleyCacheJournal") {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    rebuildJournal();
+                } finally {
+                    mCompactionScheduled.set(false);
+                }
+            }
+        }.start();
+    }
+
+    /**
+     * 根据当前索引重写日志，持有日志的锁来获取索引的快照，保证快照之后的修改都会追加到新的日志中
+     */
+    private void rebuildJournal() {
+        synchronized (mJournal) {
+            List<CacheHeader> snapshot;
+            synchronized (mEntries) {
+                //按照淘汰顺序写入，重放日志后恢复原来的顺序
+                snapshot = new ArrayList<>(mEntries.size());
+                Iterator<String> iterator = mEvictionPolicy.evictionOrder();
+                while (iterator.hasNext()) {
+                    CacheHeader entry = mEntries.get(iterator.next());
+                    if (entry != null) {
+                        snapshot.add(entry);
+                    }
+                }
+            }
+            mJournal.rebuild(snapshot);
+        }
+    }
+
+    /**
+     * 获取缓存Key对应的分段锁，按照文件名选择，文件名相同的Key（哈希冲突）共用同一个锁，读写同一个文件时不会交错
+     */
+    private ReentrantLock lockFor(String key) {
+        return mLocks[(getFilenameForKey(key).hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+    }
+
+    /**
+     * 按顺序获取所有分段锁，用于需要独占整个缓存目录的操作
+     */
+    private void lockAll() {
+        for (ReentrantLock lock : mLocks) {
+            lock.lock();
+        }
+    }
+
+    /**
+     * 释放所有分段锁
+     */
+    private void unlockAll() {
+        for (int i = mLocks.length - 1; i >= 0; i--) {
+            mLocks[i].unlock();
+        }
+    }
+
     /**
      * Creates a pseudo-unique filename for the specified cache key.
      *
@@ -278,44 +929,76 @@ public class DiskBasedCache implements Cache {
      * @param neededSpace 准备要添加的缓存容量大小
      */
     private void pruneIfNeeded(int neededSpace) {
-        //当前容量 + 准备要添加的缓存容量，如果小于最大值，则还没有满容量，不做修剪
-        if ((mTotalSize + neededSpace) < mMaxCacheSizeInBytes) {
-            return;
-        }
-        if (VolleyLog.DEBUG) {
-            VolleyLog.v("Pruning old cache entries.");
-        }
-
-        long before = mTotalSize;
-        int prunedFiles = 0;
+        long before;
+        //被选中删除的缓存，以及它们对应的分段锁，删除文件时仍然持有，避免和该Key的读写交错
+        List<CacheHeader> victims = new ArrayList<>();
+        List<ReentrantLock> victimLocks = new ArrayList<>();
         long startTime = SystemClock.elapsedRealtime();
+        synchronized (mEntries) {
+            //当前容量 + 准备要添加的缓存容量，如果小于最大值，则还没有满容量，不做修剪
+            if ((mTotalSize + neededSpace) < mMaxCacheSizeInBytes) {
+                return;
+            }
+            if (VolleyLog.DEBUG) {
+                VolleyLog.v("Pruning old cache entries.");
+            }
+            before = mTotalSize;
+
+            Iterator<String> iterator = mEvictionPolicy.evictionOrder();
+            //按照淘汰策略给出的顺序挑选要删除的数据，遍历期间不能修改淘汰策略，挑选完再统一移除
+            long remaining = mTotalSize;
+            while (iterator.hasNext()) {
+                CacheHeader e = mEntries.get(iterator.next());
+                if (e == null) {
+                    continue;
+                }
+                //该Key正在被其他线程读写，跳过它，只尝试加锁，避免和持有分段锁的线程死锁
+                ReentrantLock lock = lockFor(e.key);
+                if (!lock.tryLock()) {
+                    continue;
+                }
+                remaining -= e.size;
+                victims.add(e);
+                victimLocks.add(lock);
 
-        Iterator<Map.Entry<String, CacheHeader>> iterator = mEntries.entrySet().iterator();
-        //遍历LinkedHashMap，删掉头部数据
-        while (iterator.hasNext()) {
-            Map.Entry<String, CacheHeader> entry = iterator.next();
-            CacheHeader e = entry.getValue();
-            //删除缓存
-            boolean deleted = getFileForKey(e.key).delete();
-            if (deleted) {
-                //删除成功，更新缓存容量
+                //修剪完成，跳出循环
+                if ((remaining + neededSpace) < mMaxCacheSizeInBytes * HYSTERESIS_FACTOR) {
+                    break;
+                }
+            }
+            for (CacheHeader e : victims) {
+                mEntries.remove(e.key);
+                mEvictionPolicy.onRemove(e.key);
                 mTotalSize -= e.size;
-            } else {
-                VolleyLog.d("Could not delete cache entry for key=%s, filename=%s",
-                        e.key, getFilenameForKey(e.key));
+                touchKeyLocked(e.key);
             }
-            iterator.remove();
-            prunedFiles++;
+        }
 
-            //修剪完成，跳出循环
-            if ((mTotalSize + neededSpace) < mMaxCacheSizeInBytes * HYSTERESIS_FACTOR) {
-                break;
+        //在索引锁之外删除文件
+        for (int i = 0; i < victims.size(); i++) {
+            CacheHeader e = victims.get(i);
+            try {
+                if (!getFileForKey(e.key).delete()) {
+                    VolleyLog.d("Could not delete cache entry for key=%s, filename=%s",
+                            e.key, getFilenameForKey(e.key));
+                }
+                mJournal.writeRemove(e.key);
+            } finally {
+                victimLocks.get(i).unlock();
             }
         }
 
+        if (!victims.isEmpty()) {
+            compactJournalIfNeeded();
+        }
+
         if (VolleyLog.DEBUG) {
+            long after;
+            synchronized (mEntries) {
+                after = mTotalSize;
+            }
             VolleyLog.v("pruned %d files, %d bytes, %d ms",
-                    prunedFiles, (mTotalSize - before), SystemClock.elapsedRealtime() - startTime);
+                    victims.size(), (after - before), SystemClock.elapsedRealtime() - startTime);
         }
     }
 
@@ -323,23 +1006,42 @@ public class DiskBasedCache implements Cache {
      * 添加一个缓存
      */
     private void putEntry(String key, CacheHeader entry) {
-        if (!mEntries.containsKey(key)) {
-            mTotalSize += entry.size;
-        } else {
-            CacheHeader oldEntry = mEntries.get(key);
-            mTotalSize += (entry.size - oldEntry.size);
+        synchronized (mEntries) {
+            touchKeyLocked(key);
+            CacheHeader oldEntry = mEntries.put(key, entry);
+            mEvictionPolicy.onPut(key, entry.size);
+            if (oldEntry == null) {
+                mTotalSize += entry.size;
+            } else {
+                mTotalSize += (entry.size - oldEntry.size);
+            }
         }
-        mEntries.put(key, entry);
     }
 
     /**
      * 移除一个缓存
+     *
+     * @return 索引中是否存在该缓存
      */
-    private void removeEntry(String key) {
-        CacheHeader entry = mEntries.get(key);
-        if (entry != null) {
-            mTotalSize -= entry.size;
-            mEntries.remove(key);
+    private boolean removeEntry(String key) {
+        synchronized (mEntries) {
+            touchKeyLocked(key);
+            CacheHeader entry = mEntries.remove(key);
+            if (entry != null) {
+                mEvictionPolicy.onRemove(key);
+                mTotalSize -= entry.size;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 初始化期间，记录被添加、移除过的缓存Key，调用方需要持有 {@link #mEntries} 的锁
+     */
+    private void touchKeyLocked(String key) {
+        if (mTouchedKeys != null) {
+            mTouchedKeys.add(key);
         }
     }
 
@@ -370,6 +1072,11 @@ public class DiskBasedCache implements Cache {
          */
         public long size;
 
+        /**
+         * 头部在文件中占用的字节数，也就是数据的起始位置，为0则代表未知（不会序列化到缓存文件中，只记录在日志里）
+         */
+        public int headerLength;
+
         /**
          * The key that identifies the cache entry.
          */
@@ -405,7 +1112,17 @@ public class DiskBasedCache implements Cache {
          */
         public Map<String, String> responseHeaders;
 
-        private CacheHeader() {
+        /**
+         * 数据的编码方式，见 {@link #CODEC_NONE}、{@link #CODEC_DEFLATE}（只记录在缓存文件中，不记录在日志里）
+         */
+        public int codec = CODEC_NONE;
+
+        /**
+         * 数据编码前的原始长度，没有编码时不使用，缓存文件中的数据长度是编码后的长度
+         */
+        public int dataLength;
+
+        CacheHeader() {
         }
 
         /**
@@ -416,7 +1133,7 @@ public class DiskBasedCache implements Cache {
          */
         public CacheHeader(String key, Entry entry) {
             this.key = key;
-            this.size = entry.data.length;
+            this.size = entry.data == null ? 0 : entry.data.length;
             this.etag = entry.etag;
             this.serverDate = entry.serverDate;
             this.lastModified = entry.lastModified;
@@ -434,7 +1151,11 @@ public class DiskBasedCache implements Cache {
         public static CacheHeader readHeader(InputStream is) throws IOException {
             CacheHeader entry = new CacheHeader();
             int magic = readInt(is);
-            if (magic != CACHE_MAGIC) {
+            if (magic == CACHE_MAGIC_V2) {
+                entry.codec = readInt(is);
+                entry.dataLength = readInt(is);
+                checkCodec(entry);
+            } else if (magic != CACHE_MAGIC) {
                 // don't bother deleting, it'll get pruned eventually
                 throw new IOException();
             }
@@ -452,6 +1173,49 @@ public class DiskBasedCache implements Cache {
             return entry;
         }
 
+        /**
+         * 从ByteBuffer中读取头部，读取完成后，ByteBuffer的位置为数据的起始位置
+         *
+         * @param buffer 小端序的缓冲区
+         * @throws BufferUnderflowException 缓冲区中的数据不足一个完整的头部
+         */
+        public static CacheHeader readHeader(ByteBuffer buffer) throws IOException {
+            CacheHeader entry = new CacheHeader();
+            int magic = buffer.getInt();
+            if (magic == CACHE_MAGIC_V2) {
+                entry.codec = buffer.getInt();
+                entry.dataLength = buffer.getInt();
+                checkCodec(entry);
+            } else if (magic != CACHE_MAGIC) {
+                // don't bother deleting, it'll get pruned eventually
+                throw new IOException();
+            }
+            entry.key = readString(buffer);
+            entry.etag = readString(buffer);
+            if (entry.etag.equals("")) {
+                entry.etag = null;
+            }
+            entry.serverDate = buffer.getLong();
+            entry.lastModified = buffer.getLong();
+            entry.ttl = buffer.getLong();
+            entry.softTtl = buffer.getLong();
+            entry.responseHeaders = readStringStringMap(buffer);
+
+            return entry;
+        }
+
+        /**
+         * 检查编码信息，不认识的编码方式当作损坏的缓存
+         */
+        private static void checkCodec(CacheHeader entry) throws IOException {
+            if (entry.codec != CODEC_NONE && entry.codec != CODEC_DEFLATE) {
+                throw new IOException("Unknown cache codec " + entry.codec);
+            }
+            if (entry.dataLength < 0) {
+                throw new IOException("Invalid cache data length " + entry.dataLength);
+            }
+        }
+
         /**
          * Creates a cache entry for the specified data.
          */
@@ -473,7 +1237,13 @@ public class DiskBasedCache implements Cache {
          */
         public boolean writeHeader(OutputStream os) {
             try {
-                writeInt(os, CACHE_MAGIC);
+                if (codec == CODEC_NONE) {
+                    writeInt(os, CACHE_MAGIC);
+                } else {
+                    writeInt(os, CACHE_MAGIC_V2);
+                    writeInt(os, codec);
+                    writeInt(os, dataLength);
+                }
                 writeString(os, key);
                 writeString(os, etag == null ? "" : etag);
                 writeLong(os, serverDate);
@@ -517,6 +1287,20 @@ public class DiskBasedCache implements Cache {
         }
     }
 
+    /**
+     * 从文件的指定位置开始，把缓冲区读满
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+            if (count == -1) {
+                throw new EOFException();
+            }
+            position += count;
+        }
+    }
+
     /*
      * Homebrewed simple serialization system used for reading and writing cache
      * headers on disk. Once upon a time, this used the standard Java
@@ -588,6 +1372,27 @@ public class DiskBasedCache implements Cache {
         return new String(b, "UTF-8");
     }
 
+    static String readString(ByteBuffer buffer) throws IOException {
+        long n = buffer.getLong();
+        if (n < 0 || n > Integer.MAX_VALUE) {
+            throw new IOException("Invalid string length " + n);
+        }
+        if (n > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String s;
+        if (buffer.hasArray()) {
+            s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), (int) n,
+                    "UTF-8");
+            buffer.position(buffer.position() + (int) n);
+        } else {
+            byte[] b = new byte[(int) n];
+            buffer.get(b);
+            s = new String(b, "UTF-8");
+        }
+        return s;
+    }
+
     static void writeStringStringMap(Map<String, String> map, OutputStream os) throws IOException {
         if (map != null) {
             writeInt(os, map.size());
@@ -612,4 +1417,20 @@ public class DiskBasedCache implements Cache {
         }
         return result;
     }
+
+    static Map<String, String> readStringStringMap(ByteBuffer buffer) throws IOException {
+        int size = buffer.getInt();
+        if (size < 0) {
+            throw new IOException("Invalid header count " + size);
+        }
+        Map<String, String> result = (size == 0)
+                ? Collections.<String, String>emptyMap()
+                : new HashMap<String, String>(size);
+        for (int i = 0; i < size; i++) {
+            String key = readString(buffer).intern();
+            String value = readString(buffer).intern();
+            result.put(key, value);
+        }
+        return result;
+    }
 }
@@ -0,0 +1,413 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import android.os.SystemClock;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Response.ErrorListener;
+import com.android.volley.Response.Listener;
+import com.android.volley.VolleyError;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 下载文件的请求，响应体直接写入目标文件，不会完整地保存在内存中
+ * <p>
+ * 下载过程中先写入 {@code 目标文件.part}，完成后再重命名为目标文件。读取响应流中途失败时，按照重试策略重新请求，
+ * 并通过Range请求头从已下载的位置继续，重试用完后保留未完成的文件，下次请求同一个目标文件时同样会继续。
+ * 写入本地文件失败不会重试，直接回调错误。
+ * 第一次响应的ETag或Last-Modified保存在 {@code 目标文件.part.validator} 中，继续下载时通过If-Range发送，
+ * 服务端的文件已经变化时会返回完整的文件，重新下载。该请求不会被缓存
+ */
+public class FileDownloadRequest extends StreamingRequest<File> {
+    /**
+     * 未完成的下载文件的后缀
+     */
+    private static final String PARTIAL_FILE_SUFFIX = ".part";
+
+    /**
+     * 保存校验信息（ETag或Last-Modified）的文件的后缀
+     */
+    private static final String VALIDATOR_FILE_SUFFIX = ".part.validator";
+
+    /**
+     * Range超出文件范围的状态码，未完成的文件其实已经下载完整时返回
+     */
+    private static final int SC_REQUESTED_RANGE_NOT_SATISFIABLE = 416;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 写入文件的缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * 回调下载进度的最小间隔
+     */
+    private static final long PROGRESS_INTERVAL_MS = 100;
+
+    /**
+     * 默认的重试次数，每次重试都会从中断的位置继续下载
+     */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    /**
+     * 下载进度的监听器
+     */
+    public interface ProgressListener {
+        /**
+         * 在回调响应的线程中回调下载进度，一般为主线程
+         *
+         * @param downloaded 已下载的字节数
+         * @param total      文件的总字节数，未知时为-1
+         */
+        void onProgress(long downloaded, long total);
+    }
+
+    /**
+     * 下载的目标文件
+     */
+    private final File mTargetFile;
+
+    /**
+     * 未完成的下载文件
+     */
+    private final File mPartialFile;
+
+    /**
+     * 未完成的下载文件对应的校验信息
+     */
+    private final File mValidatorFile;
+
+    private ProgressListener mProgressListener;
+    private Listener<File> mListener;
+
+    /**
+     * 上一次回调进度的时间
+     */
+    private long mLastProgressTime;
+
+    /**
+     * 创建一个下载文件的GET请求
+     *
+     * @param url              URL
+     * @param targetFile       下载的目标文件，已存在时会被覆盖
+     * @param progressListener 下载进度的监听器，可以为null
+     * @param listener         下载完成的监听器，回调目标文件
+     * @param errorListener    错误监听器
+     */
+    public FileDownloadRequest(String url, File targetFile, ProgressListener progressListener,
+                               Listener<File> listener, ErrorListener errorListener) {
+        super(Method.GET, url, errorListener);
+        mTargetFile = targetFile;
+        mPartialFile = new File(targetFile.getPath() + PARTIAL_FILE_SUFFIX);
+        mValidatorFile = new File(targetFile.getPath() + VALIDATOR_FILE_SUFFIX);
+        mProgressListener = progressListener;
+        mListener = listener;
+        setShouldCache(false);
+        setRetryPolicy(new DefaultRetryPolicy(DefaultRetryPolicy.DEFAULT_TIMEOUT_MS,
+                DEFAULT_MAX_RETRIES, DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
+    }
+
+    @Override
+    public Map<String, String> getHeaders() throws AuthFailureError {
+        //已经下载了一部分，并且有校验信息，从中断的位置继续，没有校验信息则无法确认文件没有变化，重新下载
+        long downloaded = mPartialFile.length();
+        String validator = downloaded > 0 ? readValidator() : null;
+        if (validator == null) {
+            return super.getHeaders();
+        }
+        Map<String, String> headers = new HashMap<>(super.getHeaders());
+        headers.put("Range", "bytes=" + downloaded + "-");
+        //服务端的文件已经变化时，忽略Range返回完整的文件
+        headers.put("If-Range", validator);
+        return headers;
+    }
+
+    /**
+     * 除了2xx，416也需要处理，未完成的文件可能已经下载完整，只是没有来得及重命名
+     */
+    @Override
+    protected boolean shouldStreamStatus(int statusCode) {
+        return super.shouldStreamStatus(statusCode)
+                || statusCode == SC_REQUESTED_RANGE_NOT_SATISFIABLE;
+    }
+
+    @Override
+    protected void onFinish() {
+        super.onFinish();
+        //请求结束，清理回调
+        mProgressListener = null;
+        mListener = null;
+    }
+
+    @Override
+    protected void deliverResponse(File response) {
+        if (mListener != null) {
+            mListener.onResponse(response);
+        }
+    }
+
+    /**
+     * 已下载的部分和服务端的文件对不上时，按照重试策略重新下载；写入本地文件失败（例如磁盘已满）重试也没有用，
+     * 直接结束请求，保留已下载的部分
+     */
+    @Override
+    protected VolleyError parseStreamError(IOException e) {
+        if (e instanceof RangeMismatchException) {
+            return null;
+        }
+        return new VolleyError("Unable to write " + mPartialFile, e);
+    }
+
+    @Override
+    protected File parseNetworkStream(NetworkResponse response, InputStream in)
+            throws IOException {
+        File parent = mPartialFile.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+        if (response.statusCode == SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+            //Range的起始位置就是文件的长度，说明已经下载完整
+            long[] range = parseContentRange(response.headers.get("Content-Range"));
+            long downloaded = mPartialFile.length();
+            if (range == null || range[1] < 0 || range[1] != downloaded) {
+                //已下载的部分和服务端的文件对不上，清空后重新下载
+                discardPartialFile();
+                throw new RangeMismatchException("Range not satisfiable for " + getUrl());
+            }
+            mLastProgressTime = 0;
+            postProgress(downloaded, downloaded, true);
+            return commitPartialFile();
+        }
+        RandomAccessFile file = new RandomAccessFile(mPartialFile, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            long position = 0;
+            long total = -1;
+            String contentLength = response.headers.get("Content-Length");
+            if (contentLength != null) {
+                total = parseLong(contentLength);
+            }
+            if (response.statusCode == 206) {
+                //服务端支持断点续传，从Content-Range的起始位置继续写入
+                long[] range = parseContentRange(response.headers.get("Content-Range"));
+                if (range == null || range[0] != channel.size()) {
+                    //起始位置和已下载的部分对不上，清空后重新下载
+                    channel.truncate(0);
+                    throw new RangeMismatchException("Unexpected Content-Range for " + getUrl());
+                }
+                position = range[0];
+                total = range[1];
+            } else {
+                //服务端不支持断点续传、文件已经变化，或者这是第一次请求，从头开始写入，并保存新的校验信息
+                channel.truncate(0);
+                writeValidator(getValidator(response.headers));
+            }
+            mLastProgressTime = 0;
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                if (isCanceled()) {
+                    throw new IOException("Request canceled while downloading");
+                }
+                byteBuffer.clear();
+                byteBuffer.limit(count);
+                while (byteBuffer.hasRemaining()) {
+                    position += channel.write(byteBuffer, position);
+                }
+                postProgress(position, total, false);
+            }
+            postProgress(position, total, true);
+        } finally {
+            file.close();
+        }
+        return commitPartialFile();
+    }
+
+    /**
+     * 已下载的部分和服务端返回的范围对不上，已经清空未完成的文件，需要重新请求
+     */
+    private static class RangeMismatchException extends IOException {
+        RangeMismatchException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 下载完成，把未完成的文件重命名为目标文件，并删除校验信息
+     */
+    private File commitPartialFile() throws IOException {
+        if (mTargetFile.exists() && !mTargetFile.delete()) {
+            throw new IOException("Unable to replace " + mTargetFile);
+        }
+        if (!mPartialFile.renameTo(mTargetFile)) {
+            throw new IOException("Unable to rename " + mPartialFile);
+        }
+        mValidatorFile.delete();
+        return mTargetFile;
+    }
+
+    /**
+     * 删除未完成的文件和校验信息，下次从头开始下载
+     */
+    private void discardPartialFile() {
+        mPartialFile.delete();
+        mValidatorFile.delete();
+    }
+
+    /**
+     * 从响应头中获取可以用于If-Range的校验信息，优先使用强ETag，弱ETag不能用于If-Range，没有则返回null
+     */
+    private static String getValidator(Map<String, String> headers) {
+        String etag = headers.get("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return headers.get("Last-Modified");
+    }
+
+    /**
+     * 读取保存的校验信息，没有或者读取失败时返回null
+     */
+    private String readValidator() {
+        if (!mValidatorFile.exists()) {
+            return null;
+        }
+        InputStream in = null;
+        try {
+            in = new FileInputStream(mValidatorFile);
+            byte[] data = new byte[(int) mValidatorFile.length()];
+            int count = 0;
+            while (count < data.length) {
+                int read = in.read(data, count, data.length - count);
+                if (read == -1) {
+                    return null;
+                }
+                count += read;
+            }
+            String validator = new String(data, UTF_8).trim();
+            return validator.isEmpty() ? null : validator;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * 保存校验信息，为null则删除已有的校验信息，之后的重试只能重新下载
+     */
+    private void writeValidator(String validator) throws IOException {
+        if (validator == null) {
+            mValidatorFile.delete();
+            return;
+        }
+        OutputStream out = new FileOutputStream(mValidatorFile);
+        try {
+            out.write(validator.getBytes(UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        if (in == null) {
+            return;
+        }
+        try {
+            in.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * 在回调响应的线程中回调下载进度，间隔太短的回调会被忽略
+     *
+     * @param force 是否忽略间隔，强制回调
+     */
+    private void postProgress(final long downloaded, final long total, boolean force) {
+        if (mProgressListener == null) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (!force && now - mLastProgressTime < PROGRESS_INTERVAL_MS) {
+            return;
+        }
+        mLastProgressTime = now;
+        postOnDelivery(new Runnable() {
+            @Override
+            public void run() {
+                if (!isCanceled() && mProgressListener != null) {
+                    mProgressListener.onProgress(downloaded, total);
+                }
+            }
+        });
+    }
+
+    /**
+     * 解析 {@code Content-Range: bytes start-end/total} 或者416响应中的 {@code bytes *}{@code /total}，
+     * 返回起始位置和总长度，没有起始位置或者总长度未知时为-1
+     */
+    private static long[] parseContentRange(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return null;
+        }
+        int slash = contentRange.indexOf('/');
+        if (slash < 0) {
+            return null;
+        }
+        String range = contentRange.substring(6, slash).trim();
+        long start;
+        if ("*".equals(range)) {
+            start = -1;
+        } else {
+            int dash = range.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            start = parseLong(range.substring(0, dash));
+        }
+        String total = contentRange.substring(slash + 1).trim();
+        return new long[]{start, "*".equals(total) ? -1 : parseLong(total)};
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -33,12 +33,17 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpTrace;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.AbstractHttpEntity;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
@@ -169,10 +174,50 @@ public class HttpClientStack implements HttpStack {
      */
     private static void setEntityIfNonEmptyBody(HttpEntityEnclosingRequestBase httpRequest,
                                                 Request<?> request) throws AuthFailureError {
-        byte[] body = request.getBody();
+        Request.BodyWriter body = request.getBodyWriter();
         if (body != null) {
-            HttpEntity entity = new ByteArrayEntity(body);
-            httpRequest.setEntity(entity);
+            httpRequest.setEntity(new BodyWriterEntity(body));
+        }
+    }
+
+    /**
+     * 通过 {@link Request.BodyWriter} 写出请求体的HttpEntity，长度未知时使用分块传输
+     */
+    private static class BodyWriterEntity extends AbstractHttpEntity {
+        private final Request.BodyWriter mBody;
+
+        BodyWriterEntity(Request.BodyWriter body) {
+            mBody = body;
+            setChunked(body.getContentLength() < 0);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return mBody.getContentLength();
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            //一般不会被调用，HttpClient通过writeTo写出请求体
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            mBody.writeTo(out);
+            return new ByteArrayInputStream(out.toByteArray());
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            mBody.writeTo(out);
+            out.flush();
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
         }
     }
 
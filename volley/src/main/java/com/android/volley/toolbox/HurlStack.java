@@ -34,6 +34,7 @@ import org.apache.http.message.BasicStatusLine;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.HashMap;
@@ -53,6 +54,12 @@ public class HurlStack implements HttpStack {
      */
     private static final String HEADER_CONTENT_TYPE = "Content-Type";
 
+    /**
+     * 请求体大于等于该大小、或者长度未知时，才使用流模式直接写入连接。较小的请求体仍由HttpURLConnection缓存，
+     * 遇到重定向、认证或者复用的连接已经失效时，HttpURLConnection还可以自动重发请求体
+     */
+    static final long STREAMING_THRESHOLD_BYTES = 64 * 1024;
+
     /**
      * URL转换接口
      */
@@ -267,16 +274,28 @@ public class HurlStack implements HttpStack {
 
     /***
      * 设置请求体，如果有的话
+     * <p>
+     * 请求体较大或长度未知时，使用固定长度或分块的流模式，请求体直接写入连接，HttpURLConnection不会再缓存一份完整的请求体，
+     * 见 {@link #STREAMING_THRESHOLD_BYTES}
      */
     private static void addBodyIfExists(HttpURLConnection connection, Request<?> request)
             throws IOException, AuthFailureError {
-        byte[] body = request.getBody();
+        Request.BodyWriter body = request.getBodyWriter();
         if (body != null) {
             connection.setDoOutput(true);
             connection.addRequestProperty(HEADER_CONTENT_TYPE, request.getBodyContentType());
-            DataOutputStream out = new DataOutputStream(connection.getOutputStream());
-            out.write(body);
-            out.close();
+            long contentLength = body.getContentLength();
+            if (contentLength < 0) {
+                connection.setChunkedStreamingMode(0);
+            } else if (contentLength >= STREAMING_THRESHOLD_BYTES) {
+                connection.setFixedLengthStreamingMode(contentLength);
+            }
+            OutputStream out = connection.getOutputStream();
+            try {
+                body.writeTo(out);
+            } finally {
+                out.close();
+            }
         }
     }
 }
@@ -120,6 +120,17 @@ public class ImageRequest extends Request<Bitmap> {
         return Priority.LOW;
     }
 
+    @Override
+    protected boolean isResponseShareableWith(Request<?> other) {
+        if (!super.isResponseShareableWith(other)) {
+            return false;
+        }
+        //解码的尺寸和配置都相同，才能共享同一个Bitmap
+        ImageRequest request = (ImageRequest) other;
+        return mMaxWidth == request.mMaxWidth && mMaxHeight == request.mMaxHeight
+                && mScaleType == request.mScaleType && mDecodeConfig == request.mDecodeConfig;
+    }
+
     /**
      * Scales one side of a rectangle to fit aspect ratio.
      *
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * LRU淘汰策略，最久没有使用的缓存最先被淘汰，{@link DiskBasedCache} 默认使用该策略
+ */
+public class LruEvictionPolicy implements CacheEvictionPolicy {
+    /**
+     * 按照使用的顺序排序，值没有用到
+     */
+    private final LinkedHashMap<String, Boolean> mKeys = new LinkedHashMap<>(16, .75f, true);
+
+    @Override
+    public void onPut(String key, long size) {
+        mKeys.put(key, Boolean.TRUE);
+    }
+
+    @Override
+    public void onAccess(String key) {
+        mKeys.get(key);
+    }
+
+    @Override
+    public void onRemove(String key) {
+        mKeys.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        mKeys.clear();
+    }
+
+    @Override
+    public Iterator<String> evictionOrder() {
+        return mKeys.keySet().iterator();
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * 分段LRU淘汰策略，可以抵抗一次性的大量访问（例如滑动一个很长的图片列表）
+ * <p>
+ * 新的缓存先进入试用段，再次被访问后才晋升到保护段，淘汰时先淘汰试用段，再淘汰保护段。
+ * 保护段的大小不超过总大小的一定比例，超出时保护段中最久没有使用的缓存降级回试用段。
+ * 大于晋升上限的缓存（通常是图片）一直留在试用段，避免少量大缓存把大量常用的小缓存挤出保护段
+ */
+public class SegmentedLruEvictionPolicy implements CacheEvictionPolicy {
+    /**
+     * 默认保护段占总大小的比例
+     */
+    private static final float DEFAULT_PROTECTED_RATIO = 0.8f;
+
+    /**
+     * 默认允许晋升到保护段的最大缓存大小
+     */
+    private static final long DEFAULT_MAX_PROMOTABLE_BYTES = 256 * 1024;
+
+    /**
+     * 试用段，按照使用的顺序排序，值为缓存大小
+     */
+    private final LinkedHashMap<String, Long> mProbation = new LinkedHashMap<>(16, .75f, true);
+
+    /**
+     * 保护段，按照使用的顺序排序，值为缓存大小
+     */
+    private final LinkedHashMap<String, Long> mProtected = new LinkedHashMap<>(16, .75f, true);
+
+    private final float mProtectedRatio;
+    private final long mMaxPromotableBytes;
+
+    private long mProbationBytes;
+    private long mProtectedBytes;
+
+    /**
+     * @param protectedRatio     保护段占总大小的比例，取值范围(0, 1)
+     * @param maxPromotableBytes 允许晋升到保护段的最大缓存大小
+     */
+    public SegmentedLruEvictionPolicy(float protectedRatio, long maxPromotableBytes) {
+        if (protectedRatio <= 0 || protectedRatio >= 1) {
+            throw new IllegalArgumentException("protectedRatio must be in (0, 1)");
+        }
+        mProtectedRatio = protectedRatio;
+        mMaxPromotableBytes = maxPromotableBytes;
+    }
+
+    public SegmentedLruEvictionPolicy() {
+        this(DEFAULT_PROTECTED_RATIO, DEFAULT_MAX_PROMOTABLE_BYTES);
+    }
+
+    @Override
+    public void onPut(String key, long size) {
+        Long old = mProtected.get(key);
+        if (old != null) {
+            mProtected.put(key, size);
+            mProtectedBytes += size - old;
+            demoteIfNeeded();
+            return;
+        }
+        old = mProbation.remove(key);
+        if (old != null) {
+            //已经存在的缓存被重新写入，说明它还在被使用，和命中一样处理
+            mProbationBytes -= old;
+            admit(key, size);
+            return;
+        }
+        mProbation.put(key, size);
+        mProbationBytes += size;
+    }
+
+    @Override
+    public void onAccess(String key) {
+        if (mProtected.get(key) != null) {
+            return;
+        }
+        Long size = mProbation.remove(key);
+        if (size != null) {
+            mProbationBytes -= size;
+            admit(key, size);
+        }
+    }
+
+    @Override
+    public void onRemove(String key) {
+        Long size = mProbation.remove(key);
+        if (size != null) {
+            mProbationBytes -= size;
+            return;
+        }
+        size = mProtected.remove(key);
+        if (size != null) {
+            mProtectedBytes -= size;
+        }
+    }
+
+    @Override
+    public void clear() {
+        mProbation.clear();
+        mProtected.clear();
+        mProbationBytes = 0;
+        mProtectedBytes = 0;
+    }
+
+    @Override
+    public Iterator<String> evictionOrder() {
+        final Iterator<String> probation = mProbation.keySet().iterator();
+        final Iterator<String> protect = mProtected.keySet().iterator();
+        return new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return probation.hasNext() || protect.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if (probation.hasNext()) {
+                    return probation.next();
+                }
+                if (protect.hasNext()) {
+                    return protect.next();
+                }
+                throw new NoSuchElementException();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * 试用段中再次被使用的缓存，不超过晋升上限则晋升到保护段，否则重新放到试用段的末尾
+     */
+    private void admit(String key, long size) {
+        if (size > mMaxPromotableBytes) {
+            mProbation.put(key, size);
+            mProbationBytes += size;
+            return;
+        }
+        mProtected.put(key, size);
+        mProtectedBytes += size;
+        demoteIfNeeded();
+    }
+
+    /**
+     * 保护段超过比例时，把最久没有使用的缓存降级回试用段
+     */
+    private void demoteIfNeeded() {
+        long maxProtectedBytes = (long) ((mProbationBytes + mProtectedBytes) * mProtectedRatio);
+        Iterator<Map.Entry<String, Long>> iterator = mProtected.entrySet().iterator();
+        //至少保留一个，刚晋升的缓存不会马上被降级
+        while (mProtectedBytes > maxProtectedBytes && mProtected.size() > 1) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            mProtectedBytes -= eldest.getValue();
+            mProbation.put(eldest.getKey(), eldest.getValue());
+            mProbationBytes += eldest.getValue();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Response.ErrorListener;
+import com.android.volley.Response.Listener;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * 流式解析 JSONArray 的请求，数组中的元素每解析出一个，就在回调响应的线程中回调一次，不需要等待整个数组下载完成
+ * <p>
+ * 元素的类型为 {@link JSONObject}、{@link JSONArray}、{@link String}、{@link Long}、{@link Double}、
+ * {@link Boolean} 或 {@link JSONObject#NULL}，全部元素回调完成后，再回调元素的总数
+ */
+public class StreamingJsonArrayRequest extends StreamingRequest<Integer> {
+    /**
+     * 默认字符集
+     */
+    private static final String PROTOCOL_CHARSET = "utf-8";
+
+    /**
+     * 数组元素的监听器
+     */
+    public interface ElementListener {
+        /**
+         * 在回调响应的线程中回调（一般为主线程），解析出了一个元素
+         */
+        void onElement(Object element);
+    }
+
+    private ElementListener mElementListener;
+    private Listener<Integer> mListener;
+
+    /**
+     * 已经回调的元素数量，响应流中途失败重试时，跳过这些元素，只在网络线程中访问
+     */
+    private int mDeliveredCount;
+
+    /**
+     * 创建一个流式解析 JSONArray 的请求
+     *
+     * @param method          请求方法 {@link Method}
+     * @param url             URL
+     * @param elementListener 数组元素的监听器
+     * @param listener        全部元素回调完成的监听器，回调元素的总数
+     * @param errorListener   错误监听器
+     */
+    public StreamingJsonArrayRequest(int method, String url, ElementListener elementListener,
+                                     Listener<Integer> listener, ErrorListener errorListener) {
+        super(method, url, errorListener);
+        mElementListener = elementListener;
+        mListener = listener;
+    }
+
+    /**
+     * 创建一个流式解析 JSONArray 的GET请求
+     */
+    public StreamingJsonArrayRequest(String url, ElementListener elementListener,
+                                     Listener<Integer> listener, ErrorListener errorListener) {
+        this(Method.GET, url, elementListener, listener, errorListener);
+    }
+
+    @Override
+    protected void onFinish() {
+        super.onFinish();
+        //请求结束，清理回调
+        mElementListener = null;
+        mListener = null;
+    }
+
+    @Override
+    protected void deliverResponse(Integer response) {
+        if (mListener != null) {
+            mListener.onResponse(response);
+        }
+    }
+
+    @Override
+    protected Integer parseNetworkStream(NetworkResponse response, InputStream in)
+            throws IOException, ParseError {
+        //重试时跳过已经回调过的元素，否则从头开始计数
+        int skip = isStreamRetry() ? mDeliveredCount : 0;
+        mDeliveredCount = skip;
+        String charset = HttpHeaderParser.parseCharset(response.headers, PROTOCOL_CHARSET);
+        JsonReader reader = new JsonReader(new InputStreamReader(in, charset));
+        try {
+            int index = 0;
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (isCanceled()) {
+                    throw new IOException("Request canceled while streaming");
+                }
+                Object element = readValue(reader);
+                if (index >= skip) {
+                    postElement(element);
+                    mDeliveredCount = index + 1;
+                }
+                index++;
+            }
+            reader.endArray();
+            return index;
+        } catch (MalformedJsonException | JSONException | IllegalStateException
+                | NumberFormatException e) {
+            throw new ParseError(e);
+        }
+    }
+
+    /**
+     * 在回调响应的线程中回调一个元素，和最终的响应保持先后顺序
+     */
+    private void postElement(final Object element) {
+        postOnDelivery(new Runnable() {
+            @Override
+            public void run() {
+                if (!isCanceled() && mElementListener != null) {
+                    mElementListener.onElement(element);
+                }
+            }
+        });
+    }
+
+    /**
+     * 读取一个JSON值
+     */
+    private static Object readValue(JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                JSONObject object = new JSONObject();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    object.put(reader.nextName(), readValue(reader));
+                }
+                reader.endObject();
+                return object;
+            case BEGIN_ARRAY:
+                JSONArray array = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    array.put(readValue(reader));
+                }
+                reader.endArray();
+                return array;
+            case STRING:
+                return reader.nextString();
+            case NUMBER:
+                String number = reader.nextString();
+                try {
+                    return Long.parseLong(number);
+                } catch (NumberFormatException e) {
+                    return Double.parseDouble(number);
+                }
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                throw new IllegalStateException("Unexpected token " + reader.peek());
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.Cache;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.Response.ErrorListener;
+import com.android.volley.VolleyError;
+import com.android.volley.VolleyLog;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 流式解析响应的请求，响应体不需要完整地读取到内存中
+ * <p>
+ * 使用 {@link BasicNetwork} 时，2xx的响应会在网络线程中直接把响应流交给 {@link #parseNetworkStream(NetworkResponse, InputStream)}，
+ * 需要缓存时，读取的数据会同时写入 {@link DiskBasedCache}。命中缓存或服务端返回304时，数据已经在内存中，同样通过该方法解析
+ */
+public abstract class StreamingRequest<T> extends Request<T> {
+    /**
+     * 读取剩余数据时使用的缓冲区大小
+     */
+    private static final int DRAIN_BUFFER_SIZE = 4096;
+
+    /**
+     * 请求所在队列的缓存
+     */
+    private Cache mCache;
+
+    /**
+     * 网络线程中流式解析的结果，交给 {@link #parseNetworkResponse(NetworkResponse)} 返回
+     */
+    private Response<T> mStreamedResponse;
+
+    /**
+     * 是否有开始读取但还没有完成的响应流
+     */
+    private boolean mStreamStarted;
+
+    /**
+     * 当前的响应流是否是重试，之前的响应流已经读取了一部分
+     */
+    private boolean mStreamRetry;
+
+    public StreamingRequest(int method, String url, ErrorListener listener) {
+        super(method, url, listener);
+    }
+
+    @Override
+    public Request<?> setRequestQueue(RequestQueue requestQueue) {
+        mCache = requestQueue == null ? null : requestQueue.getCache();
+        return super.setRequestQueue(requestQueue);
+    }
+
+    /**
+     * 解析响应流，流式读取时在网络线程中回调
+     *
+     * @param response 响应的状态码和响应头，流式读取时其中的 {@link NetworkResponse#data} 为空
+     * @param in       响应流，不需要关闭
+     * @throws IOException 读取响应流失败时，会按照重试策略重试；其他原因（例如解析失败、写入本地文件失败）
+     *                     抛出的IOException交给 {@link #parseStreamError(IOException)} 处理
+     * @throws ParseError  响应的内容不合法
+     */
+    protected abstract T parseNetworkStream(NetworkResponse response, InputStream in)
+            throws IOException, ParseError;
+
+    /**
+     * 该状态码的响应是否交给 {@link #parseNetworkStream(NetworkResponse, InputStream)} 流式解析，默认只有2xx，
+     * 其他状态码按照错误处理
+     */
+    protected boolean shouldStreamStatus(int statusCode) {
+        return statusCode >= 200 && statusCode <= 299;
+    }
+
+    /**
+     * 流式解析时抛出了IOException，但不是读取响应流失败导致的（例如 {@code MalformedJsonException}），
+     * 返回请求最终的错误，返回null则按照重试策略重新请求。默认以 {@link ParseError} 结束请求，不重试
+     */
+    protected VolleyError parseStreamError(IOException e) {
+        return new ParseError(e);
+    }
+
+    /**
+     * 解析缓存头，返回null则不缓存该响应
+     */
+    protected Cache.Entry parseCacheHeaders(NetworkResponse response) {
+        return HttpHeaderParser.parseCacheHeaders(response);
+    }
+
+    /**
+     * 流式解析时可能有额外的回调（例如逐个回调元素），不能共享解析结果，需要各自解析
+     */
+    @Override
+    protected boolean isResponseShareableWith(Request<?> other) {
+        return false;
+    }
+
+    /**
+     * 当前解析的响应流是否是重试，之前的响应流已经读取了一部分，只在 {@link #parseNetworkStream(NetworkResponse, InputStream)} 中有效
+     */
+    protected final boolean isStreamRetry() {
+        return mStreamRetry;
+    }
+
+    @Override
+    protected final Response<T> parseNetworkResponse(NetworkResponse response) {
+        Response<T> streamed = mStreamedResponse;
+        if (streamed != null) {
+            mStreamedResponse = null;
+            return streamed;
+        }
+        //命中缓存或304，数据已经在内存中
+        mStreamRetry = false;
+        try {
+            T result = parseNetworkStream(response, new ByteArrayInputStream(response.data));
+            return Response.success(result, parseCacheHeaders(response));
+        } catch (ParseError e) {
+            return Response.error(e);
+        } catch (IOException e) {
+            return Response.error(new ParseError(e));
+        }
+    }
+
+    /**
+     * 在网络线程中流式解析响应，需要缓存时同时写入磁盘缓存，由 {@link BasicNetwork} 调用
+     *
+     * @param response 响应的状态码和响应头
+     * @param in       响应流
+     */
+    void consumeStream(NetworkResponse response, InputStream in) throws IOException {
+        mStreamRetry = mStreamStarted;
+        mStreamStarted = true;
+        mStreamedResponse = null;
+
+        DiskBasedCache.Editor editor = null;
+        DiskBasedCache diskCache = getDiskCache();
+        if (shouldCache() && diskCache != null) {
+            Cache.Entry entry = parseCacheHeaders(response);
+            if (entry != null) {
+                try {
+                    editor = diskCache.edit(getCacheKey(), entry);
+                } catch (IOException e) {
+                    VolleyLog.d("Unable to cache streamed response: %s", e.toString());
+                }
+            }
+        }
+
+        //只有读取响应流失败才是网络错误，可以重试，其他异常都是解析或本地的错误
+        NetworkInputStream network = new NetworkInputStream(in);
+        InputStream stream = editor == null ? network : new TeeInputStream(network, editor);
+        boolean success = false;
+        try {
+            Response<T> parsed;
+            try {
+                parsed = Response.success(parseNetworkStream(response, stream), null);
+            } catch (ParseError e) {
+                parsed = Response.error(e);
+            } catch (IOException e) {
+                if (network.mFailed || isCanceled()) {
+                    throw e;
+                }
+                VolleyError error = parseStreamError(e);
+                if (error == null) {
+                    throw e;
+                }
+                addMarker("network-stream-parse-error");
+                parsed = Response.error(error);
+            }
+            if (parsed.isSuccess() && editor != null) {
+                //读取剩余的数据，保证缓存的内容完整
+                byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+                while (stream.read(buffer) != -1) {
+                    //nothing
+                }
+            }
+            mStreamedResponse = parsed;
+            mStreamStarted = false;
+            success = parsed.isSuccess();
+        } finally {
+            if (editor != null) {
+                if (success && !isCanceled() && editor.commit()) {
+                    //内存缓存中的旧数据已经过时
+                    if (mCache instanceof TieredCache) {
+                        ((TieredCache) mCache).evictFromMemory(getCacheKey());
+                    }
+                    addMarker("network-cache-written");
+                } else {
+                    editor.abort();
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取可以流式写入的磁盘缓存，两级缓存、延迟写入的缓存则取它们的下一级缓存，没有则返回null
+     */
+    private DiskBasedCache getDiskCache() {
+        Cache cache = mCache;
+        while (true) {
+            if (cache instanceof TieredCache) {
+                cache = ((TieredCache) cache).getBackingCache();
+            } else if (cache instanceof WriteBehindCache) {
+                cache = ((WriteBehindCache) cache).getBackingCache();
+            } else {
+                break;
+            }
+        }
+        return cache instanceof DiskBasedCache ? (DiskBasedCache) cache : null;
+    }
+
+    /**
+     * 记录读取响应流是否失败，用来区分网络错误和解析错误
+     */
+    private static class NetworkInputStream extends FilterInputStream {
+        private boolean mFailed;
+
+        NetworkInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                mFailed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            try {
+                return super.read(buffer, offset, count);
+            } catch (IOException e) {
+                mFailed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            try {
+                return super.skip(n);
+            } catch (IOException e) {
+                mFailed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            try {
+                return super.available();
+            } catch (IOException e) {
+                mFailed = true;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 读取数据的同时写入缓存，写入缓存失败时放弃缓存，不影响读取
+     */
+    private static class TeeInputStream extends FilterInputStream {
+        private final DiskBasedCache.Editor mEditor;
+
+        TeeInputStream(InputStream in, DiskBasedCache.Editor editor) {
+            super(in);
+            mEditor = editor;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int count = read(single, 0, 1);
+            return count == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int result = super.read(buffer, offset, count);
+            if (result > 0) {
+                try {
+                    mEditor.write(buffer, offset, result);
+                } catch (IOException e) {
+                    //Editor已经放弃了这次写入，之后的数据不会再写入
+                    VolleyLog.d("Unable to cache streamed response: %s", e.toString());
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            //跳过的数据也需要写入缓存
+            byte[] buffer = new byte[(int) Math.min(n, DRAIN_BUFFER_SIZE)];
+            int count = read(buffer, 0, buffer.length);
+            return count == -1 ? 0 : count;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
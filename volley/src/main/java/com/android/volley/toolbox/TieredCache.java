@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.Cache;
+import com.android.volley.VolleyLog;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 两级缓存，在任意缓存（通常是 {@link DiskBasedCache}）前面加一层按字节数限制大小的内存LRU缓存
+ * <p>
+ * 写入和失效会同时作用于两级缓存，内存中保存的就是传入和返回的 {@link Entry} 对象，命中内存时不需要读文件，
+ * 因此返回的对象会被多个请求共享，不能修改。分别统计内存（L1）和下一级缓存（L2）的命中率
+ */
+public class TieredCache implements Cache {
+    /**
+     * 默认的内存缓存大小
+     */
+    private static final int DEFAULT_MEMORY_CACHE_BYTES = 1024 * 1024;
+
+    /**
+     * 估算的每个缓存的额外开销（缓存Key、响应头、对象头等）
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+    /**
+     * 下一级缓存
+     */
+    private final Cache mBackingCache;
+
+    /**
+     * 内存缓存，按访问顺序排序，访问时需要持有该对象的锁
+     */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, .75f, true);
+
+    /**
+     * 内存缓存允许的最大字节数
+     */
+    private final int mMaxBytes;
+
+    /**
+     * 单个缓存允许放入内存的最大字节数，避免一个大缓存把其他缓存都挤出去
+     */
+    private final int mMaxEntryBytes;
+
+    /**
+     * 内存缓存当前的字节数
+     */
+    private long mSize;
+
+    /**
+     * 内存缓存的修改次数，从下一级缓存读取期间有修改时，读到的缓存可能已经过时，不放入内存
+     */
+    private long mModCount;
+
+    private final AtomicLong mL1HitCount = new AtomicLong();
+    private final AtomicLong mL2HitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    /**
+     * @param backingCache 下一级缓存
+     * @param maxBytes     内存缓存允许的最大字节数
+     */
+    public TieredCache(Cache backingCache, int maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        mBackingCache = backingCache;
+        mMaxBytes = maxBytes;
+        mMaxEntryBytes = Math.max(1, maxBytes / 4);
+    }
+
+    /**
+     * 使用默认的内存缓存大小
+     */
+    public TieredCache(Cache backingCache) {
+        this(backingCache, DEFAULT_MEMORY_CACHE_BYTES);
+    }
+
+    @Override
+    public Entry get(String key) {
+        long modCount;
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(key);
+            if (entry != null) {
+                mL1HitCount.incrementAndGet();
+                return entry;
+            }
+            modCount = mModCount;
+        }
+        //内存中没有，从下一级缓存读取，读取期间不持有锁
+        Entry entry = mBackingCache.get(key);
+        if (entry == null) {
+            mMissCount.incrementAndGet();
+            return null;
+        }
+        mL2HitCount.incrementAndGet();
+        synchronized (mEntries) {
+            if (mModCount == modCount) {
+                putInMemory(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    @Override
+    public void put(String key, Entry entry) {
+        synchronized (mEntries) {
+            mModCount++;
+            putInMemory(key, entry);
+        }
+        mBackingCache.put(key, entry);
+    }
+
+    @Override
+    public void initialize() {
+        mBackingCache.initialize();
+    }
+
+    @Override
+    public void invalidate(String key, boolean fullExpire) {
+        synchronized (mEntries) {
+            mModCount++;
+            //和下一级缓存保持一致，替换为失效后的副本，原来的对象可能正在被其他请求使用
+            Entry entry = mEntries.get(key);
+            if (entry != null) {
+                Entry expired = new Entry();
+                expired.data = entry.data;
+                expired.etag = entry.etag;
+                expired.serverDate = entry.serverDate;
+                expired.lastModified = entry.lastModified;
+                expired.responseHeaders = entry.responseHeaders;
+                expired.softTtl = 0;
+                expired.ttl = fullExpire ? 0 : entry.ttl;
+                mEntries.put(key, expired);
+            }
+        }
+        mBackingCache.invalidate(key, fullExpire);
+    }
+
+    @Override
+    public void remove(String key) {
+        synchronized (mEntries) {
+            mModCount++;
+            removeFromMemory(key);
+        }
+        mBackingCache.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        synchronized (mEntries) {
+            mModCount++;
+            mEntries.clear();
+            mSize = 0;
+        }
+        mBackingCache.clear();
+    }
+
+    /**
+     * 只移除内存中的缓存，下一级缓存被直接写入时（例如流式写入）调用
+     */
+    void evictFromMemory(String key) {
+        synchronized (mEntries) {
+            mModCount++;
+            removeFromMemory(key);
+        }
+    }
+
+    /**
+     * 获取下一级缓存
+     */
+    public Cache getBackingCache() {
+        return mBackingCache;
+    }
+
+    /**
+     * 内存缓存当前的字节数
+     */
+    public long getMemorySize() {
+        synchronized (mEntries) {
+            return mSize;
+        }
+    }
+
+    /**
+     * 内存缓存的命中次数
+     */
+    public long getL1HitCount() {
+        return mL1HitCount.get();
+    }
+
+    /**
+     * 下一级缓存的命中次数
+     */
+    public long getL2HitCount() {
+        return mL2HitCount.get();
+    }
+
+    /**
+     * 两级缓存都没有命中的次数
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * 内存缓存的命中率，即命中内存的查询占全部查询的比例
+     */
+    public float getL1HitRatio() {
+        long l1 = mL1HitCount.get();
+        long total = l1 + mL2HitCount.get() + mMissCount.get();
+        return total == 0 ? 0 : (float) l1 / total;
+    }
+
+    /**
+     * 下一级缓存的命中率，即命中下一级缓存的查询占内存未命中的查询的比例
+     */
+    public float getL2HitRatio() {
+        long l2 = mL2HitCount.get();
+        long total = l2 + mMissCount.get();
+        return total == 0 ? 0 : (float) l2 / total;
+    }
+
+    /**
+     * 放入内存缓存，超过容量时按照LRU移除，需要持有 {@link #mEntries} 的锁
+     */
+    private void putInMemory(String key, Entry entry) {
+        removeFromMemory(key);
+        long size = sizeOf(key, entry);
+        if (size > mMaxEntryBytes) {
+            return;
+        }
+        mEntries.put(key, entry);
+        mSize += size;
+        if (mSize <= mMaxBytes) {
+            return;
+        }
+        int evicted = 0;
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mSize > mMaxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            mSize -= sizeOf(eldest.getKey(), eldest.getValue());
+            iterator.remove();
+            evicted++;
+        }
+        if (VolleyLog.DEBUG) {
+            VolleyLog.v("Memory cache evicted %d entries, size=%d", evicted, mSize);
+        }
+    }
+
+    /**
+     * 从内存缓存中移除，需要持有 {@link #mEntries} 的锁
+     */
+    private void removeFromMemory(String key) {
+        Entry removed = mEntries.remove(key);
+        if (removed != null) {
+            mSize -= sizeOf(key, removed);
+        }
+    }
+
+    /**
+     * 估算一个缓存占用的字节数
+     */
+    private static long sizeOf(String key, Entry entry) {
+        int dataLength = entry.data == null ? 0 : entry.data.length;
+        return (long) dataLength + key.length() * 2 + ENTRY_OVERHEAD_BYTES;
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import android.os.Process;
+
+import com.android.volley.Cache;
+import com.android.volley.VolleyLog;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 延迟写入的缓存，写入、失效和移除操作先放入内存中的待写队列，由后台线程按顺序写入下一级缓存
+ * <p>
+ * 网络线程写缓存时只需要入队，不需要等待磁盘写入和容量修剪。同一个Key还没有写入的操作会被合并，
+ * 只写入最新的一次；查询时优先返回待写队列中的数据。待写队列满了以后，丢弃最早的还没有写入的数据（相当于没有缓存该响应），
+ * 写入不会阻塞网络线程；失效和移除操作不能丢弃，队列中只有这两种操作时，等待后台线程腾出空间
+ */
+public class WriteBehindCache implements Cache {
+    /**
+     * 默认的待写队列容量
+     */
+    private static final int DEFAULT_MAX_PENDING_WRITES = 64;
+
+    /**
+     * 下一级缓存
+     */
+    private final Cache mBackingCache;
+
+    /**
+     * 待写队列，按照入队顺序写入，访问时需要持有该对象的锁
+     */
+    private final LinkedHashMap<String, PendingWrite> mPending = new LinkedHashMap<>();
+
+    /**
+     * 写入下一级缓存时持有，清空缓存时需要等待正在进行的写入完成
+     */
+    private final Object mWriteLock = new Object();
+
+    private final int mMaxPendingWrites;
+
+    /**
+     * 后台写入线程，第一次入队时启动，由 {@link #mPending} 的锁保护
+     */
+    private Thread mWriter;
+
+    /**
+     * 因为待写队列满了而丢弃的写入数量，由 {@link #mPending} 的锁保护
+     */
+    private long mDroppedWriteCount;
+
+    /**
+     * @param backingCache     下一级缓存
+     * @param maxPendingWrites 待写队列容量
+     */
+    public WriteBehindCache(Cache backingCache, int maxPendingWrites) {
+        if (maxPendingWrites < 1) {
+            throw new IllegalArgumentException("maxPendingWrites must be positive");
+        }
+        mBackingCache = backingCache;
+        mMaxPendingWrites = maxPendingWrites;
+    }
+
+    /**
+     * 使用默认的待写队列容量
+     */
+    public WriteBehindCache(Cache backingCache) {
+        this(backingCache, DEFAULT_MAX_PENDING_WRITES);
+    }
+
+    @Override
+    public Entry get(String key) {
+        PendingWrite pending;
+        synchronized (mPending) {
+            pending = mPending.get(key);
+            if (pending != null && pending.mType != PendingWrite.INVALIDATE) {
+                //还没有写入的数据，以待写队列为准
+                return pending.mEntry;
+            }
+        }
+        Entry entry = mBackingCache.get(key);
+        if (entry != null && pending != null) {
+            //失效还没有写入，返回失效后的副本，下一级缓存返回的对象可能是共享的
+            entry = copyOf(entry);
+            entry.softTtl = 0;
+            if (pending.mFullExpire) {
+                entry.ttl = 0;
+            }
+        }
+        return entry;
+    }
+
+    @Override
+    public void put(String key, Entry entry) {
+        enqueue(key, new PendingWrite(PendingWrite.PUT, entry, false));
+    }
+
+    @Override
+    public void initialize() {
+        mBackingCache.initialize();
+    }
+
+    @Override
+    public void invalidate(String key, boolean fullExpire) {
+        synchronized (mPending) {
+            PendingWrite pending = mPending.get(key);
+            if (pending != null && pending.mType == PendingWrite.REMOVE) {
+                return;
+            }
+            if (pending != null && pending.mType == PendingWrite.PUT) {
+                //还没有写入的数据，替换为失效后的数据，不修改原来的对象，它可能正在被写入
+                Entry entry = copyOf(pending.mEntry);
+                entry.softTtl = 0;
+                if (fullExpire) {
+                    entry.ttl = 0;
+                }
+                enqueue(key, new PendingWrite(PendingWrite.PUT, entry, false));
+                return;
+            }
+            if (pending != null && pending.mFullExpire) {
+                fullExpire = true;
+            }
+            enqueue(key, new PendingWrite(PendingWrite.INVALIDATE, null, fullExpire));
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        enqueue(key, new PendingWrite(PendingWrite.REMOVE, null, false));
+    }
+
+    @Override
+    public void clear() {
+        synchronized (mWriteLock) {
+            synchronized (mPending) {
+                mPending.clear();
+                mPending.notifyAll();
+            }
+            mBackingCache.clear();
+        }
+    }
+
+    /**
+     * 获取下一级缓存
+     */
+    public Cache getBackingCache() {
+        return mBackingCache;
+    }
+
+    /**
+     * 还没有写入下一级缓存的操作数量
+     */
+    public int getPendingCount() {
+        synchronized (mPending) {
+            return mPending.size();
+        }
+    }
+
+    /**
+     * 因为待写队列满了而丢弃的写入数量，持续增长说明磁盘写入跟不上，可以调大待写队列容量
+     */
+    public long getDroppedWriteCount() {
+        synchronized (mPending) {
+            return mDroppedWriteCount;
+        }
+    }
+
+    /**
+     * 等待待写队列中的操作全部写入下一级缓存
+     */
+    public void flush() throws InterruptedException {
+        synchronized (mPending) {
+            while (!mPending.isEmpty()) {
+                mPending.wait();
+            }
+        }
+    }
+
+    /**
+     * 放入待写队列，同一个Key还没有写入的操作会被替换。队列满了则丢弃最早的写入数据，没有可以丢弃的数据时，
+     * 写入数据直接放弃，失效和移除操作则等待
+     */
+    private void enqueue(String key, PendingWrite write) {
+        synchronized (mPending) {
+            boolean interrupted = false;
+            while (!mPending.containsKey(key) && mPending.size() >= mMaxPendingWrites) {
+                if (dropEldestPut()) {
+                    break;
+                }
+                if (write.mType == PendingWrite.PUT) {
+                    mDroppedWriteCount++;
+                    return;
+                }
+                try {
+                    mPending.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            //替换已有的Key不会改变它在队列中的位置
+            mPending.put(key, write);
+            mPending.notifyAll();
+            if (mWriter == null) {
+                mWriter = new Writer();
+                mWriter.start();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 丢弃待写队列中最早的写入数据，没有则返回false，需要持有 {@link #mPending} 的锁
+     */
+    private boolean dropEldestPut() {
+        Iterator<PendingWrite> iterator = mPending.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().mType == PendingWrite.PUT) {
+                iterator.remove();
+                mDroppedWriteCount++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Entry copyOf(Entry entry) {
+        Entry copy = new Entry();
+        copy.data = entry.data;
+        copy.etag = entry.etag;
+        copy.serverDate = entry.serverDate;
+        copy.lastModified = entry.lastModified;
+        copy.ttl = entry.ttl;
+        copy.softTtl = entry.softTtl;
+        copy.responseHeaders = entry.responseHeaders;
+        return copy;
+    }
+
+    /**
+     * 把操作写入下一级缓存
+     */
+    private void write(String key, PendingWrite write) {
+        switch (write.mType) {
+            case PendingWrite.PUT:
+                mBackingCache.put(key, write.mEntry);
+                break;
+            case PendingWrite.INVALIDATE:
+                mBackingCache.invalidate(key, write.mFullExpire);
+                break;
+            case PendingWrite.REMOVE:
+                mBackingCache.remove(key);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 一个还没有写入的操作
+     */
+    private static class PendingWrite {
+        static final int PUT = 0;
+        static final int INVALIDATE = 1;
+        static final int REMOVE = 2;
+
+        private final int mType;
+        private final Entry mEntry;
+        private final boolean mFullExpire;
+
+        PendingWrite(int type, Entry entry, boolean fullExpire) {
+            mType = type;
+            mEntry = entry;
+            mFullExpire = fullExpire;
+        }
+    }
+
+    /**
+     * 后台写入线程，按照入队顺序逐个写入，写入完成前操作一直留在队列中，查询时仍然可以命中
+     */
+    private class Writer extends Thread {
+        Writer() {
+            super("VolleyCacheWriter");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            while (true) {
+                String key;
+                PendingWrite write;
+                synchronized (mPending) {
+                    while (mPending.isEmpty()) {
+                        try {
+                            mPending.wait();
+                        } catch (InterruptedException e) {
+                            //不退出，待写的数据不能丢
+                        }
+                    }
+                    Map.Entry<String, PendingWrite> eldest = mPending.entrySet().iterator().next();
+                    key = eldest.getKey();
+                    write = eldest.getValue();
+                }
+                synchronized (mWriteLock) {
+                    synchronized (mPending) {
+                        //等待写锁期间缓存被清空了
+                        if (mPending.get(key) != write) {
+                            continue;
+                        }
+                    }
+                    try {
+                        write(key, write);
+                    } catch (Exception e) {
+                        VolleyLog.e(e, "Unhandled exception %s", e.toString());
+                    }
+                }
+                synchronized (mPending) {
+                    //写入期间被新的操作替换了，留在队列中再写一次
+                    if (mPending.get(key) == write) {
+                        mPending.remove(key);
+                    }
+                    mPending.notifyAll();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import org.junit.Test;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 缓存分发器分片的基准测试，比较只有一个缓存分发器（分片前的行为）和多个缓存分发器时，命中缓存的请求的延迟
+ * <p>
+ * 每个请求的解析都是CPU密集的，单个分发器时请求只能排队解析，多个分发器时可以利用多个核心。
+ * 结果会打印出来，只有在多核机器上才检查分片后不比单个分发器慢
+ */
+public class CacheDispatchBenchmarkTest {
+    private static final int REQUESTS = 2000;
+    private static final int WARM_UP_REQUESTS = 400;
+    private static final int ENTRY_SIZE = 8 * 1024;
+
+    /**
+     * 每次解析对数据做摘要的次数，模拟JSON、图片解码之类的耗时解析
+     */
+    private static final int DIGEST_ROUNDS = 4;
+
+    @Test
+    public void cacheHitLatencyByDispatcherCount() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int sharded = Math.max(2, Math.min(cores, 8));
+
+        //先预热一次，避免JIT编译影响第一组结果
+        runHits(1, WARM_UP_REQUESTS);
+        Result single = runHits(1, REQUESTS);
+        Result multi = runHits(sharded, REQUESTS);
+
+        System.out.println("CacheDispatchBenchmark cores=" + cores);
+        System.out.println("  1 dispatcher:  " + single);
+        System.out.println("  " + sharded + " dispatchers: " + multi);
+
+        if (cores >= 2) {
+            assertTrue("sharded " + multi + " slower than single " + single,
+                    multi.totalNanos < single.totalNanos);
+        }
+    }
+
+    /**
+     * 所有请求都命中缓存，记录从加入队列到回调结果的延迟
+     */
+    private static Result runHits(int cacheDispatchers, int count) throws Exception {
+        MapCache cache = new MapCache();
+        byte[] data = new byte[ENTRY_SIZE];
+        Arrays.fill(data, (byte) 'x');
+        for (int i = 0; i < count; i++) {
+            Cache.Entry entry = new Cache.Entry();
+            entry.data = data;
+            entry.ttl = Long.MAX_VALUE;
+            entry.softTtl = Long.MAX_VALUE;
+            entry.responseHeaders = Collections.emptyMap();
+            cache.put("0:http://example.com/" + i, entry);
+        }
+
+        ResponseDelivery delivery = new ExecutorDelivery(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        RequestQueue queue = new RequestQueue(cache, new FailingNetwork(), 1, cacheDispatchers,
+                delivery);
+        queue.start();
+        try {
+            CountDownLatch done = new CountDownLatch(count);
+            long[] latencies = new long[count];
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                queue.add(new DigestRequest("http://example.com/" + i, latencies, i, done));
+            }
+            assertTrue(done.await(2, TimeUnit.MINUTES));
+            long total = System.nanoTime() - start;
+            assertEquals(0, cache.mMisses.get());
+            return new Result(total, latencies);
+        } finally {
+            queue.stop();
+        }
+    }
+
+    private static class Result {
+        final long totalNanos;
+        final long meanNanos;
+        final long p99Nanos;
+
+        Result(long totalNanos, long[] latencies) {
+            this.totalNanos = totalNanos;
+            long sum = 0;
+            for (long latency : latencies) {
+                sum += latency;
+            }
+            meanNanos = sum / latencies.length;
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            p99Nanos = sorted[sorted.length * 99 / 100];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("total=%dms mean=%dus p99=%dus",
+                    TimeUnit.NANOSECONDS.toMillis(totalNanos),
+                    TimeUnit.NANOSECONDS.toMicros(meanNanos),
+                    TimeUnit.NANOSECONDS.toMicros(p99Nanos));
+        }
+    }
+
+    /**
+     * 解析时对数据做若干次摘要，回调时记录延迟
+     */
+    private static class DigestRequest extends Request<byte[]> {
+        private final long mCreatedNanos = System.nanoTime();
+        private final long[] mLatencies;
+        private final int mIndex;
+        private final CountDownLatch mDone;
+
+        DigestRequest(String url, long[] latencies, int index, CountDownLatch done) {
+            super(Method.GET, url, null);
+            mLatencies = latencies;
+            mIndex = index;
+            mDone = done;
+        }
+
+        @Override
+        protected Response<byte[]> parseNetworkResponse(NetworkResponse response) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                byte[] result = response.data;
+                for (int i = 0; i < DIGEST_ROUNDS; i++) {
+                    digest.update(response.data);
+                    result = digest.digest(result);
+                }
+                return Response.success(result, null);
+            } catch (NoSuchAlgorithmException e) {
+                return Response.error(new ParseError(e));
+            }
+        }
+
+        @Override
+        protected void deliverResponse(byte[] response) {
+            mLatencies[mIndex] = System.nanoTime() - mCreatedNanos;
+            mDone.countDown();
+        }
+    }
+
+    /**
+     * 保存在内存中的缓存，记录未命中的次数
+     */
+    private static class MapCache implements Cache {
+        private final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+        final AtomicInteger mMisses = new AtomicInteger();
+
+        @Override
+        public Entry get(String key) {
+            Entry entry = mEntries.get(key);
+            if (entry == null) {
+                mMisses.incrementAndGet();
+            }
+            return entry;
+        }
+
+        @Override
+        public void put(String key, Entry entry) {
+            mEntries.put(key, entry);
+        }
+
+        @Override
+        public void initialize() {
+        }
+
+        @Override
+        public void invalidate(String key, boolean fullExpire) {
+        }
+
+        @Override
+        public void remove(String key) {
+            mEntries.remove(key);
+        }
+
+        @Override
+        public void clear() {
+            mEntries.clear();
+        }
+    }
+
+    /**
+     * 所有请求都应该命中缓存，不会走到网络
+     */
+    private static class FailingNetwork implements Network {
+        @Override
+        public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+            throw new VolleyError("unexpected network request " + request.getUrl());
+        }
+    }
+}
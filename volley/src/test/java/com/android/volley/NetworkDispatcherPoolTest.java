@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import com.android.volley.mock.MockCache;
+import com.android.volley.mock.MockNetwork;
+import com.android.volley.mock.MockRequest;
+import com.android.volley.utils.ImmediateResponseDelivery;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link NetworkDispatcherPool} 的测试，请求积压时扩容到最大数量，空闲超过保活时间后缩回最小数量
+ */
+public class NetworkDispatcherPoolTest {
+    private static final long TIMEOUT_MS = 10000;
+    private static final int MIN_THREADS = 1;
+    private static final int MAX_THREADS = 4;
+
+    private RequestQueue mQueue;
+
+    @After
+    public void tearDown() {
+        if (mQueue != null) {
+            mQueue.stop();
+        }
+    }
+
+    @Test
+    public void growsUnderLoadAndShrinksWhenIdle() throws Exception {
+        MockNetwork network = new MockNetwork("ok", true);
+        mQueue = new RequestQueue(new MockCache(), network, MIN_THREADS,
+                new ImmediateResponseDelivery());
+        mQueue.setNetworkThreadPoolBounds(MIN_THREADS, MAX_THREADS);
+        mQueue.setNetworkPoolGrowThresholdMs(20);
+        mQueue.setNetworkThreadKeepAliveMs(100);
+        mQueue.start();
+        assertEquals(MIN_THREADS, mQueue.getNetworkThreadCount());
+
+        //所有分发器都卡在网络请求中，排队的请求超过阈值后扩容
+        List<MockRequest> requests = new ArrayList<>();
+        for (int i = 0; i < MAX_THREADS * 2; i++) {
+            MockRequest request = new MockRequest("http://example.com/" + i);
+            request.setShouldCache(false);
+            mQueue.add(request);
+            requests.add(request);
+        }
+        assertTrue(network.awaitRequests(MAX_THREADS, TIMEOUT_MS));
+        assertEquals(MAX_THREADS, mQueue.getNetworkThreadCount());
+        //达到最大数量后不再扩容
+        Thread.sleep(100);
+        assertEquals(MAX_THREADS, mQueue.getNetworkThreadCount());
+        assertEquals(MAX_THREADS, network.getRequestCount());
+
+        network.release();
+        for (MockRequest request : requests) {
+            assertTrue(request.awaitDelivery(TIMEOUT_MS));
+            assertEquals("ok", request.getResponse());
+        }
+
+        //空闲超过保活时间后缩回最小数量
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (mQueue.getNetworkThreadCount() > MIN_THREADS
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(MIN_THREADS, mQueue.getNetworkThreadCount());
+
+        //缩容之后还可以继续处理请求
+        MockRequest after = new MockRequest("http://example.com/after");
+        after.setShouldCache(false);
+        mQueue.add(after);
+        assertTrue(after.awaitDelivery(TIMEOUT_MS));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import com.android.volley.mock.MockCache;
+import com.android.volley.mock.MockNetwork;
+import com.android.volley.mock.MockRequest;
+import com.android.volley.utils.ImmediateResponseDelivery;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 网络请求执行方式的基准测试，比较固定数量的网络分发器和 {@link RequestQueue#setNetworkExecutor} 的每个请求一个任务
+ * <p>
+ * 网络请求只是阻塞等待，模拟慢网络，固定分发器的吞吐量受线程数量限制，执行者模式没有上限。
+ * 运行环境支持虚拟线程时使用虚拟线程，否则使用缓存线程池
+ */
+public class NetworkExecutorBenchmarkTest {
+    private static final int REQUESTS = 200;
+    private static final int FIXED_THREADS = 4;
+    private static final long NETWORK_DELAY_MS = 20;
+    private static final long TIMEOUT_MS = 60000;
+
+    @Test
+    public void executorModeVsFixedDispatchers() throws Exception {
+        long fixedNs = run(null);
+        ExecutorService executor = createExecutor();
+        long executorNs;
+        try {
+            executorNs = run(executor);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        System.out.println("NetworkExecutorBenchmark requests=" + REQUESTS
+                + " delayMs=" + NETWORK_DELAY_MS);
+        System.out.println(String.format("  fixed %d dispatchers: %d ms", FIXED_THREADS,
+                TimeUnit.NANOSECONDS.toMillis(fixedNs)));
+        System.out.println(String.format("  executor (%s): %d ms", describe(executor),
+                TimeUnit.NANOSECONDS.toMillis(executorNs)));
+
+        //网络请求只是在等待，不占用CPU，单核机器上执行者模式也应该更快
+        assertTrue("executor " + executorNs + "ns, fixed " + fixedNs + "ns",
+                executorNs < fixedNs);
+    }
+
+    /**
+     * 一次添加所有请求，等待全部回调，返回总耗时
+     *
+     * @param executor 为null时使用固定数量的网络分发器
+     */
+    private static long run(ExecutorService executor) throws Exception {
+        MockNetwork network = new MockNetwork("ok");
+        network.setDelayMs(NETWORK_DELAY_MS);
+        RequestQueue queue = new RequestQueue(new MockCache(), network, FIXED_THREADS,
+                new ImmediateResponseDelivery());
+        if (executor != null) {
+            queue.setNetworkExecutor(executor);
+        }
+        queue.start();
+        try {
+            List<MockRequest> requests = new ArrayList<>();
+            long begin = System.nanoTime();
+            for (int i = 0; i < REQUESTS; i++) {
+                MockRequest request = new MockRequest("http://example.com/" + i);
+                request.setShouldCache(false);
+                queue.add(request);
+                requests.add(request);
+            }
+            for (MockRequest request : requests) {
+                assertTrue(request.awaitDelivery(TIMEOUT_MS));
+                assertEquals("ok", request.getResponse());
+            }
+            long elapsed = System.nanoTime() - begin;
+            assertEquals(REQUESTS, network.getRequestCount());
+            return elapsed;
+        } finally {
+            queue.stop();
+        }
+    }
+
+    /**
+     * 优先使用虚拟线程（Java 21+），源码级别是Java 8，只能通过反射获取
+     */
+    private static ExecutorService createExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private static String describe(ExecutorService executor) {
+        return executor.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import com.android.volley.mock.MockRequest;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link NetworkScheduler} 的测试，主机空闲后累计统计仍然保留，并且保留的主机数量有上限
+ */
+public class NetworkSchedulerTest {
+
+    @Test
+    public void hostStatsSurviveIdle() {
+        NetworkScheduler scheduler = new NetworkScheduler();
+        dispatch(scheduler, "http://a.example.com/1");
+        dispatch(scheduler, "http://a.example.com/2");
+
+        NetworkScheduler.HostStats stats = scheduler.getHostStats().get("a.example.com");
+        assertNotNull(stats);
+        assertEquals(2, stats.dispatchedCount);
+        assertEquals(0, stats.running);
+        assertEquals(0, stats.pending);
+    }
+
+    @Test
+    public void hostStatsIncludeQueuedAndRunningRequests() {
+        NetworkScheduler scheduler = new NetworkScheduler();
+        MockRequest running = new MockRequest("http://a.example.com/1");
+        scheduler.offer(running);
+        assertSame(running, scheduler.poll());
+        scheduler.offer(new MockRequest("http://a.example.com/2"));
+        scheduler.offer(new MockRequest("http://b.example.com/1"));
+
+        Map<String, NetworkScheduler.HostStats> stats = scheduler.getHostStats();
+        assertEquals(1, stats.get("a.example.com").running);
+        assertEquals(1, stats.get("a.example.com").pending);
+        assertEquals(1, stats.get("a.example.com").dispatchedCount);
+        //还没有出队过的主机也会出现在统计中
+        assertEquals(1, stats.get("b.example.com").pending);
+        assertEquals(0, stats.get("b.example.com").dispatchedCount);
+    }
+
+    @Test
+    public void hostStatsAreBounded() {
+        NetworkScheduler scheduler = new NetworkScheduler();
+        dispatch(scheduler, "http://first.example.com/");
+        for (int i = 0; i < NetworkScheduler.MAX_HOST_STATS; i++) {
+            dispatch(scheduler, "http://host" + i + ".example.com/");
+        }
+
+        Map<String, NetworkScheduler.HostStats> stats = scheduler.getHostStats();
+        assertEquals(NetworkScheduler.MAX_HOST_STATS, stats.size());
+        //最久没有出队的主机被移除
+        assertNull(stats.get("first.example.com"));
+        int last = NetworkScheduler.MAX_HOST_STATS - 1;
+        assertTrue(stats.containsKey("host" + last + ".example.com"));
+    }
+
+    /**
+     * 请求入队、出队并完成网络请求，完成后主机空闲
+     */
+    private static void dispatch(NetworkScheduler scheduler, String url) {
+        MockRequest request = new MockRequest(url);
+        scheduler.offer(request);
+        assertSame(request, scheduler.poll());
+        scheduler.onNetworkComplete(request);
+    }
+}
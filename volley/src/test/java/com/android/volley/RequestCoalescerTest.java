@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import com.android.volley.mock.MockNetwork;
+import com.android.volley.mock.MockRequest;
+import com.android.volley.toolbox.NoCache;
+import com.android.volley.utils.ImmediateResponseDelivery;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link RequestCoalescer} 的测试，相同的不缓存GET请求只发起一次网络请求，取消的请求不会收到响应
+ */
+public class RequestCoalescerTest {
+    private static final String URL = "http://example.com/poll";
+    private static final long TIMEOUT_MS = 10000;
+
+    private RequestQueue mQueue;
+
+    @After
+    public void tearDown() {
+        if (mQueue != null) {
+            mQueue.stop();
+        }
+    }
+
+    @Test
+    public void identicalRequestsShareOneNetworkCall() throws Exception {
+        MockNetwork network = new MockNetwork("ok", true);
+        startQueue(network);
+
+        MockRequest leader = add(URL);
+        assertTrue(network.awaitRequests(1, TIMEOUT_MS));
+        MockRequest first = add(URL);
+        MockRequest second = add(URL);
+        network.release();
+
+        for (MockRequest request : new MockRequest[]{leader, first, second}) {
+            assertTrue(request.awaitDelivery(TIMEOUT_MS));
+            assertEquals("ok", request.getResponse());
+        }
+        assertEquals(1, network.getRequestCount());
+        assertIdle();
+    }
+
+    @Test
+    public void canceledFollowerGetsNoResponse() throws Exception {
+        MockNetwork network = new MockNetwork("ok", true);
+        startQueue(network);
+
+        MockRequest leader = add(URL);
+        assertTrue(network.awaitRequests(1, TIMEOUT_MS));
+        MockRequest canceled = add(URL);
+        MockRequest follower = add(URL);
+        canceled.cancel();
+        network.release();
+
+        assertTrue(leader.awaitDelivery(TIMEOUT_MS));
+        assertTrue(follower.awaitDelivery(TIMEOUT_MS));
+        assertEquals("ok", follower.getResponse());
+        assertFalse(canceled.awaitDelivery(100));
+        assertNull(canceled.getResponse());
+        assertEquals(1, network.getRequestCount());
+        assertIdle();
+    }
+
+    @Test
+    public void canceledLeaderPromotesFollower() throws Exception {
+        MockNetwork network = new MockNetwork("ok");
+        //先不启动队列，领头请求还在网络队列中排队时被取消
+        mQueue = new RequestQueue(new NoCache(), network, 1, new ImmediateResponseDelivery());
+        MockRequest leader = add(URL);
+        MockRequest follower = add(URL);
+        MockRequest another = add(URL);
+        leader.cancel();
+        mQueue.start();
+
+        assertTrue(follower.awaitDelivery(TIMEOUT_MS));
+        assertTrue(another.awaitDelivery(TIMEOUT_MS));
+        assertEquals("ok", follower.getResponse());
+        assertEquals("ok", another.getResponse());
+        assertFalse(leader.awaitDelivery(100));
+        assertEquals(1, network.getRequestCount());
+        assertIdle();
+    }
+
+    @Test
+    public void requestsAfterTheResponseGoToTheNetworkAgain() throws Exception {
+        MockNetwork network = new MockNetwork("ok");
+        startQueue(network);
+
+        assertTrue(add(URL).awaitDelivery(TIMEOUT_MS));
+        assertTrue(add(URL).awaitDelivery(TIMEOUT_MS));
+        assertEquals(2, network.getRequestCount());
+    }
+
+    /**
+     * 回调结果之后请求才会结束，等待所有请求结束
+     */
+    private void assertIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (mQueue.getRequestCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, mQueue.getRequestCount());
+    }
+
+    private void startQueue(Network network) {
+        mQueue = new RequestQueue(new NoCache(), network, 1, new ImmediateResponseDelivery());
+        mQueue.start();
+    }
+
+    private MockRequest add(String url) {
+        MockRequest request = new MockRequest(url);
+        request.setShouldCache(false);
+        request.setShouldCoalesce(true);
+        mQueue.add(request);
+        return request;
+    }
+}
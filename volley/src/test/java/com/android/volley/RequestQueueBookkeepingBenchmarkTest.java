@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import com.android.volley.mock.MockNetwork;
+import com.android.volley.mock.MockRequest;
+import com.android.volley.toolbox.NoCache;
+import com.android.volley.utils.ImmediateResponseDelivery;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link RequestQueue} 请求登记的并发基准测试，8个线程同时添加、结束请求并按Tag计数，
+ * 比较并发集合加Tag索引的实现和之前全局锁加遍历的实现
+ * <p>
+ * 之前的实现保留在该测试中作为基线，结果会打印出来，只有在多核机器上才检查新的实现吞吐量更高。
+ * 另外通过真实的RequestQueue跑一轮添加、取消，检查结束后登记信息都被清理
+ */
+public class RequestQueueBookkeepingBenchmarkTest {
+    private static final int THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 100000;
+    private static final int TAGS = 16;
+
+    @Test
+    public void concurrentAddAndFinish() throws Exception {
+        Object[] tags = createTags();
+        //先各跑一轮预热
+        run(new LockedBookkeeping(), tags, OPERATIONS_PER_THREAD / 4);
+        run(new ConcurrentBookkeeping(), tags, OPERATIONS_PER_THREAD / 4);
+
+        LockedBookkeeping locked = new LockedBookkeeping();
+        long lockedNs = run(locked, tags, OPERATIONS_PER_THREAD);
+        ConcurrentBookkeeping concurrent = new ConcurrentBookkeeping();
+        long concurrentNs = run(concurrent, tags, OPERATIONS_PER_THREAD);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        long operations = (long) THREADS * OPERATIONS_PER_THREAD;
+        System.out.println("RequestQueueBookkeepingBenchmark threads=" + THREADS
+                + " cores=" + cores);
+        System.out.println(String.format("  locked set:      %d ms, %d ops/ms",
+                TimeUnit.NANOSECONDS.toMillis(lockedNs), operations * 1000000 / lockedNs));
+        System.out.println(String.format("  concurrent+tags: %d ms, %d ops/ms",
+                TimeUnit.NANOSECONDS.toMillis(concurrentNs),
+                operations * 1000000 / concurrentNs));
+
+        assertEquals(0, locked.size());
+        assertEquals(0, concurrent.size());
+        if (cores >= 4) {
+            assertTrue("concurrent " + concurrentNs + "ns, locked " + lockedNs + "ns",
+                    concurrentNs < lockedNs);
+        }
+    }
+
+    @Test
+    public void queueAddAndCancel() throws Exception {
+        //不启动分发器，取消时请求从网络队列中移除并结束，走完整的添加、结束流程
+        final RequestQueue queue = new RequestQueue(new NoCache(), new MockNetwork("ok"), 1,
+                new ImmediateResponseDelivery());
+        final Object[] tags = createTags();
+        final int operations = OPERATIONS_PER_THREAD / 4;
+        long ns = runThreads(new Worker() {
+            @Override
+            public void run(int thread) {
+                Object tag = tags[thread % TAGS];
+                for (int i = 0; i < operations; i++) {
+                    MockRequest request = new MockRequest("http://example.com/" + i);
+                    request.setShouldCache(false);
+                    request.setTag(tag);
+                    queue.add(request);
+                    assertTrue(queue.getRequestCount(tag) > 0);
+                    request.cancel();
+                }
+            }
+        });
+
+        System.out.println(String.format("  RequestQueue add+cancel: %d ms, %d ops/ms",
+                TimeUnit.NANOSECONDS.toMillis(ns), (long) THREADS * operations * 1000000 / ns));
+        assertEquals(0, queue.getRequestCount());
+        for (Object tag : tags) {
+            assertEquals(0, queue.getRequestCount(tag));
+        }
+        assertEquals(0, queue.getNetworkQueueDepth());
+    }
+
+    private static Object[] createTags() {
+        Object[] tags = new Object[TAGS];
+        for (int i = 0; i < TAGS; i++) {
+            tags[i] = new Object();
+        }
+        return tags;
+    }
+
+    /**
+     * 每个线程不断添加请求、按Tag计数、结束请求，返回总耗时
+     */
+    private static long run(final Bookkeeping bookkeeping, final Object[] tags,
+                            final int operations) throws Exception {
+        return runThreads(new Worker() {
+            @Override
+            public void run(int thread) {
+                Object tag = tags[thread % TAGS];
+                List<Request<?>> inFlight = new ArrayList<>();
+                for (int i = 0; i < operations; i++) {
+                    MockRequest request = new MockRequest("http://example.com/" + i);
+                    request.setTag(tag);
+                    bookkeeping.add(request);
+                    inFlight.add(request);
+                    //每个线程最多同时有8个请求进行中
+                    if (inFlight.size() == 8) {
+                        assertTrue(bookkeeping.count(tag) >= 8);
+                        for (Request<?> finished : inFlight) {
+                            bookkeeping.finish(finished);
+                        }
+                        inFlight.clear();
+                    }
+                }
+                for (Request<?> finished : inFlight) {
+                    bookkeeping.finish(finished);
+                }
+            }
+        });
+    }
+
+    private static long runThreads(final Worker worker) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    worker.run(thread);
+                    return null;
+                }
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        try {
+            for (Future<Void> future : futures) {
+                future.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return System.nanoTime() - begin;
+    }
+
+    private interface Worker {
+        void run(int thread);
+    }
+
+    private interface Bookkeeping {
+        void add(Request<?> request);
+
+        void finish(Request<?> request);
+
+        int count(Object tag);
+
+        int size();
+    }
+
+    /**
+     * RequestQueue现在的实现：并发集合登记请求，Tag索引按Tag计数
+     */
+    private static class ConcurrentBookkeeping implements Bookkeeping {
+        private final Set<Request<?>> mCurrentRequests =
+                Collections.newSetFromMap(new ConcurrentHashMap<Request<?>, Boolean>());
+        private final RequestTagIndex mTagIndex = new RequestTagIndex();
+
+        @Override
+        public void add(Request<?> request) {
+            mCurrentRequests.add(request);
+            mTagIndex.add(request.getTag(), request);
+        }
+
+        @Override
+        public void finish(Request<?> request) {
+            if (mCurrentRequests.remove(request)) {
+                mTagIndex.remove(request.getTag(), request);
+            }
+        }
+
+        @Override
+        public int count(Object tag) {
+            return mTagIndex.count(tag);
+        }
+
+        @Override
+        public int size() {
+            return mCurrentRequests.size();
+        }
+    }
+
+    /**
+     * 之前的实现：所有请求保存在一个HashSet中，添加、结束都锁住该集合，按Tag查找时遍历全部请求
+     */
+    private static class LockedBookkeeping implements Bookkeeping {
+        private final Set<Request<?>> mCurrentRequests = new HashSet<>();
+
+        @Override
+        public void add(Request<?> request) {
+            synchronized (mCurrentRequests) {
+                mCurrentRequests.add(request);
+            }
+        }
+
+        @Override
+        public void finish(Request<?> request) {
+            synchronized (mCurrentRequests) {
+                mCurrentRequests.remove(request);
+            }
+        }
+
+        @Override
+        public int count(Object tag) {
+            int count = 0;
+            synchronized (mCurrentRequests) {
+                for (Request<?> request : mCurrentRequests) {
+                    if (request.getTag() == tag) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public int size() {
+            synchronized (mCurrentRequests) {
+                return mCurrentRequests.size();
+            }
+        }
+    }
+}
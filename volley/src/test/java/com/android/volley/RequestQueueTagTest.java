@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import com.android.volley.mock.MockCache;
+import com.android.volley.mock.MockNetwork;
+import com.android.volley.mock.MockRequest;
+import com.android.volley.utils.ImmediateResponseDelivery;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link RequestQueue} 按Tag计数和取消的测试，取消、结束和修改Tag之后计数都要及时更新，
+ * 取消的请求立即从排队的队列中移除
+ */
+public class RequestQueueTagTest {
+    private static final long TIMEOUT_MS = 10000;
+
+    private final Object mTag = new Object();
+    private final Object mOtherTag = new Object();
+    private MockNetwork mNetwork;
+    private RequestQueue mQueue;
+
+    @Before
+    public void setUp() {
+        mNetwork = new MockNetwork("ok");
+        mQueue = new RequestQueue(new MockCache(), mNetwork, 1, new ImmediateResponseDelivery());
+    }
+
+    @After
+    public void tearDown() {
+        mQueue.stop();
+    }
+
+    @Test
+    public void cancelAllRemovesQueuedRequestsEagerly() throws Exception {
+        //不启动分发器，请求一直在队列中排队
+        MockRequest first = add("http://example.com/1", mTag, false);
+        MockRequest second = add("http://example.com/2", mTag, true);
+        MockRequest other = add("http://example.com/3", mOtherTag, false);
+        assertEquals(2, mQueue.getRequestCount(mTag));
+        assertEquals(1, mQueue.getRequestCount(mOtherTag));
+        assertEquals(2, mQueue.getNetworkQueueDepth());
+
+        mQueue.cancelAll(mTag);
+
+        assertTrue(first.isCanceled());
+        assertTrue(second.isCanceled());
+        assertFalse(other.isCanceled());
+        assertEquals(0, mQueue.getRequestCount(mTag));
+        assertEquals(1, mQueue.getRequestCount(mOtherTag));
+        assertEquals(1, mQueue.getRequestCount());
+        assertEquals(1, mQueue.getNetworkQueueDepth());
+
+        //启动之后只有没取消的请求到达网络
+        mQueue.start();
+        assertTrue(other.awaitDelivery(TIMEOUT_MS));
+        assertFalse(first.awaitDelivery(100));
+        assertEquals(1, mNetwork.getRequestCount());
+    }
+
+    @Test
+    public void finishedRequestsLeaveTheTagCount() throws Exception {
+        mQueue.start();
+        MockRequest cached = add("http://example.com/1", mTag, true);
+        MockRequest uncached = add("http://example.com/2", mTag, false);
+
+        assertTrue(cached.awaitDelivery(TIMEOUT_MS));
+        assertTrue(uncached.awaitDelivery(TIMEOUT_MS));
+        assertIdle();
+        assertEquals(0, mQueue.getRequestCount(mTag));
+    }
+
+    @Test
+    public void tagChangeMovesTheRequest() throws Exception {
+        MockRequest request = add("http://example.com/1", mTag, false);
+        request.setTag(mOtherTag);
+        assertEquals(0, mQueue.getRequestCount(mTag));
+        assertEquals(1, mQueue.getRequestCount(mOtherTag));
+
+        //按旧的Tag取消不会影响该请求
+        mQueue.cancelAll(mTag);
+        assertFalse(request.isCanceled());
+
+        mQueue.cancelAll(mOtherTag);
+        assertTrue(request.isCanceled());
+        assertEquals(0, mQueue.getRequestCount(mOtherTag));
+        assertEquals(0, mQueue.getRequestCount());
+    }
+
+    @Test
+    public void tagChangeAfterFinishIsIgnored() throws Exception {
+        mQueue.start();
+        MockRequest request = add("http://example.com/1", mTag, false);
+        assertTrue(request.awaitDelivery(TIMEOUT_MS));
+        assertIdle();
+
+        request.setTag(mOtherTag);
+        assertEquals(0, mQueue.getRequestCount(mTag));
+        assertEquals(0, mQueue.getRequestCount(mOtherTag));
+    }
+
+    /**
+     * 回调结果之后请求才会结束，等待所有请求结束
+     */
+    private void assertIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (mQueue.getRequestCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, mQueue.getRequestCount());
+    }
+
+    private MockRequest add(String url, Object tag, boolean shouldCache) {
+        MockRequest request = new MockRequest(url);
+        request.setTag(tag);
+        request.setShouldCache(shouldCache);
+        mQueue.add(request);
+        return request;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import com.android.volley.mock.MockCache;
+import com.android.volley.mock.MockNetwork;
+import com.android.volley.mock.MockRequest;
+import com.android.volley.utils.ImmediateResponseDelivery;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link WaitingRequestManager} 的测试，缓存Key相同的请求暂存起来，直接拿到进行中的请求的响应
+ */
+public class WaitingRequestManagerTest {
+    private static final String URL = "http://example.com/item";
+    private static final long TIMEOUT_MS = 10000;
+
+    private RequestQueue mQueue;
+
+    @After
+    public void tearDown() {
+        if (mQueue != null) {
+            mQueue.stop();
+        }
+    }
+
+    @Test
+    public void stagedRequestsReceiveTheInFlightResponse() throws Exception {
+        MockCache cache = new MockCache();
+        MockNetwork network = new MockNetwork("ok", true);
+        startQueue(cache, network);
+
+        MockRequest inFlight = add(new CachingRequest(URL));
+        assertTrue(network.awaitRequests(1, TIMEOUT_MS));
+        MockRequest shared = add(new CachingRequest(URL));
+        MockRequest parsed = add(new UpperCaseRequest(URL));
+        network.release();
+
+        assertTrue(inFlight.awaitDelivery(TIMEOUT_MS));
+        assertTrue(shared.awaitDelivery(TIMEOUT_MS));
+        assertTrue(parsed.awaitDelivery(TIMEOUT_MS));
+        assertEquals("ok", inFlight.getResponse());
+        //类型相同时共享解析结果，类型不同时用响应的缓存数据各自解析
+        assertEquals("ok", shared.getResponse());
+        assertEquals("OK", parsed.getResponse());
+        assertEquals(1, network.getRequestCount());
+        //暂存的请求没有再读取缓存
+        assertEquals(1, cache.getGetCount());
+        assertIdle();
+    }
+
+    @Test
+    public void canceledStagedRequestGetsNoResponse() throws Exception {
+        MockNetwork network = new MockNetwork("ok", true);
+        startQueue(new MockCache(), network);
+
+        MockRequest inFlight = add(new CachingRequest(URL));
+        assertTrue(network.awaitRequests(1, TIMEOUT_MS));
+        MockRequest canceled = add(new CachingRequest(URL));
+        MockRequest waiting = add(new CachingRequest(URL));
+        canceled.cancel();
+        network.release();
+
+        assertTrue(inFlight.awaitDelivery(TIMEOUT_MS));
+        assertTrue(waiting.awaitDelivery(TIMEOUT_MS));
+        assertEquals("ok", waiting.getResponse());
+        assertFalse(canceled.awaitDelivery(100));
+        assertNull(canceled.getResponse());
+        assertEquals(1, network.getRequestCount());
+        assertIdle();
+    }
+
+    @Test
+    public void canceledInFlightRequestReleasesStagedRequests() throws Exception {
+        MockNetwork network = new MockNetwork("ok");
+        //先不启动队列，进行中的请求还在缓存队列中排队时被取消
+        mQueue = new RequestQueue(new MockCache(), network, 1, new ImmediateResponseDelivery());
+        MockRequest inFlight = add(new CachingRequest(URL));
+        MockRequest first = add(new CachingRequest(URL));
+        MockRequest second = add(new CachingRequest(URL));
+        inFlight.cancel();
+        mQueue.start();
+
+        assertTrue(first.awaitDelivery(TIMEOUT_MS));
+        assertTrue(second.awaitDelivery(TIMEOUT_MS));
+        assertEquals("ok", first.getResponse());
+        assertEquals("ok", second.getResponse());
+        assertFalse(inFlight.awaitDelivery(100));
+        assertIdle();
+    }
+
+    @Test
+    public void requestArrivingBeforeCacheWriteWaitsForIt() throws Exception {
+        BlockingPutCache cache = new BlockingPutCache();
+        MockNetwork network = new MockNetwork("ok");
+        startQueue(cache, network);
+
+        //响应先回调再写入缓存，写入卡住时响应已经回调了
+        MockRequest inFlight = add(new CachingRequest(URL));
+        assertTrue(cache.awaitPut(TIMEOUT_MS));
+        assertTrue(inFlight.awaitDelivery(TIMEOUT_MS));
+
+        //这时到达的相同请求继续暂存，不会因为缓存还没写入而再次请求网络
+        MockRequest late = add(new CachingRequest(URL));
+        assertFalse(late.awaitDelivery(100));
+        assertEquals(1, network.getRequestCount());
+
+        cache.releasePut();
+        assertTrue(late.awaitDelivery(TIMEOUT_MS));
+        assertEquals("ok", late.getResponse());
+        assertEquals(1, network.getRequestCount());
+        assertIdle();
+    }
+
+    /**
+     * 回调结果之后请求才会结束，等待所有请求结束
+     */
+    private void assertIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (mQueue.getRequestCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, mQueue.getRequestCount());
+    }
+
+    private void startQueue(Cache cache, Network network) {
+        mQueue = new RequestQueue(cache, network, 1, new ImmediateResponseDelivery());
+        mQueue.start();
+    }
+
+    private MockRequest add(MockRequest request) {
+        mQueue.add(request);
+        return request;
+    }
+
+    /**
+     * 写入时一直等待，直到调用 {@link #releasePut()}
+     */
+    private static class BlockingPutCache extends MockCache {
+        private final CountDownLatch mPutStarted = new CountDownLatch(1);
+        private final CountDownLatch mPutGate = new CountDownLatch(1);
+
+        boolean awaitPut(long timeoutMs) throws InterruptedException {
+            return mPutStarted.await(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        void releasePut() {
+            mPutGate.countDown();
+        }
+
+        @Override
+        public void put(String key, Entry entry) {
+            mPutStarted.countDown();
+            try {
+                mPutGate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.put(key, entry);
+        }
+    }
+
+    /**
+     * 响应可以缓存一小时的请求
+     */
+    private static class CachingRequest extends MockRequest {
+        CachingRequest(String url) {
+            super(url);
+        }
+
+        @Override
+        protected Response<String> parseNetworkResponse(NetworkResponse response) {
+            Cache.Entry entry = new Cache.Entry();
+            entry.data = response.data;
+            entry.responseHeaders = Collections.emptyMap();
+            entry.ttl = System.currentTimeMillis() + 3600 * 1000;
+            entry.softTtl = entry.ttl;
+            return Response.success(new String(response.data, Charset.forName("UTF-8")), entry);
+        }
+    }
+
+    /**
+     * 缓存Key相同，但类型不同，不能共享解析结果
+     */
+    private static class UpperCaseRequest extends CachingRequest {
+        UpperCaseRequest(String url) {
+            super(url);
+        }
+
+        @Override
+        protected Response<String> parseNetworkResponse(NetworkResponse response) {
+            Response<String> parsed = super.parseNetworkResponse(response);
+            return Response.success(parsed.result.toUpperCase(), parsed.cacheEntry);
+        }
+    }
+}
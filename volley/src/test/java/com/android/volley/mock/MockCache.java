@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.mock;
+
+import com.android.volley.Cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 保存在内存中的缓存，记录读取和写入的次数
+ */
+public class MockCache implements Cache {
+    private final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+    private final AtomicInteger mGetCount = new AtomicInteger();
+    private final AtomicInteger mPutCount = new AtomicInteger();
+
+    public int getGetCount() {
+        return mGetCount.get();
+    }
+
+    public int getPutCount() {
+        return mPutCount.get();
+    }
+
+    @Override
+    public Entry get(String key) {
+        mGetCount.incrementAndGet();
+        return mEntries.get(key);
+    }
+
+    @Override
+    public void put(String key, Entry entry) {
+        mPutCount.incrementAndGet();
+        mEntries.put(key, entry);
+    }
+
+    @Override
+    public void initialize() {
+    }
+
+    /**
+     * 缓存的Entry可能被请求共享，不修改它，失效的缓存直接移除
+     */
+    @Override
+    public void invalidate(String key, boolean fullExpire) {
+        mEntries.remove(key);
+    }
+
+    @Override
+    public void remove(String key) {
+        mEntries.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        mEntries.clear();
+    }
+}
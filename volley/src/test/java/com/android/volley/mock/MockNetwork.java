@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.mock;
+
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.VolleyError;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 返回固定响应的网络实现，记录请求次数，可以让请求停在网络线程中，直到 {@link #release()}
+ */
+public class MockNetwork implements Network {
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final Semaphore mStarted = new Semaphore(0);
+    private final CountDownLatch mGate;
+    private final byte[] mData;
+    private volatile long mDelayMs;
+
+    /**
+     * 请求立即返回
+     */
+    public MockNetwork(String body) {
+        this(body, false);
+    }
+
+    /**
+     * @param blocked 为true时，请求会一直等待，直到调用 {@link #release()}
+     */
+    public MockNetwork(String body, boolean blocked) {
+        mData = body.getBytes(Charset.forName("UTF-8"));
+        mGate = new CountDownLatch(blocked ? 1 : 0);
+    }
+
+    /**
+     * 每个请求在网络线程中额外停留的时间，模拟网络延迟
+     */
+    public void setDelayMs(long delayMs) {
+        mDelayMs = delayMs;
+    }
+
+    /**
+     * 放行所有等待中和之后的请求
+     */
+    public void release() {
+        mGate.countDown();
+    }
+
+    /**
+     * 到达过网络的请求次数
+     */
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * 等待指定数量的请求到达网络
+     */
+    public boolean awaitRequests(int count, long timeoutMs) throws InterruptedException {
+        return mStarted.tryAcquire(count, timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+        mRequestCount.incrementAndGet();
+        mStarted.release();
+        try {
+            mGate.await();
+            long delayMs = mDelayMs;
+            if (delayMs > 0) {
+                Thread.sleep(delayMs);
+            }
+        } catch (InterruptedException e) {
+            throw new VolleyError(e);
+        }
+        return new NetworkResponse(mData);
+    }
+}
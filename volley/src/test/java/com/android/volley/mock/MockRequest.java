@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.mock;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把响应解析为字符串的GET请求，记录回调的结果和错误
+ */
+public class MockRequest extends Request<String> {
+    private final CountDownLatch mDelivered = new CountDownLatch(1);
+    private volatile String mResponse;
+    private volatile VolleyError mError;
+
+    public MockRequest(String url) {
+        super(Method.GET, url, null);
+    }
+
+    /**
+     * 等待回调结果或错误
+     */
+    public boolean awaitDelivery(long timeoutMs) throws InterruptedException {
+        return mDelivered.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 回调的结果，没有则返回null
+     */
+    public String getResponse() {
+        return mResponse;
+    }
+
+    /**
+     * 回调的错误，没有则返回null
+     */
+    public VolleyError getError() {
+        return mError;
+    }
+
+    @Override
+    protected Response<String> parseNetworkResponse(NetworkResponse response) {
+        return Response.success(new String(response.data, Charset.forName("UTF-8")), null);
+    }
+
+    @Override
+    protected void deliverResponse(String response) {
+        mResponse = response;
+        mDelivered.countDown();
+    }
+
+    @Override
+    public void deliverError(VolleyError error) {
+        mError = error;
+        mDelivered.countDown();
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ByteArrayPool} 的并发基准测试，多个线程同时借出、归还缓冲区，
+ * 比较按大小分级的无锁实现和之前基于有序列表、全局锁的实现
+ * <p>
+ * 之前的实现保留在该测试中作为基线，结果会打印出来，只有在多核机器上才检查新的实现吞吐量更高
+ */
+public class ByteArrayPoolBenchmarkTest {
+    private static final int THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 200000;
+    private static final int POOL_SIZE_LIMIT = 256 * 1024;
+
+    /**
+     * 请求的缓冲区大小，和读取响应体、写入缓存时常见的大小相近
+     */
+    private static final int[] SIZES = {512, 1024, 2048, 4096, 4096, 8192, 16384};
+
+    @Test
+    public void concurrentGetAndReturn() throws Exception {
+        //先各跑一轮预热
+        run(new LockedListPool(POOL_SIZE_LIMIT), OPERATIONS_PER_THREAD / 4);
+        run(new SizeClassPool(new ByteArrayPool(POOL_SIZE_LIMIT)), OPERATIONS_PER_THREAD / 4);
+
+        long locked = run(new LockedListPool(POOL_SIZE_LIMIT), OPERATIONS_PER_THREAD);
+        ByteArrayPool pool = new ByteArrayPool(POOL_SIZE_LIMIT);
+        long sizeClasses = run(new SizeClassPool(pool), OPERATIONS_PER_THREAD);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        long operations = (long) THREADS * OPERATIONS_PER_THREAD;
+        System.out.println("ByteArrayPoolBenchmark threads=" + THREADS + " cores=" + cores);
+        System.out.println(String.format("  locked list:  %d ms, %d ops/ms",
+                TimeUnit.NANOSECONDS.toMillis(locked), operations * 1000000 / locked));
+        System.out.println(String.format("  size classes: %d ms, %d ops/ms, hits=%d misses=%d",
+                TimeUnit.NANOSECONDS.toMillis(sizeClasses), operations * 1000000 / sizeClasses,
+                pool.getHitCount(), pool.getMissCount()));
+
+        assertTrue(pool.getCurrentSize() <= POOL_SIZE_LIMIT);
+        if (cores >= 4) {
+            assertTrue("size classes " + sizeClasses + "ns, locked list " + locked + "ns",
+                    sizeClasses < locked);
+        }
+    }
+
+    /**
+     * 多个线程同时借出、使用、归还缓冲区，返回总耗时
+     */
+    private static long run(final Pool pool, final int operations) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final long seed = t;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Random random = new Random(seed);
+                    start.await();
+                    for (int i = 0; i < operations; i++) {
+                        int len = SIZES[random.nextInt(SIZES.length)];
+                        byte[] buf = pool.getBuf(len);
+                        assertTrue(buf.length >= len);
+                        buf[len - 1] = (byte) i;
+                        pool.returnBuf(buf);
+                    }
+                    return null;
+                }
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        try {
+            for (Future<Void> future : futures) {
+                future.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return System.nanoTime() - begin;
+    }
+
+    private interface Pool {
+        byte[] getBuf(int len);
+
+        void returnBuf(byte[] buf);
+    }
+
+    private static class SizeClassPool implements Pool {
+        private final ByteArrayPool mPool;
+
+        SizeClassPool(ByteArrayPool pool) {
+            mPool = pool;
+        }
+
+        @Override
+        public byte[] getBuf(int len) {
+            return mPool.getBuf(len);
+        }
+
+        @Override
+        public void returnBuf(byte[] buf) {
+            mPool.returnBuf(buf);
+        }
+    }
+
+    /**
+     * 改为按大小分级之前的实现：按大小排序的列表和按使用时间排序的链表，所有操作共用一把锁
+     */
+    private static class LockedListPool implements Pool {
+        private static final Comparator<byte[]> BUF_COMPARATOR = new Comparator<byte[]>() {
+            @Override
+            public int compare(byte[] lhs, byte[] rhs) {
+                return lhs.length - rhs.length;
+            }
+        };
+
+        private final List<byte[]> mBuffersByLastUse = new LinkedList<>();
+        private final List<byte[]> mBuffersBySize = new ArrayList<>(64);
+        private final int mSizeLimit;
+        private int mCurrentSize = 0;
+
+        LockedListPool(int sizeLimit) {
+            mSizeLimit = sizeLimit;
+        }
+
+        @Override
+        public synchronized byte[] getBuf(int len) {
+            for (int i = 0; i < mBuffersBySize.size(); i++) {
+                byte[] buf = mBuffersBySize.get(i);
+                if (buf.length >= len) {
+                    mCurrentSize -= buf.length;
+                    mBuffersBySize.remove(i);
+                    mBuffersByLastUse.remove(buf);
+                    return buf;
+                }
+            }
+            return new byte[len];
+        }
+
+        @Override
+        public synchronized void returnBuf(byte[] buf) {
+            if (buf == null || buf.length > mSizeLimit) {
+                return;
+            }
+            mBuffersByLastUse.add(buf);
+            int pos = Collections.binarySearch(mBuffersBySize, buf, BUF_COMPARATOR);
+            if (pos < 0) {
+                pos = -pos - 1;
+            }
+            mBuffersBySize.add(pos, buf);
+            mCurrentSize += buf.length;
+            while (mCurrentSize > mSizeLimit) {
+                byte[] old = mBuffersByLastUse.remove(0);
+                mBuffersBySize.remove(old);
+                mCurrentSize -= old.length;
+            }
+        }
+    }
+}
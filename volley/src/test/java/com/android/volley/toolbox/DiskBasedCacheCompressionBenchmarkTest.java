@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.Cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link DiskBasedCache} 压缩的基准测试，在相同的磁盘容量下比较开启和关闭压缩的命中率和CPU耗时
+ * <p>
+ * 缓存的都是JSON响应，按照Zipf分布访问，没有命中时写入。开启压缩后同样的容量可以放下更多缓存，
+ * 代价是写入时压缩、读取时解压。结果会打印出来，只检查开启压缩后命中率更高，并且读到的数据和写入的一致
+ */
+public class DiskBasedCacheCompressionBenchmarkTest {
+    private static final int DISK_BUDGET_BYTES = 2 * 1024 * 1024;
+    private static final int KEYS = 300;
+    private static final int ACCESSES = 6000;
+    private static final int COMPRESSION_THRESHOLD = 1024;
+
+    private static final String[] WORDS = {
+            "id", "title", "author", "summary", "published", "tags", "comments", "score",
+            "android", "volley", "cache", "network", "request", "response", "image", "feed"
+    };
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void hitRatioAndCpuAtFixedBudget() throws Exception {
+        byte[][] bodies = createBodies(new Random(0));
+        int[] trace = createTrace(new Random(1));
+
+        //先各跑一轮预热
+        run("warm-raw", -1, bodies, trace);
+        run("warm-deflate", COMPRESSION_THRESHOLD, bodies, trace);
+
+        Result raw = run("raw", -1, bodies, trace);
+        Result compressed = run("deflate", COMPRESSION_THRESHOLD, bodies, trace);
+
+        long logicalBytes = 0;
+        for (byte[] body : bodies) {
+            logicalBytes += body.length;
+        }
+        System.out.println("DiskBasedCacheCompressionBenchmark budget=" + DISK_BUDGET_BYTES
+                + " keys=" + KEYS + " logicalBytes=" + logicalBytes + " accesses=" + ACCESSES);
+        System.out.println("  raw:     " + raw);
+        System.out.println("  deflate: " + compressed);
+
+        assertTrue(compressed + " vs " + raw, compressed.getHitRatio() > raw.getHitRatio());
+        assertTrue(compressed.mDiskBytes <= DISK_BUDGET_BYTES);
+        assertTrue(raw.mDiskBytes <= DISK_BUDGET_BYTES);
+    }
+
+    private Result run(String name, int threshold, byte[][] bodies, int[] trace)
+            throws Exception {
+        File root = mTemporaryFolder.newFolder(name);
+        DiskBasedCache cache = new DiskBasedCache(root, DISK_BUDGET_BYTES);
+        cache.setCompressionThreshold(threshold);
+        cache.initialize();
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        boolean cpuTime = threads.isCurrentThreadCpuTimeSupported();
+        long cpuBegin = cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+        int hits = 0;
+        for (int key : trace) {
+            String cacheKey = "0:http://example.com/api/" + key;
+            Cache.Entry entry = cache.get(cacheKey);
+            if (entry != null) {
+                assertArrayEquals(bodies[key], entry.data);
+                hits++;
+            } else {
+                cache.put(cacheKey, makeEntry(bodies[key]));
+            }
+        }
+        long cpuNs = (cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime()) - cpuBegin;
+        return new Result(hits, cpuNs, diskBytes(root));
+    }
+
+    private static long diskBytes(File root) {
+        long total = 0;
+        File[] files = root.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                total += file.length();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 4~32KB的JSON响应，内容由有限的单词组成，压缩率和真实的接口响应相近
+     */
+    private static byte[][] createBodies(Random random) {
+        byte[][] bodies = new byte[KEYS][];
+        for (int i = 0; i < KEYS; i++) {
+            int targetSize = 4 * 1024 + random.nextInt(28 * 1024);
+            StringBuilder json = new StringBuilder("{\"items\":[");
+            int item = 0;
+            while (json.length() < targetSize) {
+                if (item > 0) {
+                    json.append(',');
+                }
+                json.append("{\"id\":").append(random.nextInt(1000000))
+                        .append(",\"").append(WORDS[random.nextInt(WORDS.length)])
+                        .append("\":\"");
+                for (int w = 0; w < 6; w++) {
+                    json.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+                }
+                json.append("\",\"score\":").append(random.nextInt(100)).append('}');
+                item++;
+            }
+            json.append("]}");
+            bodies[i] = json.toString().getBytes(Charset.forName("UTF-8"));
+        }
+        return bodies;
+    }
+
+    /**
+     * 按照Zipf分布生成访问的Key
+     */
+    private static int[] createTrace(Random random) {
+        double[] cumulative = new double[KEYS];
+        double sum = 0;
+        for (int i = 0; i < KEYS; i++) {
+            sum += 1 / Math.pow(i + 1, 0.8);
+            cumulative[i] = sum;
+        }
+        int[] trace = new int[ACCESSES];
+        for (int i = 0; i < ACCESSES; i++) {
+            double value = random.nextDouble() * sum;
+            int key = 0;
+            while (cumulative[key] < value) {
+                key++;
+            }
+            trace[i] = key;
+        }
+        return trace;
+    }
+
+    private static Cache.Entry makeEntry(byte[] body) {
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = body;
+        entry.responseHeaders = Collections.singletonMap("Content-Type",
+                "application/json; charset=utf-8");
+        entry.ttl = System.currentTimeMillis() + 3600 * 1000;
+        entry.softTtl = entry.ttl;
+        return entry;
+    }
+
+    private static class Result {
+        private final int mHits;
+        private final long mCpuNs;
+        private final long mDiskBytes;
+
+        Result(int hits, long cpuNs, long diskBytes) {
+            mHits = hits;
+            mCpuNs = cpuNs;
+            mDiskBytes = diskBytes;
+        }
+
+        double getHitRatio() {
+            return (double) mHits / ACCESSES;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hit=%.3f cpu=%d ms (%d us/access) disk=%d",
+                    getHitRatio(), TimeUnit.NANOSECONDS.toMillis(mCpuNs),
+                    mCpuNs / 1000 / ACCESSES, mDiskBytes);
+        }
+    }
+}
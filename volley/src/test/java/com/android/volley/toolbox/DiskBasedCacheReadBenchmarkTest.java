@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.Cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * {@link DiskBasedCache#get(String)} 的基准测试，比较FileChannel（大文件使用内存映射）的读取方式
+ * 和之前基于BufferedInputStream逐字节解析头部、再拷贝数据的读取方式
+ * <p>
+ * 之前的读取方式保留在该测试中作为基线，两种方式读取同样的文件，结果会打印出来，只检查读取的数据一致
+ */
+public class DiskBasedCacheReadBenchmarkTest {
+    private static final int[] BODY_SIZES = {2 * 1024, 32 * 1024, 256 * 1024, 1024 * 1024};
+    private static final int ENTRIES_PER_SIZE = 8;
+    private static final int HEADER_COUNT = 16;
+
+    /**
+     * 每种大小读取的总字节数，小文件读取的次数更多
+     */
+    private static final long BYTES_PER_ROUND = 64L * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void channelReadVersusStreamRead() throws Exception {
+        DiskBasedCache cache = new DiskBasedCache(mTemporaryFolder.newFolder("cache"),
+                64 * 1024 * 1024);
+        cache.initialize();
+        Random random = new Random(0);
+
+        System.out.println("DiskBasedCacheReadBenchmark (per read)");
+        for (int size : BODY_SIZES) {
+            String[] keys = new String[ENTRIES_PER_SIZE];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = "0:http://example.com/" + size + "/" + i;
+                cache.put(keys[i], makeEntry(size, random));
+                //两种方式读到的数据必须一致
+                Cache.Entry entry = cache.get(keys[i]);
+                assertNotNull(entry);
+                assertArrayEquals(readWithStreams(cache.getFileForKey(keys[i])), entry.data);
+            }
+            int reads = (int) Math.max(ENTRIES_PER_SIZE, BYTES_PER_ROUND / size);
+
+            //先各跑一轮预热，再计时
+            timeChannelReads(cache, keys, reads);
+            timeStreamReads(cache, keys, reads);
+            long channel = timeChannelReads(cache, keys, reads);
+            long stream = timeStreamReads(cache, keys, reads);
+
+            System.out.println(String.format("  %7d bytes: channel=%dus stream=%dus (%.2fx)",
+                    size, TimeUnit.NANOSECONDS.toMicros(channel / reads),
+                    TimeUnit.NANOSECONDS.toMicros(stream / reads), (double) stream / channel));
+        }
+    }
+
+    private static long timeChannelReads(DiskBasedCache cache, String[] keys, int reads) {
+        long start = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            assertNotNull(cache.get(keys[i % keys.length]));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long timeStreamReads(DiskBasedCache cache, String[] keys, int reads)
+            throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            assertNotNull(readWithStreams(cache.getFileForKey(keys[i % keys.length])));
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * 改用FileChannel之前的读取方式：通过缓冲流逐字节解析头部，再把剩下的数据读到数组中
+     */
+    private static byte[] readWithStreams(File file) throws IOException {
+        CountingInputStream cis = new CountingInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            DiskBasedCache.CacheHeader header = DiskBasedCache.CacheHeader.readHeader(cis);
+            assertEquals(DiskBasedCache.CODEC_NONE, header.codec);
+            int length = (int) (file.length() - cis.mBytesRead);
+            byte[] bytes = new byte[length];
+            int count;
+            int pos = 0;
+            while (pos < length && ((count = cis.read(bytes, pos, length - pos)) != -1)) {
+                pos += count;
+            }
+            if (pos != length) {
+                throw new IOException("Expected " + length + " bytes, read " + pos + " bytes");
+            }
+            return bytes;
+        } finally {
+            cis.close();
+        }
+    }
+
+    private static Cache.Entry makeEntry(int size, Random random) {
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = new byte[size];
+        random.nextBytes(entry.data);
+        entry.etag = "\"" + size + "\"";
+        entry.ttl = Long.MAX_VALUE;
+        entry.softTtl = Long.MAX_VALUE;
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 0; i < HEADER_COUNT; i++) {
+            char[] value = new char[32];
+            Arrays.fill(value, (char) ('a' + i));
+            headers.put("X-Header-" + i, new String(value));
+        }
+        entry.responseHeaders = headers;
+        return entry;
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long mBytesRead;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if (result != -1) {
+                mBytesRead++;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int result = super.read(buffer, offset, count);
+            if (result != -1) {
+                mBytesRead += result;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.Cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link DiskBasedCache} 的并发测试，多个线程同时对少量Key读写、删除，读到的缓存必须是某一次完整的写入
+ */
+public class DiskBasedCacheStressTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 2000;
+    private static final int KEY_COUNT = 24;
+
+    /**
+     * 容量较小，写入时会不断触发修剪
+     */
+    private static final int MAX_CACHE_SIZE = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void concurrentGetPutRemove() throws Exception {
+        File root = mTemporaryFolder.newFolder("cache");
+        final DiskBasedCache cache = new DiskBasedCache(root, MAX_CACHE_SIZE);
+        cache.initialize();
+
+        final List<String> keys = new ArrayList<>();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys.add("0:http://example.com/item/" + i);
+        }
+        //两半的哈希分别相同，文件名相同，但是整个Key的哈希不同
+        keys.add("ab");
+        keys.add("\u0000a\u0000b");
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final long seed = t;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Random random = new Random(seed);
+                    start.await();
+                    for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                        String key = keys.get(random.nextInt(keys.size()));
+                        int op = random.nextInt(10);
+                        if (op < 5) {
+                            assertConsistent(key, cache.get(key));
+                        } else if (op < 8) {
+                            cache.put(key, makeEntry(key, random));
+                        } else if (op < 9) {
+                            cache.remove(key);
+                        } else {
+                            cache.invalidate(key, random.nextBoolean());
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        try {
+            for (Future<Void> future : futures) {
+                future.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (String key : keys) {
+            assertConsistent(key, cache.get(key));
+        }
+        File[] files = root.listFiles();
+        assertTrue(files != null);
+        for (File file : files) {
+            assertFalse("leftover temp file " + file.getName(), file.getName().endsWith(".tmp"));
+        }
+
+        //重新打开，磁盘上的缓存和日志仍然是完整的
+        DiskBasedCache reopened = new DiskBasedCache(root, MAX_CACHE_SIZE);
+        reopened.initialize();
+        for (String key : keys) {
+            assertConsistent(key, reopened.get(key));
+        }
+    }
+
+    /**
+     * 数据以Key开头，后面是同一个字节重复若干次，ETag记录了该字节和数据长度，用来检查头部和数据是否来自同一次写入
+     */
+    private static Cache.Entry makeEntry(String key, Random random) {
+        byte[] prefix = (key + ":").getBytes(UTF_8);
+        int fill = random.nextInt(256);
+        byte[] data = new byte[prefix.length + 100 + random.nextInt(4000)];
+        System.arraycopy(prefix, 0, data, 0, prefix.length);
+        Arrays.fill(data, prefix.length, data.length, (byte) fill);
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = data;
+        entry.etag = fill + "/" + data.length;
+        entry.ttl = Long.MAX_VALUE;
+        entry.softTtl = Long.MAX_VALUE;
+        entry.responseHeaders = Collections.singletonMap("X-Key", key);
+        return entry;
+    }
+
+    private static void assertConsistent(String key, Cache.Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        byte[] prefix = (key + ":").getBytes(UTF_8);
+        String[] etag = entry.etag.split("/");
+        int fill = Integer.parseInt(etag[0]);
+        assertEquals(key, Integer.parseInt(etag[1]), entry.data.length);
+        assertEquals(key, entry.responseHeaders.get("X-Key"));
+        for (int i = 0; i < prefix.length; i++) {
+            assertEquals(key, prefix[i], entry.data[i]);
+        }
+        for (int i = prefix.length; i < entry.data.length; i++) {
+            assertEquals(key, (byte) fill, entry.data[i]);
+        }
+    }
+}
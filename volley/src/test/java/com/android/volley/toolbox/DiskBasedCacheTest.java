@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.Cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link DiskBasedCache} 写入、日志和初始化的测试
+ */
+public class DiskBasedCacheTest {
+    private static final String KEY = "0:http://example.com/item";
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void putReplacesFileWithoutTouchingOpenReaders() throws Exception {
+        File root = mTemporaryFolder.newFolder("cache");
+        DiskBasedCache cache = new DiskBasedCache(root);
+        cache.initialize();
+        cache.put(KEY, makeEntry((byte) 1, 64 * 1024));
+
+        //覆盖写入时，已经打开的旧文件仍然是一次完整的写入，不会被截断或混入新数据
+        File file = cache.getFileForKey(KEY);
+        long oldLength = file.length();
+        DataInputStream oldFile = new DataInputStream(new FileInputStream(file));
+        try {
+            cache.put(KEY, makeEntry((byte) 2, 1024));
+            byte[] oldBytes = new byte[(int) oldLength];
+            oldFile.readFully(oldBytes);
+            assertEquals(-1, oldFile.read());
+            assertEquals(1, oldBytes[oldBytes.length - 1]);
+        } finally {
+            oldFile.close();
+        }
+
+        assertArrayEquals(makeEntry((byte) 2, 1024).data, cache.get(KEY).data);
+        assertNoTempFiles(root);
+
+        //重新打开，日志记录的是新的缓存
+        DiskBasedCache reopened = new DiskBasedCache(root);
+        reopened.initialize();
+        Cache.Entry entry = reopened.get(KEY);
+        assertNotNull(entry);
+        assertArrayEquals(makeEntry((byte) 2, 1024).data, entry.data);
+    }
+
+    @Test
+    public void truncatedJournalKeepsWritesMadeDuringWarmUp() throws Exception {
+        File root = mTemporaryFolder.newFolder("cache");
+        DiskBasedCache cache = new DiskBasedCache(root);
+        cache.initialize();
+        for (int i = 0; i < 4; i++) {
+            cache.put(KEY + i, makeEntry((byte) i, 1024));
+        }
+        //最后一条记录只写了一半，进程就被杀了
+        File journal = new File(root, CacheJournal.JOURNAL_FILE);
+        RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+        try {
+            raf.setLength(raf.length() - 3);
+        } finally {
+            raf.close();
+        }
+
+        //初始化完成之前写入、移除缓存，日志中的记录先暂存在内存中
+        DiskBasedCache warming = new DiskBasedCache(root);
+        warming.put(KEY + "new", makeEntry((byte) 9, 1024));
+        warming.remove(KEY + 0);
+        warming.initialize();
+        assertNotNull(warming.get(KEY + "new"));
+
+        //重写日志时，暂存的记录没有丢失
+        DiskBasedCache reopened = new DiskBasedCache(root);
+        reopened.initialize();
+        assertArrayEquals(makeEntry((byte) 9, 1024).data, reopened.get(KEY + "new").data);
+        assertNull(reopened.get(KEY + 0));
+        assertNotNull(reopened.get(KEY + 1));
+        assertNotNull(reopened.get(KEY + 2));
+        //被截断的那条记录丢失了，对应的缓存文件也不会被读取
+        assertNull(reopened.get(KEY + 3));
+    }
+
+    @Test
+    public void tooManyWritesBeforeInitializationFallBackToDirectoryScan() throws Exception {
+        File root = mTemporaryFolder.newFolder("cache");
+        DiskBasedCache cache = new DiskBasedCache(root);
+        cache.initialize();
+        cache.put(KEY, makeEntry((byte) 1, 1024));
+
+        //Key很长，很快就会超过暂存记录的上限
+        char[] padding = new char[4096];
+        Arrays.fill(padding, 'p');
+        String longKey = KEY + new String(padding);
+        DiskBasedCache warming = new DiskBasedCache(root, 16 * 1024 * 1024);
+        int count = 400;
+        for (int i = 0; i < count; i++) {
+            warming.put(longKey + i, makeEntry((byte) 2, 16));
+        }
+        warming.initialize();
+
+        //日志已经放弃，重新打开时全量扫描，所有缓存都还在
+        DiskBasedCache reopened = new DiskBasedCache(root, 16 * 1024 * 1024);
+        reopened.initialize();
+        assertNotNull(reopened.get(KEY));
+        for (int i = 0; i < count; i++) {
+            assertNotNull(reopened.get(longKey + i));
+        }
+    }
+
+    @Test
+    public void initializeDeletesStaleTempFilesOnly() throws Exception {
+        File root = mTemporaryFolder.newFolder("cache");
+        DiskBasedCache cache = new DiskBasedCache(root);
+        cache.initialize();
+        cache.put(KEY, makeEntry((byte) 1, 1024));
+        //之前的进程在写入过程中被杀，遗留了临时文件
+        DiskBasedCache.Editor abandoned = cache.edit(KEY + "abandoned", makeEntry((byte) 2, 0));
+        abandoned.write(new byte[100], 0, 100);
+        File stale = new File(root, "12345-s0-678.tmp");
+        assertTrue(stale.createNewFile());
+
+        //重新打开，初始化之前就开始写入的临时文件不能被删除
+        DiskBasedCache reopened = new DiskBasedCache(root);
+        DiskBasedCache.Editor editor = reopened.edit(KEY + "streamed", makeEntry((byte) 3, 0));
+        editor.write(new byte[100], 0, 100);
+        reopened.initialize();
+        assertFalse(stale.exists());
+        assertTrue(editor.commit());
+        assertNoTempFiles(root);
+        assertNotNull(reopened.get(KEY));
+        assertEquals(100, reopened.get(KEY + "streamed").data.length);
+        assertNull(reopened.get(KEY + "abandoned"));
+    }
+
+    static Cache.Entry makeEntry(byte fill, int size) {
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = new byte[size];
+        Arrays.fill(entry.data, fill);
+        entry.etag = "\"" + fill + "\"";
+        entry.ttl = Long.MAX_VALUE;
+        entry.softTtl = Long.MAX_VALUE;
+        entry.responseHeaders = Collections.singletonMap("ETag", entry.etag);
+        return entry;
+    }
+
+    static void assertNoTempFiles(File root) {
+        File[] files = root.listFiles();
+        assertNotNull(files);
+        for (File file : files) {
+            assertFalse("leftover temp file " + file.getName(), file.getName().endsWith(".tmp"));
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.utils.CacheTraceSimulator;
+import com.android.volley.utils.CacheTraceSimulator.Access;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用访问记录回放比较 {@link LruEvictionPolicy} 和 {@link SegmentedLruEvictionPolicy} 的命中率和字节命中率
+ * <p>
+ * 访问记录是生成的：常用的小接口响应按照Zipf分布访问，中间穿插一次性滑过的图片列表。
+ * 也可以用 {@link CacheTraceSimulator#readTrace} 读取真实记录的访问序列回放
+ */
+public class EvictionPolicySimulationTest {
+    private static final long CACHE_BYTES = 5 * 1024 * 1024;
+    private static final int ACCESSES = 50000;
+
+    @Test
+    public void segmentedLruResistsImageFeedScans() {
+        List<Access> trace = createFeedTrace(new Random(1));
+        CacheTraceSimulator lru = simulate(new LruEvictionPolicy(), trace);
+        CacheTraceSimulator slru = simulate(new SegmentedLruEvictionPolicy(), trace);
+
+        System.out.println("EvictionPolicySimulation api+image scans, cache=" + CACHE_BYTES);
+        System.out.println("  " + lru);
+        System.out.println("  " + slru);
+
+        //图片只访问一次，不可能命中，命中的都是接口响应，分段LRU把它们留在了保护段
+        assertTrue(slru + " vs " + lru, slru.getHitRatio() > lru.getHitRatio());
+        assertTrue(slru.getTotalBytes() < CACHE_BYTES);
+        assertTrue(lru.getTotalBytes() < CACHE_BYTES);
+    }
+
+    @Test
+    public void zipfWithoutScans() {
+        List<Access> trace = createZipfTrace(new Random(2));
+        CacheTraceSimulator lru = simulate(new LruEvictionPolicy(), trace);
+        CacheTraceSimulator slru = simulate(new SegmentedLruEvictionPolicy(), trace);
+
+        //没有扫描时只打印结果作为参考
+        System.out.println("EvictionPolicySimulation zipf, cache=" + CACHE_BYTES);
+        System.out.println("  " + lru);
+        System.out.println("  " + slru);
+        assertTrue(lru.getHitRatio() > 0 && slru.getHitRatio() > 0);
+    }
+
+    @Test
+    public void replaysRecordedTrace() throws Exception {
+        String recorded = "# key size\n"
+                + "a 400\n"
+                + "b 200\n"
+                + "a 400\n"
+                + "c 200\n"
+                + "b 200\n"
+                + "\n"
+                + "d 300\n"
+                + "a 400\n";
+        List<Access> trace = CacheTraceSimulator.readTrace(new StringReader(recorded));
+        assertEquals(7, trace.size());
+
+        //写入d时淘汰最久没用的a，再次写入a时要修剪到容量的90%以下，淘汰c和b
+        CacheTraceSimulator lru = new CacheTraceSimulator(new LruEvictionPolicy(), 1000)
+                .replay(trace);
+        assertEquals(2.0 / 7, lru.getHitRatio(), 1e-9);
+        assertEquals(600.0 / 2100, lru.getByteHitRatio(), 1e-9);
+        assertEquals(3, lru.getEvictionCount());
+        assertEquals(700, lru.getTotalBytes());
+    }
+
+    private static CacheTraceSimulator simulate(CacheEvictionPolicy policy, List<Access> trace) {
+        return new CacheTraceSimulator(policy, CACHE_BYTES).replay(trace);
+    }
+
+    /**
+     * 300个2~8KB的接口响应按照Zipf分布访问，约60%的访问是一次性滑过的40~80KB图片，每次连续滑过50张
+     */
+    private static List<Access> createFeedTrace(Random random) {
+        long[] apiSizes = createSizes(random, 300, 2 * 1024, 8 * 1024);
+        Zipf zipf = new Zipf(apiSizes.length, 0.9, random);
+        List<Access> trace = new ArrayList<>();
+        int image = 0;
+        while (trace.size() < ACCESSES) {
+            if (random.nextInt(100) < 3) {
+                for (int i = 0; i < 50; i++) {
+                    long size = 40 * 1024 + random.nextInt(40 * 1024);
+                    trace.add(new Access("img/" + image++, size));
+                }
+            } else {
+                int key = zipf.next();
+                trace.add(new Access("api/" + key, apiSizes[key]));
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * 5000个1~64KB的缓存按照Zipf分布访问
+     */
+    private static List<Access> createZipfTrace(Random random) {
+        long[] sizes = createSizes(random, 5000, 1024, 64 * 1024);
+        Zipf zipf = new Zipf(sizes.length, 0.8, random);
+        List<Access> trace = new ArrayList<>();
+        for (int i = 0; i < ACCESSES; i++) {
+            int key = zipf.next();
+            trace.add(new Access("res/" + key, sizes[key]));
+        }
+        return trace;
+    }
+
+    private static long[] createSizes(Random random, int count, int min, int max) {
+        long[] sizes = new long[count];
+        for (int i = 0; i < count; i++) {
+            sizes[i] = min + random.nextInt(max - min);
+        }
+        return sizes;
+    }
+
+    /**
+     * Zipf分布的采样，排名越靠前的Key访问越频繁
+     */
+    private static class Zipf {
+        private final double[] mCumulative;
+        private final Random mRandom;
+
+        Zipf(int count, double exponent, Random random) {
+            mRandom = random;
+            mCumulative = new double[count];
+            double sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += 1 / Math.pow(i + 1, exponent);
+                mCumulative[i] = sum;
+            }
+            for (int i = 0; i < count; i++) {
+                mCumulative[i] /= sum;
+            }
+        }
+
+        int next() {
+            double value = mRandom.nextDouble();
+            int low = 0;
+            int high = mCumulative.length - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mCumulative[mid] < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.NetworkError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Response;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link FileDownloadRequest} 的错误处理测试，写入本地文件失败直接结束请求，范围对不上时才重新请求
+ */
+public class FileDownloadRequestTest {
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void localWriteFailureIsNotRetried() throws Exception {
+        File target = new File(mTemporaryFolder.newFolder("download"), "out.bin");
+        //未完成的文件无法写入
+        File partial = new File(target.getPath() + ".part");
+        assertTrue(partial.mkdir());
+
+        FileDownloadRequest request = new FileDownloadRequest("http://example.com/out.bin",
+                target, null, null, null);
+        NetworkResponse response = newResponse(200, "Content-Length", "4");
+        //不会抛出异常，BasicNetwork不会重试
+        request.consumeStream(response, new ByteArrayInputStream(new byte[]{1, 2, 3, 4}));
+
+        Response<File> result = request.parseNetworkResponse(response);
+        assertFalse(result.isSuccess());
+        assertNotNull(result.error);
+        assertFalse(result.error instanceof NetworkError);
+        assertFalse(result.error instanceof ParseError);
+        assertTrue(result.error.getCause() instanceof IOException);
+        assertTrue(partial.isDirectory());
+        assertFalse(target.exists());
+    }
+
+    @Test
+    public void rangeMismatchIsRetried() throws Exception {
+        File target = new File(mTemporaryFolder.newFolder("download"), "out.bin");
+        File partial = new File(target.getPath() + ".part");
+        FileOutputStream out = new FileOutputStream(partial);
+        try {
+            out.write(new byte[10]);
+        } finally {
+            out.close();
+        }
+
+        FileDownloadRequest request = new FileDownloadRequest("http://example.com/out.bin",
+                target, null, null, null);
+        NetworkResponse response = newResponse(206, "Content-Range", "bytes 5-19/20");
+        try {
+            request.consumeStream(response, new ByteArrayInputStream(new byte[15]));
+            fail("a mismatched range must be retried from the start");
+        } catch (IOException expected) {
+        }
+        //已下载的部分已经清空，重试时从头开始
+        assertEquals(0, partial.length());
+    }
+
+    private static NetworkResponse newResponse(int statusCode, String name, String value) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put(name, value);
+        return new NetworkResponse(statusCode, new byte[0], headers, false, 0);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link HurlStack} 写入请求体的测试，只有较大或者长度未知的请求体才使用流模式
+ */
+public class HurlStackTest {
+    @Test
+    public void smallBodyIsBufferedByTheConnection() throws Exception {
+        RecordingConnection connection = new RecordingConnection();
+        HurlStack.setConnectionParametersForRequest(connection, new BodyRequest(new byte[100]));
+        assertEquals(-1, connection.mFixedLength);
+        assertEquals(-1, connection.mChunkLength);
+        assertEquals(100, connection.mBody.size());
+    }
+
+    @Test
+    public void largeBodyUsesFixedLengthStreaming() throws Exception {
+        int length = (int) HurlStack.STREAMING_THRESHOLD_BYTES;
+        RecordingConnection connection = new RecordingConnection();
+        HurlStack.setConnectionParametersForRequest(connection, new BodyRequest(new byte[length]));
+        assertEquals(length, connection.mFixedLength);
+        assertEquals(-1, connection.mChunkLength);
+        assertEquals(length, connection.mBody.size());
+    }
+
+    @Test
+    public void unknownLengthUsesChunkedStreaming() throws Exception {
+        RecordingConnection connection = new RecordingConnection();
+        BodyRequest request = new BodyRequest(new byte[10]) {
+            @Override
+            public BodyWriter getBodyWriter() {
+                return new BodyWriter() {
+                    @Override
+                    public long getContentLength() {
+                        return -1;
+                    }
+
+                    @Override
+                    public void writeTo(OutputStream out) throws IOException {
+                        out.write(new byte[10]);
+                    }
+                };
+            }
+        };
+        HurlStack.setConnectionParametersForRequest(connection, request);
+        assertEquals(-1, connection.mFixedLength);
+        assertEquals(0, connection.mChunkLength);
+        assertEquals(10, connection.mBody.size());
+    }
+
+    private static class BodyRequest extends Request<Void> {
+        private final byte[] mBody;
+
+        BodyRequest(byte[] body) {
+            super(Method.POST, "http://example.com/", null);
+            mBody = body;
+        }
+
+        @Override
+        public byte[] getBody() throws AuthFailureError {
+            return mBody;
+        }
+
+        @Override
+        protected Response<Void> parseNetworkResponse(NetworkResponse response) {
+            return null;
+        }
+
+        @Override
+        protected void deliverResponse(Void response) {
+        }
+    }
+
+    /**
+     * 记录设置的流模式和写入的请求体，不会真正建立连接
+     */
+    private static class RecordingConnection extends HttpURLConnection {
+        final ByteArrayOutputStream mBody = new ByteArrayOutputStream();
+        long mFixedLength = -1;
+        int mChunkLength = -1;
+
+        RecordingConnection() throws IOException {
+            super(new URL("http://example.com/"));
+        }
+
+        @Override
+        public void setFixedLengthStreamingMode(long contentLength) {
+            mFixedLength = contentLength;
+        }
+
+        @Override
+        public void setChunkedStreamingMode(int chunkLength) {
+            mChunkLength = chunkLength;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return mBody;
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+
+        @Override
+        public void connect() {
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.Cache;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.mock.MockCache;
+import com.android.volley.mock.MockNetwork;
+import com.android.volley.utils.ImmediateResponseDelivery;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link JsonObjectRequest} 命中缓存时的基准测试，比较每次重新解析和开启解析结果缓存后直接复用结果
+ * <p>
+ * 缓存中预先放入若干个约15KB的JSON响应，每一轮对每个Url发起一次请求，全部命中缓存，统计总耗时。
+ * 结果会打印出来，复用解析结果省掉的是JSON解析，单核机器上也应该更快
+ */
+public class JsonObjectRequestBenchmarkTest {
+    private static final int URLS = 50;
+    private static final int ROUNDS = 40;
+    private static final int ITEMS_PER_RESPONSE = 200;
+    private static final long TIMEOUT_MS = 60000;
+
+    @Test
+    public void parsedResponseReuseOnCacheHits() throws Exception {
+        //先各跑一轮预热
+        run(false, ROUNDS / 4);
+        run(true, ROUNDS / 4);
+
+        long parseNs = run(false, ROUNDS).mElapsedNs;
+        Result reused = run(true, ROUNDS);
+
+        int hits = URLS * ROUNDS;
+        System.out.println("JsonObjectRequestBenchmark hits=" + hits
+                + " responseBytes=" + createBody(0).length());
+        System.out.println(String.format("  parse every hit: %d ms, %d us/hit",
+                TimeUnit.NANOSECONDS.toMillis(parseNs), parseNs / 1000 / hits));
+        System.out.println(String.format("  reuse parsed:    %d ms, %d us/hit, distinct results=%d",
+                TimeUnit.NANOSECONDS.toMillis(reused.mElapsedNs),
+                reused.mElapsedNs / 1000 / hits, reused.mDistinctResults));
+
+        //每个Url只解析一次，之后拿到的都是同一个对象
+        assertEquals(URLS, reused.mDistinctResults);
+        assertTrue("reused " + reused.mElapsedNs + "ns, parsed " + parseNs + "ns",
+                reused.mElapsedNs < parseNs);
+    }
+
+    private static Result run(boolean cacheParsed, int rounds) throws Exception {
+        MockCache cache = new MockCache();
+        for (int i = 0; i < URLS; i++) {
+            JsonObjectRequest request = new JsonObjectRequest(getUrl(i), null, null);
+            cache.put(request.getCacheKey(), createEntry(createBody(i)));
+        }
+        RequestQueue queue = new RequestQueue(cache, new MockNetwork("{}"), 1,
+                new ImmediateResponseDelivery());
+        queue.setParsedResponseCacheSize(URLS);
+        queue.start();
+        final Set<JSONObject> results =
+                Collections.newSetFromMap(new ConcurrentHashMap<JSONObject, Boolean>());
+        final AtomicInteger errors = new AtomicInteger();
+        try {
+            long begin = System.nanoTime();
+            for (int round = 0; round < rounds; round++) {
+                //每一轮的Url各不相同，不会被暂存到进行中的相同请求后面
+                final CountDownLatch done = new CountDownLatch(URLS);
+                for (int i = 0; i < URLS; i++) {
+                    JsonObjectRequest request = new JsonObjectRequest(getUrl(i),
+                            new Response.Listener<JSONObject>() {
+                                @Override
+                                public void onResponse(JSONObject response) {
+                                    results.add(response);
+                                    done.countDown();
+                                }
+                            },
+                            new Response.ErrorListener() {
+                                @Override
+                                public void onErrorResponse(VolleyError error) {
+                                    errors.incrementAndGet();
+                                    done.countDown();
+                                }
+                            });
+                    request.setShouldCacheParsedResponse(cacheParsed);
+                    queue.add(request);
+                }
+                assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            }
+            long elapsed = System.nanoTime() - begin;
+            assertEquals(0, errors.get());
+            return new Result(elapsed, results.size());
+        } finally {
+            queue.stop();
+        }
+    }
+
+    private static String getUrl(int index) {
+        return "http://example.com/feed/" + index;
+    }
+
+    private static String createBody(int seed) throws Exception {
+        JSONArray items = new JSONArray();
+        for (int i = 0; i < ITEMS_PER_RESPONSE; i++) {
+            JSONObject item = new JSONObject();
+            item.put("id", seed * ITEMS_PER_RESPONSE + i);
+            item.put("title", "Item " + i + " of feed " + seed);
+            item.put("score", i * 0.5);
+            item.put("tags", new JSONArray().put("news").put("tech"));
+            items.put(item);
+        }
+        return new JSONObject().put("feed", seed).put("items", items).toString();
+    }
+
+    private static Cache.Entry createEntry(String body) {
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = body.getBytes(Charset.forName("UTF-8"));
+        entry.responseHeaders = Collections.singletonMap("Content-Type",
+                "application/json; charset=utf-8");
+        entry.ttl = System.currentTimeMillis() + 3600 * 1000;
+        entry.softTtl = entry.ttl;
+        return entry;
+    }
+
+    private static class Result {
+        private final long mElapsedNs;
+        private final int mDistinctResults;
+
+        Result(long elapsedNs, int distinctResults) {
+            mElapsedNs = elapsedNs;
+            mDistinctResults = distinctResults;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link StreamingRequest} 的测试，读取响应流失败才按照网络错误重试，解析失败直接以错误结束
+ */
+public class StreamingRequestTest {
+    private static final byte[] BODY = "[1, 2, oops".getBytes(Charset.forName("UTF-8"));
+
+    @Test
+    public void parseFailureFailsWithoutRetry() throws Exception {
+        CountingRequest request = new CountingRequest(null);
+        //不会抛出异常，BasicNetwork不会重试
+        request.consumeStream(newResponse(), new ByteArrayInputStream(BODY));
+
+        Response<Integer> response = request.parseNetworkResponse(newResponse());
+        assertFalse(response.isSuccess());
+        assertTrue(response.error instanceof ParseError);
+        assertEquals(1, request.mAttempts);
+    }
+
+    @Test
+    public void readFailureIsRetried() throws Exception {
+        CountingRequest request = new CountingRequest(null);
+        InputStream broken = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Connection reset");
+            }
+        };
+        try {
+            request.consumeStream(newResponse(), broken);
+            fail("read failures must reach BasicNetwork's retry policy");
+        } catch (IOException e) {
+            assertEquals("Connection reset", e.getMessage());
+        }
+    }
+
+    @Test
+    public void parseStreamErrorDecidesTheError() throws Exception {
+        VolleyError custom = new VolleyError("custom");
+        CountingRequest request = new CountingRequest(custom);
+        request.consumeStream(newResponse(), new ByteArrayInputStream(BODY));
+        assertSame(custom, request.parseNetworkResponse(newResponse()).error);
+
+        //返回null则交给重试策略
+        CountingRequest retrying = new CountingRequest(null) {
+            @Override
+            protected VolleyError parseStreamError(IOException e) {
+                return null;
+            }
+        };
+        try {
+            retrying.consumeStream(newResponse(), new ByteArrayInputStream(BODY));
+            fail("parseStreamError returned null, the request should be retried");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static NetworkResponse newResponse() {
+        return new NetworkResponse(200, new byte[0], Collections.<String, String>emptyMap(),
+                false, 0);
+    }
+
+    /**
+     * 逐个读取数字，遇到不是数字的内容时抛出IOException，模拟 {@code MalformedJsonException}
+     */
+    private static class CountingRequest extends StreamingRequest<Integer> {
+        private final VolleyError mStreamError;
+        int mAttempts;
+
+        CountingRequest(VolleyError streamError) {
+            super(Request.Method.GET, "http://example.com/", null);
+            mStreamError = streamError;
+        }
+
+        @Override
+        protected Integer parseNetworkStream(NetworkResponse response, InputStream in)
+                throws IOException {
+            mAttempts++;
+            int count = 0;
+            int c;
+            while ((c = in.read()) != -1) {
+                if (Character.isLetter(c)) {
+                    throw new IOException("Unexpected character " + (char) c);
+                }
+                if (Character.isDigit(c)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        protected VolleyError parseStreamError(IOException e) {
+            return mStreamError == null ? super.parseStreamError(e) : mStreamError;
+        }
+
+        @Override
+        protected void deliverResponse(Integer response) {
+        }
+    }
+}
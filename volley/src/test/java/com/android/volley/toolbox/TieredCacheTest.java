@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.Cache;
+import com.android.volley.mock.MockCache;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link TieredCache} 的测试，内存中的Entry会被多个请求共享，失效时不能修改它
+ */
+public class TieredCacheTest {
+    private static final String KEY = "0:http://example.com/config";
+
+    @Test
+    public void sharedEntryIsNeverMutated() {
+        MockCache backing = new MockCache();
+        TieredCache cache = new TieredCache(backing, 64 * 1024);
+        Cache.Entry entry = makeEntry("config".getBytes());
+        long ttl = entry.ttl;
+        long softTtl = entry.softTtl;
+        cache.put(KEY, entry);
+
+        //两个请求拿到的是同一个对象，不需要读下一级缓存
+        Cache.Entry first = cache.get(KEY);
+        Cache.Entry second = cache.get(KEY);
+        assertSame(entry, first);
+        assertSame(entry, second);
+        assertEquals(0, backing.getGetCount());
+        assertEquals(2, cache.getL1HitCount());
+
+        cache.invalidate(KEY, true);
+
+        //已经拿到的对象保持不变
+        assertEquals(ttl, first.ttl);
+        assertEquals(softTtl, first.softTtl);
+        assertFalse(first.refreshNeeded());
+        //之后拿到的是失效后的副本
+        Cache.Entry expired = cache.get(KEY);
+        assertNotSame(entry, expired);
+        assertEquals(0, expired.ttl);
+        assertEquals(0, expired.softTtl);
+        assertSame(entry.data, expired.data);
+        assertEquals(entry.etag, expired.etag);
+    }
+
+    @Test
+    public void softInvalidateKeepsTheHardTtl() {
+        TieredCache cache = new TieredCache(new MockCache(), 64 * 1024);
+        Cache.Entry entry = makeEntry("config".getBytes());
+        cache.put(KEY, entry);
+
+        cache.invalidate(KEY, false);
+
+        Cache.Entry expired = cache.get(KEY);
+        assertNotSame(entry, expired);
+        assertEquals(entry.ttl, expired.ttl);
+        assertEquals(0, expired.softTtl);
+        assertTrue(expired.refreshNeeded());
+        assertFalse(entry.refreshNeeded());
+    }
+
+    @Test
+    public void backingHitsArePromotedAndCounted() {
+        MockCache backing = new MockCache();
+        Cache.Entry entry = makeEntry(new byte[]{1, 2, 3});
+        backing.put(KEY, entry);
+        TieredCache cache = new TieredCache(backing, 64 * 1024);
+
+        assertSame(entry, cache.get(KEY));
+        assertSame(entry, cache.get(KEY));
+        assertNull(cache.get("0:http://example.com/missing"));
+
+        assertEquals(1, cache.getL1HitCount());
+        assertEquals(1, cache.getL2HitCount());
+        assertEquals(1, cache.getMissCount());
+        assertArrayEquals(new byte[]{1, 2, 3}, cache.get(KEY).data);
+    }
+
+    private static Cache.Entry makeEntry(byte[] data) {
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = data;
+        entry.etag = "\"v1\"";
+        entry.responseHeaders = Collections.singletonMap("Content-Type", "application/json");
+        entry.ttl = System.currentTimeMillis() + 3600 * 1000;
+        entry.softTtl = entry.ttl;
+        return entry;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.Cache;
+import com.android.volley.mock.MockCache;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link WriteBehindCache} 的测试，待写队列满了以后丢弃最早的写入，不阻塞写入线程，待写的数据可以直接读到
+ */
+public class WriteBehindCacheTest {
+    private static final long TIMEOUT_MS = 10000;
+
+    private final BlockingCache mBacking = new BlockingCache();
+
+    @After
+    public void tearDown() {
+        mBacking.release();
+    }
+
+    @Test
+    public void fullQueueDropsOldestPutWithoutBlocking() throws Exception {
+        WriteBehindCache cache = new WriteBehindCache(mBacking, 3);
+        Cache.Entry first = makeEntry(1);
+        cache.put("a", first);
+        //后台线程正在写入a，卡在下一级缓存中，a写入完成前一直留在队列中
+        assertTrue(mBacking.awaitWrite(TIMEOUT_MS));
+        cache.put("b", makeEntry(2));
+        cache.put("c", makeEntry(3));
+
+        long begin = System.nanoTime();
+        cache.put("d", makeEntry(4));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+        //队列满了，丢弃最早的写入，不等待后台线程
+        assertTrue("put blocked for " + elapsedMs + "ms", elapsedMs < 1000);
+        assertEquals(1, cache.getDroppedWriteCount());
+        assertEquals(3, cache.getPendingCount());
+        assertNotNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+
+        mBacking.release();
+        cache.flush();
+        //a在被丢弃前已经开始写入，写入会完成
+        assertSame(first, mBacking.get("a"));
+        assertNotNull(mBacking.get("b"));
+        assertNotNull(mBacking.get("d"));
+        assertEquals(0, cache.getPendingCount());
+    }
+
+    @Test
+    public void pendingWritesAreReadFromMemory() throws Exception {
+        WriteBehindCache cache = new WriteBehindCache(mBacking, 8);
+        cache.put("a", makeEntry(1));
+        assertTrue(mBacking.awaitWrite(TIMEOUT_MS));
+        Cache.Entry pending = makeEntry(2);
+        cache.put("b", pending);
+
+        assertSame(pending, cache.get("b"));
+        assertNull(mBacking.get("b"));
+
+        cache.remove("b");
+        assertNull(cache.get("b"));
+        mBacking.release();
+        cache.flush();
+        assertNull(mBacking.get("b"));
+    }
+
+    @Test
+    public void pendingInvalidateDoesNotMutateSharedEntry() throws Exception {
+        Cache.Entry stored = makeEntry(1);
+        long ttl = stored.ttl;
+        mBacking.putDirectly("a", stored);
+        WriteBehindCache cache = new WriteBehindCache(mBacking, 8);
+        //先让后台线程卡住，失效操作留在队列中
+        cache.put("block", makeEntry(0));
+        assertTrue(mBacking.awaitWrite(TIMEOUT_MS));
+
+        cache.invalidate("a", true);
+
+        Cache.Entry expired = cache.get("a");
+        assertNotSame(stored, expired);
+        assertEquals(0, expired.ttl);
+        assertEquals(0, expired.softTtl);
+        assertSame(stored.data, expired.data);
+        //下一级缓存返回的对象可能被其他请求共享，保持不变
+        assertEquals(ttl, stored.ttl);
+        assertEquals(ttl, stored.softTtl);
+    }
+
+    private static Cache.Entry makeEntry(int value) {
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = new byte[]{(byte) value};
+        entry.ttl = System.currentTimeMillis() + 3600 * 1000;
+        entry.softTtl = entry.ttl;
+        return entry;
+    }
+
+    /**
+     * 写入、失效和移除都一直等待，直到调用 {@link #release()}
+     */
+    private static class BlockingCache extends MockCache {
+        private final CountDownLatch mWriteStarted = new CountDownLatch(1);
+        private final CountDownLatch mGate = new CountDownLatch(1);
+
+        boolean awaitWrite(long timeoutMs) throws InterruptedException {
+            return mWriteStarted.await(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        void release() {
+            mGate.countDown();
+        }
+
+        void putDirectly(String key, Entry entry) {
+            super.put(key, entry);
+        }
+
+        @Override
+        public void put(String key, Entry entry) {
+            block();
+            super.put(key, entry);
+        }
+
+        @Override
+        public void invalidate(String key, boolean fullExpire) {
+            block();
+            super.invalidate(key, fullExpire);
+        }
+
+        @Override
+        public void remove(String key) {
+            block();
+            super.remove(key);
+        }
+
+        private void block() {
+            mWriteStarted.countDown();
+            try {
+                mGate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
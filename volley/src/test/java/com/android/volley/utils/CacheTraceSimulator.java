@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.utils;
+
+import com.android.volley.toolbox.CacheEvictionPolicy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 缓存淘汰策略的模拟器，按顺序回放访问记录（缓存Key和响应大小），统计命中率和字节命中率
+ * <p>
+ * 只模拟索引，不写文件，容量检查和修剪和 {@link com.android.volley.toolbox.DiskBasedCache} 一致：
+ * 没有命中时写入缓存，写入前总大小加上新缓存达到上限时，按照淘汰策略的顺序删除，直到低于上限的90%
+ */
+public class CacheTraceSimulator {
+    private static final float HYSTERESIS_FACTOR = 0.9f;
+
+    private final CacheEvictionPolicy mPolicy;
+    private final long mMaxBytes;
+    private final Map<String, Long> mEntries = new HashMap<>();
+    private long mTotalBytes;
+
+    private long mRequests;
+    private long mHits;
+    private long mRequestedBytes;
+    private long mHitBytes;
+    private long mEvictions;
+
+    public CacheTraceSimulator(CacheEvictionPolicy policy, long maxBytes) {
+        mPolicy = policy;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 回放全部访问记录
+     */
+    public CacheTraceSimulator replay(List<Access> trace) {
+        for (Access access : trace) {
+            access(access.key, access.size);
+        }
+        return this;
+    }
+
+    /**
+     * 访问一个缓存，没有命中或者大小变化时写入
+     */
+    public void access(String key, long size) {
+        mRequests++;
+        mRequestedBytes += size;
+        Long cached = mEntries.get(key);
+        if (cached != null && cached == size) {
+            mHits++;
+            mHitBytes += size;
+            mPolicy.onAccess(key);
+            return;
+        }
+        if (cached != null) {
+            mTotalBytes -= cached;
+            mEntries.remove(key);
+            mPolicy.onRemove(key);
+        }
+        pruneIfNeeded(size);
+        mEntries.put(key, size);
+        mTotalBytes += size;
+        mPolicy.onPut(key, size);
+    }
+
+    public double getHitRatio() {
+        return mRequests == 0 ? 0 : (double) mHits / mRequests;
+    }
+
+    public double getByteHitRatio() {
+        return mRequestedBytes == 0 ? 0 : (double) mHitBytes / mRequestedBytes;
+    }
+
+    public long getEvictionCount() {
+        return mEvictions;
+    }
+
+    public long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s hit=%.3f byteHit=%.3f evictions=%d",
+                mPolicy.getClass().getSimpleName(), getHitRatio(), getByteHitRatio(), mEvictions);
+    }
+
+    private void pruneIfNeeded(long neededSpace) {
+        if (mTotalBytes + neededSpace < mMaxBytes) {
+            return;
+        }
+        //和DiskBasedCache一样，遍历期间只挑选，挑选完再统一移除
+        List<String> victims = new ArrayList<>();
+        long remaining = mTotalBytes;
+        Iterator<String> iterator = mPolicy.evictionOrder();
+        while (iterator.hasNext()) {
+            String key = iterator.next();
+            Long size = mEntries.get(key);
+            if (size == null) {
+                continue;
+            }
+            remaining -= size;
+            victims.add(key);
+            if (remaining + neededSpace < mMaxBytes * HYSTERESIS_FACTOR) {
+                break;
+            }
+        }
+        for (String key : victims) {
+            mTotalBytes -= mEntries.remove(key);
+            mPolicy.onRemove(key);
+            mEvictions++;
+        }
+    }
+
+    /**
+     * 读取访问记录，每行一个缓存Key和大小，用空白分隔，忽略空行和#开头的行
+     */
+    public static List<Access> readTrace(Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        List<Access> trace = new ArrayList<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+");
+            if (parts.length != 2) {
+                throw new IOException("Invalid trace line: " + line);
+            }
+            trace.add(new Access(parts[0], Long.parseLong(parts[1])));
+        }
+        return trace;
+    }
+
+    /**
+     * 一次访问
+     */
+    public static class Access {
+        public final String key;
+        public final long size;
+
+        public Access(String key, long size) {
+            this.key = key;
+            this.size = size;
+        }
+    }
+}